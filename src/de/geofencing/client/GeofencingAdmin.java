@@ -261,8 +261,7 @@ public class GeofencingAdmin extends GeofencingClient{
 	 * @param location Location description of the beacon
 	 */
 	public void addBeacon(SystemBeacon beacon, String location){
-		beacon.setLocation(location);
-		new AddBeaconTask().runTask(logHandler, beacon);
+		new AddBeaconTask().runTask(logHandler, beacon.withLocation(location));
 	}
 	
 	/** Removes Event from the Geofence
@@ -0,0 +1,96 @@
+package de.geofencing.database;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import de.geofencing.system.beacon.SystemBeacons;
+import de.geofencing.system.device.Device;
+
+/** Codec for Device with its beacons in range
+ *
+ * @author Markus Thral
+ *
+ */
+public class DeviceCodec extends ObjectCodec<Device> {
+
+	private final SystemBeaconsCodec beaconsCodec;
+
+	/** Creates codec which uses the given codec for the beacons in range
+	 *
+	 * @param beaconsCodec Codec for SystemBeacons
+	 */
+	public DeviceCodec(SystemBeaconsCodec beaconsCodec){
+		this.beaconsCodec = beaconsCodec;
+	}
+
+	@Override
+	public Class<Device> getEncoderClass() {
+		return Device.class;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, Device device, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeInt32("deviceID", device.getDeviceID());
+		writeString(writer, "address", device.getAddress());
+		writer.writeInt64("lastTimeUpdated", device.getLastTimeUpdated().getTime());
+		writeString(writer, "firebaseToken", device.getFireBaseToken());
+		writer.writeName("beacons");
+		encoderContext.encodeWithChildContext(beaconsCodec, writer, 
+				device.getBeacons() != null ? device.getBeacons() : new SystemBeacons());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public Device decode(BsonReader reader, DecoderContext decoderContext) {
+		int deviceID = -1;
+		String address = null;
+		long lastTimeUpdated = -1;
+		String firebaseToken = null;
+		SystemBeacons beacons = null;
+
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			switch(reader.readName()){
+			case "deviceID":
+				deviceID = readInt(reader);
+				break;
+			case "address":
+				address = readString(reader);
+				break;
+			case "lastTimeUpdated":
+				lastTimeUpdated = readLong(reader);
+				break;
+			case "firebaseToken":
+				String token = readString(reader);
+				if(token != null){
+					firebaseToken = token;
+				}
+				break;
+			case "fireBaseToken":
+				//written by former versions
+				String formerToken = readString(reader);
+				if(firebaseToken == null){
+					firebaseToken = formerToken;
+				}
+				break;
+			case "beacons":
+				if(reader.getCurrentBsonType() == BsonType.DOCUMENT){
+					beacons = beaconsCodec.decode(reader, decoderContext);
+				} else{
+					beacons = new SystemBeacons();
+					beaconsCodec.decodeList(reader, beacons, decoderContext);
+				}
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new Device(deviceID, address, lastTimeUpdated, firebaseToken, 
+				beacons != null ? beacons : new SystemBeacons());
+	}
+}
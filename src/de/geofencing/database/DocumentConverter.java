@@ -1,61 +1,136 @@
 package de.geofencing.database;
 
-import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
 import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.introspect.VisibilityChecker;
-import com.mongodb.util.JSON;
+import com.mongodb.MongoClient;
 
-import de.geofencing.event.Event;
 import de.geofencing.log.LogEntry;
 
-/** Provides methods to de-/serialize documents from the MongoDB
+/** Provides methods to de-/serialize documents from the MongoDB.
+ * Objects are read and written by the codecs of the CodecRegistry,
+ * which is used by the collections of the MongoConnection.
+ * Codecs of the system (Device, SystemBeacon, SystemBeacons, Geofence and Event) are registered by default,
+ * extensions can register codecs for their classes before the first use.
+ * Objects of classes without codec are mapped by Jackson
+ *
  * Uses Mongo Java Driver (Needs mongo-java-driver-3.4.2.jar or newer)
  * Uses Jackson for serializing (Needs jackson 2.3.2 or newer)
- * 
+ *
  * @author Markus Thral
  *
  */
 public class DocumentConverter {
 
+	private static final Map<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+	private static final CodecRegistry codecRegistry;
+
+	static{
+		SystemBeaconCodec beaconCodec = new SystemBeaconCodec();
+		SystemBeaconsCodec beaconsCodec = new SystemBeaconsCodec(beaconCodec);
+		EventCodec eventCodec = new EventCodec();
+		registerCodec(beaconCodec);
+		registerCodec(beaconsCodec);
+		registerCodec(eventCodec);
+		registerCodec(new DeviceCodec(beaconsCodec));
+		registerCodec(new GeofenceCodec(beaconsCodec, eventCodec));
+
+		codecRegistry = CodecRegistries.fromRegistries(
+				CodecRegistries.fromProviders(new CodecProvider() {
+					@Override
+					public <T> Codec<T> get(Class<T> classType, CodecRegistry registry) {
+						return findCodec(classType);
+					}
+				}),
+				MongoClient.getDefaultCodecRegistry());
+	}
+
+	/** Registers codec for its encoder class and derivations without own codec.
+	 * Has to be called before the class is used with the database the first time.
+	 *
+	 * @param codec Codec to be registered
+	 */
+	public static void registerCodec(Codec<?> codec){
+		codecs.put(codec.getEncoderClass(), codec);
+	}
+
+	/** Gets registry with the registered codecs and the default codecs of the driver
+	 *
+	 * @return CodecRegistry of the system
+	 */
+	public static CodecRegistry getCodecRegistry(){
+		return codecRegistry;
+	}
+
+	/** Finds registered codec for the class or its next super class
+	 *
+	 * @param classType Class to be de-/serialized
+	 * @return Codec of the class or null if not registered
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Codec<T> findCodec(Class<T> classType){
+		for(Class<?> current = classType; current != null; current = current.getSuperclass()){
+			Codec<?> codec = codecs.get(current);
+			if(codec != null){
+				return (Codec<T>)codec;
+			}
+		}
+		return null;
+	}
+
+	/** Gets registered codec or a Jackson codec if no codec is registered
+	 *
+	 * @param classType Class to be de-/serialized
+	 * @return Codec of the class
+	 */
+	private static <T> Codec<T> getCodec(Class<T> classType){
+		Codec<T> codec = findCodec(classType);
+		if(codec == null){
+			codec = new JacksonCodec<>(classType);
+		}
+		return codec;
+	}
+
 	/** Converts the given Document to an Object with the given class
-	 * 
+	 *
 	 * @param classType Class saved in the document
 	 * @param document Document to be converted
 	 * @return Object with the given class
 	 */
 	public static Object toObject(Class<?> classType, Document document){
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-		mapper.setVisibilityChecker(VisibilityChecker.Std.defaultInstance()
-				.withFieldVisibility(JsonAutoDetect.Visibility.ANY));
 		try {
-			document.remove("_id");
-			String json = JSON.serialize(document);
-			if(classType.equals(Event.class)){
-				return Event.jsonToEvent(json);
-			}
-			return mapper.readValue(json, classType);
-		} catch (IOException | ClassNotFoundException e) {
+			BsonDocument bson = document.toBsonDocument(Document.class, codecRegistry);
+			return getCodec(classType).decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+		} catch (RuntimeException e) {
 			LogEntry.c(e);
 			return null;
 		}
 	}
-	
+
 	/** Converts given Object to document for saving in database
-	 * 
+	 *
 	 * @param object Object to be converted
 	 * @return Document of the object
 	 */
+	@SuppressWarnings("unchecked")
 	public static Document toDocument(Object object){
-		ObjectMapper mapper = new ObjectMapper();
 		try{
-			return Document.parse(mapper.writeValueAsString(object));
-		} catch (IOException e) {
+			BsonDocument bson = new BsonDocument();
+			Codec<Object> codec = (Codec<Object>)getCodec(object.getClass());
+			codec.encode(new BsonDocumentWriter(bson), object, EncoderContext.builder().build());
+			return codecRegistry.get(Document.class).decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+		} catch (RuntimeException e) {
 			LogEntry.c(e);
 			return null;
 		}
@@ -0,0 +1,33 @@
+package de.geofencing.database;
+
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.geofencing.event.Event;
+import de.geofencing.event.EventTypeRegistry;
+
+/** Codec for Event and its derivations.
+ * The derivation is identified by the classType saved in the document,
+ * only derivations registered in the EventTypeRegistry are read.
+ *
+ * @author Markus Thral
+ *
+ */
+public class EventCodec extends JacksonCodec<Event> {
+
+	public EventCodec(){
+		super(Event.class);
+	}
+
+	@Override
+	protected Event fromTree(ObjectNode node) {
+		try {
+			return EventTypeRegistry.read(mapper, node);
+		} catch (ClassNotFoundException e) {
+			throw new CodecConfigurationException(e.getMessage());
+		} catch (Exception e) {
+			throw new CodecConfigurationException("Could not map Event " + node.get("classType") + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package de.geofencing.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import de.geofencing.event.Event;
+import de.geofencing.system.beacon.SystemBeacon;
+import de.geofencing.system.beacon.SystemBeacons;
+import de.geofencing.system.geofence.Geofence;
+
+/** Codec for Geofence. Only minor and description are written, 
+ * beacons and events are saved in their own collections. 
+ * If the read document contains beacons or events (i.e. joined by an aggregation), 
+ * they are added to the Geofence.
+ *
+ * @author Markus Thral
+ *
+ */
+public class GeofenceCodec extends ObjectCodec<Geofence> {
+
+	private final SystemBeaconsCodec beaconsCodec;
+	private final Codec<Event> eventCodec;
+
+	/** Creates codec which uses the given codecs for beacons and events
+	 *
+	 * @param beaconsCodec Codec for SystemBeacons
+	 * @param eventCodec Codec for Event
+	 */
+	public GeofenceCodec(SystemBeaconsCodec beaconsCodec, Codec<Event> eventCodec){
+		this.beaconsCodec = beaconsCodec;
+		this.eventCodec = eventCodec;
+	}
+
+	@Override
+	public Class<Geofence> getEncoderClass() {
+		return Geofence.class;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, Geofence geofence, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeInt32("minor", geofence.getMinor());
+		writeString(writer, "description", geofence.getDescription());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public Geofence decode(BsonReader reader, DecoderContext decoderContext) {
+		int minor = 0;
+		String description = null;
+		SystemBeacons beacons = new SystemBeacons();
+		List<Event> events = new ArrayList<>();
+		
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			switch(reader.readName()){
+			case "minor":
+				minor = readInt(reader);
+				break;
+			case "description":
+				description = readString(reader);
+				break;
+			case "beacons":
+				if(reader.getCurrentBsonType() == BsonType.DOCUMENT){
+					beacons = beaconsCodec.decode(reader, decoderContext);
+				} else{
+					beaconsCodec.decodeList(reader, beacons, decoderContext);
+				}
+				break;
+			case "events":
+				if(reader.getCurrentBsonType() != BsonType.ARRAY){
+					reader.skipValue();
+					break;
+				}
+				reader.readStartArray();
+				while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+					events.add(eventCodec.decode(reader, decoderContext));
+				}
+				reader.readEndArray();
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		
+		Geofence geofence = new Geofence(minor, description);
+		for(SystemBeacon beacon : beacons){
+			geofence.addBeacon(beacon);
+		}
+		for(Event event : events){
+			geofence.addEvent(event);
+		}
+		return geofence;
+	}
+}
@@ -2,12 +2,32 @@ package de.geofencing.database;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 
@@ -31,14 +51,29 @@ public class GeofencingDBConnector {
 	
 	//Create
 
-	/** Inserts Device in database without checking deviceID or address
+	/** Inserts Device in database. DeviceID and address are checked by the unique indexes,
+	 * a duplicate key is reported as duplicate address if a Device with the address exists
 	 * 
 	 * @param device Device to be added
+	 * @return true if Device is added, false if the deviceID is already in use
+	 * @throws AlreadyExistingException if the address is already in use
 	 */
-	public static void insertDevice(Device device){
+	public static boolean insertDevice(Device device) throws AlreadyExistingException{
 		MongoConnection connection = new MongoConnection();
-		connection.getDeviceCollection().insertOne(DocumentConverter.toDocument(device));
-		connection.disconnect();
+		try{
+			connection.getDeviceCollection(Device.class).insertOne(device);
+			return true;
+		} catch(MongoWriteException e){
+			if(e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY){
+				throw e;
+			}
+			if(mailAddressInUse(device.getAddress())){
+				throw new AlreadyExistingException(device.getAddress());
+			}
+			return false;
+		} finally{
+			connection.disconnect();
+		}
 	}
 	
 	/** Inserts Geofence in database without checking minor
@@ -47,7 +82,7 @@ public class GeofencingDBConnector {
 	 */
 	public static void insertGeofence(Geofence geofence){
 		MongoConnection connection = new MongoConnection();
-		connection.getGeofenceCollection().insertOne(DocumentConverter.toDocument(geofence));
+		connection.getGeofenceCollection(Geofence.class).insertOne(geofence);
 		connection.disconnect();
 	}
 	
@@ -57,7 +92,7 @@ public class GeofencingDBConnector {
 	 */
 	public static void insertBeacon(SystemBeacon beacon){
 		MongoConnection connection = new MongoConnection();
-		connection.getBeaconCollection().insertOne(DocumentConverter.toDocument(beacon));
+		connection.getBeaconCollection(SystemBeacon.class).insertOne(beacon);
 		connection.disconnect();
 	}
 	
@@ -67,10 +102,47 @@ public class GeofencingDBConnector {
 	 */
 	public static void insertEvent(Event event){
 		MongoConnection connection = new MongoConnection();
-		connection.getEventCollection().insertOne(DocumentConverter.toDocument(event));
+		connection.getEventCollection(Event.class).insertOne(event);
 		connection.disconnect();
 	}
 	
+	//IDs
+	
+	/** Gets next available minor from the sequence of the minors
+	 * 
+	 * @return next available minor
+	 */
+	public static int nextMinor(){
+		return IdAllocator.nextID("minor", MongoConnection.geofenceCollection, new Document(), "minor");
+	}
+	
+	/** Gets next available major of the Geofence from the sequence of its majors
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @return next available major
+	 */
+	public static int nextMajor(int minor){
+		return IdAllocator.nextID("major:" + minor, MongoConnection.beaconCollection, eq("minor", minor), "major");
+	}
+	
+	/** Marks major of the Geofence as used, so it is not generated again
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @param major Major which is in use
+	 */
+	public static void reserveMajor(int minor, int major){
+		IdAllocator.reserveID("major:" + minor, major);
+	}
+	
+	/** Gets next available eventID of the Geofence from the sequence of its eventIDs
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @return next available eventID
+	 */
+	public static int nextEventID(int minor){
+		return IdAllocator.nextIDFromBlock("eventID:" + minor, MongoConnection.eventCollection, eq("minor", minor), "eventID");
+	}
+	
 	//Read
 	
 	/** Checks if Geofence with the given minor exists
@@ -80,35 +152,68 @@ public class GeofencingDBConnector {
 	 */
 	public static boolean isGeofenceExisting(int minor){
 		MongoConnection connection = new MongoConnection();
-		Document document = connection.getGeofenceCollection().find(eq("minor", minor)).first();
+		long count = connection.getGeofenceCollection().count(eq("minor", minor), new CountOptions().limit(1));
 		connection.disconnect();
-		if(document != null){
-			return true;
-		}
-		return false;
+		return count > 0;
 	}
 	
-	/** Gets Geofence with the given minor from the database
+	/** Gets Geofence with the given minor, its beacons and its Events from the database in one query
 	 * 
 	 * @param minor Minor of the Geofence
 	 * @return Geofence object if minor existing
 	 * @throws NotFoundException if minor not existing
 	 */
 	public static Geofence findGeofence(int minor) throws NotFoundException{
+		return loadGeofence(minor, true, true);
+	}
+	
+	/** Gets Geofence with the given minor and its Events, but without beacons, from the database in one query
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @return Geofence object with Events if minor existing
+	 * @throws NotFoundException if minor not existing
+	 */
+	public static Geofence findGeofenceWithEvents(int minor) throws NotFoundException{
+		return loadGeofence(minor, false, true);
+	}
+	
+	/** Gets Geofence with the given minor and its beacons, but without Events, from the database in one query
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @return Geofence object with beacons if minor existing
+	 * @throws NotFoundException if minor not existing
+	 */
+	public static Geofence findGeofenceWithBeacons(int minor) throws NotFoundException{
+		return loadGeofence(minor, true, false);
+	}
+	
+	/** Gets Geofence with the given minor from the database. 
+	 * Beacons and Events are joined by an aggregation, so only one query is executed
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @param withBeacons true if the beacons of the Geofence should be loaded
+	 * @param withEvents true if the Events of the Geofence should be loaded
+	 * @return Geofence object if minor existing
+	 * @throws NotFoundException if minor not existing
+	 */
+	protected static Geofence loadGeofence(int minor, boolean withBeacons, boolean withEvents) throws NotFoundException{
+		List<Bson> pipeline = new ArrayList<>();
+		pipeline.add(Aggregates.match(eq("minor", minor)));
+		pipeline.add(Aggregates.limit(1));
+		if(withBeacons){
+			pipeline.add(Aggregates.lookup(MongoConnection.beaconCollection, "minor", "minor", "beacons"));
+		}
+		if(withEvents){
+			pipeline.add(Aggregates.lookup(MongoConnection.eventCollection, "minor", "minor", "events"));
+		}
 		MongoConnection connection = new MongoConnection();
-		Document document = connection.getGeofenceCollection().find(eq("minor", minor)).first();
-		if(document != null){
-			Geofence geofence = (Geofence)DocumentConverter.toObject(Geofence.class, document);
-			for(SystemBeacon beacon:findGeofenceBeacons(minor)){
-				geofence.addBeacon(beacon);
-			}
-			for(Event event:findGeofenceEvents(minor)){
-				geofence.addEvent(event);
-			}
-			connection.disconnect();
+		Geofence geofence = connection.getGeofenceCollection()
+				.aggregate(pipeline, Geofence.class)
+				.first();
+		connection.disconnect();
+		if(geofence != null){
 			return geofence;
 		}
-		connection.disconnect();
 		throw new NotFoundException("Geofence " + minor);
 	}
 	
@@ -119,9 +224,7 @@ public class GeofencingDBConnector {
 	public static List<Geofence> findGeofences(){
 		MongoConnection connection = new MongoConnection();
 		List<Geofence> geofences = new ArrayList<>();
-		for(Document document : connection.getGeofenceCollection().find()){
-			geofences.add((Geofence)DocumentConverter.toObject(Geofence.class, document));
-		}
+		connection.getGeofenceCollection(Geofence.class).find().into(geofences);
 		connection.disconnect();
 		return geofences;
 	}
@@ -134,10 +237,9 @@ public class GeofencingDBConnector {
 	 */
 	public static SystemBeacons findGeofenceBeacons(int minor) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		isGeofenceExisting(minor);
 		SystemBeacons beacons = new SystemBeacons();
-		for(Document document : connection.getBeaconCollection().find(eq("minor", minor))){
-			beacons.addBeacon((SystemBeacon)DocumentConverter.toObject(SystemBeacon.class, document));
+		for(SystemBeacon beacon : connection.getBeaconCollection(SystemBeacon.class).find(eq("minor", minor))){
+			beacons.addBeacon(beacon);
 		}
 		connection.disconnect();
 		return beacons;
@@ -151,11 +253,20 @@ public class GeofencingDBConnector {
 	 */
 	public static List<Event> findGeofenceEvents(int minor) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		isGeofenceExisting(minor);
 		List<Event> events = new ArrayList<>();
-		for(Document document:connection.getEventCollection().find(eq("minor", minor))){
-			events.add((Event)DocumentConverter.toObject(Event.class, document));
-		}
+		connection.getEventCollection(Event.class).find(eq("minor", minor)).into(events);
+		connection.disconnect();
+		return events;
+	}
+
+	/** Gets Events of all Geofences from the database
+	 * 
+	 * @return List of Event objects
+	 */
+	public static List<Event> findEvents(){
+		MongoConnection connection = new MongoConnection();
+		List<Event> events = new ArrayList<>();
+		connection.getEventCollection(Event.class).find().into(events);
 		connection.disconnect();
 		return events;
 	}
@@ -169,12 +280,12 @@ public class GeofencingDBConnector {
 	 */
 	public static Event findGeofenceEvent(int minor, int eventID) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		Document document = connection.getEventCollection().find(
+		Event event = connection.getEventCollection(Event.class).find(
 				and(eq("minor", minor), eq("eventID", eventID)))
 				.first();
 		connection.disconnect();
-		if(document != null){
-			return (Event)DocumentConverter.toObject(Event.class, document);
+		if(event != null){
+			return event;
 		}
 		throw new NotFoundException("Event minor/eventID " + minor + "/" + eventID);		
 	}
@@ -203,12 +314,12 @@ public class GeofencingDBConnector {
 	 */
 	public static SystemBeacon findBeacon(int minor, int major) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		Document document = connection.getBeaconCollection()
+		SystemBeacon beacon = connection.getBeaconCollection(SystemBeacon.class)
 				.find(and(eq("minor", minor), eq("major", major)))
 				.first();
 		connection.disconnect();
-		if(document != null){
-			return (SystemBeacon)DocumentConverter.toObject(SystemBeacon.class, document);
+		if(beacon != null){
+			return beacon;
 		}
 		throw new NotFoundException("Beacon minor/major" + minor + "/" + major);
 	}
@@ -220,8 +331,8 @@ public class GeofencingDBConnector {
 	public static SystemBeacons findBeacons(){
 		MongoConnection connection = new MongoConnection();
 		SystemBeacons beacons = new SystemBeacons();
-		for(Document document : connection.getBeaconCollection().find()){
-			beacons.addBeacon((SystemBeacon)DocumentConverter.toObject(SystemBeacon.class, document));
+		for(SystemBeacon beacon : connection.getBeaconCollection(SystemBeacon.class).find()){
+			beacons.addBeacon(beacon);
 		}
 		connection.disconnect();
 		return beacons;
@@ -263,10 +374,10 @@ public class GeofencingDBConnector {
 	 */
 	public static Device findDevice(int deviceID) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		Document document = connection.getDeviceCollection().find(eq("deviceID", deviceID)).first();
+		Device device = connection.getDeviceCollection(Device.class).find(eq("deviceID", deviceID)).first();
 		connection.disconnect();
-		if(document != null){
-			return (Device)DocumentConverter.toObject(Device.class, document);
+		if(device != null){
+			return device;
 		}
 		throw new NotFoundException("Device " + deviceID);
 	}
@@ -279,10 +390,10 @@ public class GeofencingDBConnector {
 	 */
 	public static Device findDevice(String mailAddress) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		Document document = connection.getDeviceCollection().find(eq("address", mailAddress)).first();
+		Device device = connection.getDeviceCollection(Device.class).find(eq("address", mailAddress)).first();
 		connection.disconnect();
-		if(document != null){
-			return (Device)DocumentConverter.toObject(Device.class, document);
+		if(device != null){
+			return device;
 		}
 		throw new NotFoundException("Device " + mailAddress);
 	}
@@ -294,9 +405,9 @@ public class GeofencingDBConnector {
 	public static Devices findDevices(){
 		MongoConnection connection = new MongoConnection();
 		Devices devices = new Devices();
-		for(Document document : connection.getDeviceCollection().find()){
+		for(Device device : connection.getDeviceCollection(Device.class).find()){
 			try {
-				devices.addDevice((Device)DocumentConverter.toObject(Device.class, document));
+				devices.addDevice(device);
 			} catch (AlreadyExistingException e) {
 			}
 		}
@@ -304,6 +415,22 @@ public class GeofencingDBConnector {
 		return devices;
 	}
 	
+	/** Reads the beacons in range of all Devices one by one, without keeping the Devices
+	 * 
+	 * @param action Called with the deviceID and the beacons of each Device
+	 */
+	public static void forEachDeviceBeacons(BiConsumer<Integer, SystemBeacons> action){
+		MongoConnection connection = new MongoConnection();
+		try{
+			for(Device device : connection.getDeviceCollection(Device.class).find()
+					.projection(Projections.include("deviceID", "beacons"))){
+				action.accept(device.getDeviceID(), device.getBeacons());
+			}
+		}finally{
+			connection.disconnect();
+		}
+	}
+	
 	/** Checks if Device is in range of the Geofence
 	 * 
 	 * @param deviceID DeviceID of the device
@@ -326,33 +453,126 @@ public class GeofencingDBConnector {
 		return findDevice(deviceID).getBeacons();
 	}
 	
+	/** Gets beacons in range of the Devices with one query
+	 * 
+	 * @param deviceIDs DeviceIDs of the Devices
+	 * @return SystemBeacons by deviceID, Devices not existing are missing
+	 */
+	public static Map<Integer, SystemBeacons> findDevicesBeacons(Collection<Integer> deviceIDs){
+		Map<Integer, SystemBeacons> beacons = new HashMap<>();
+		if(deviceIDs.isEmpty()){
+			return beacons;
+		}
+		MongoConnection connection = new MongoConnection();
+		for(Device device : connection.getDeviceCollection(Device.class)
+				.find(in("deviceID", deviceIDs))
+				.projection(Projections.include("deviceID", "beacons"))){
+			beacons.put(device.getDeviceID(), device.getBeacons());
+		}
+		connection.disconnect();
+		return beacons;
+	}
+	
 	//Update
 	
 	/** Updates beacons in range of the Device
 	 * 
 	 * @param deviceID DeviceID of the Device
 	 * @param beacons SystemBeacons object with beacons to be updated
-	 * @return true if updated succeeded, false if an error occured
+	 * @return true if updated succeeded
 	 * @throws NotFoundException if deviceID not existing
 	 */
 	public static boolean updateDevice(int deviceID, SystemBeacons beacons) throws NotFoundException{
-		findDevice(deviceID);
+		swapDeviceBeacons(deviceID, beacons);
+		return true;
+	}
+	
+	/** Replaces beacons in range of the Device and sets the time of the update in one atomic operation.
+	 * The beacons before the update are returned, so concurrent updates of the same Device
+	 * are each compared with the exact state they replaced.
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @param beacons SystemBeacons object with the beacons now in range
+	 * @return SystemBeacons object with the beacons in range before the update
+	 * @throws NotFoundException if deviceID not existing
+	 */
+	public static SystemBeacons swapDeviceBeacons(int deviceID, SystemBeacons beacons) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		Document beaconsDoc = DocumentConverter.toDocument(beacons);	
-		UpdateResult result = connection.getDeviceCollection().updateOne(
+		Device previous = connection.getDeviceCollection(Device.class).findOneAndUpdate(
 				eq("deviceID", deviceID), 
-				new Document("$set", new Document("beacons", beaconsDoc)));
-		if(result.getModifiedCount() == 1){
-			result = connection.getDeviceCollection().updateOne(
-					eq("deviceID", deviceID), 
-					new Document("$set", new Document("lastTimeUpdated", System.currentTimeMillis())));
-			if(result.getModifiedCount() == 1){
-				connection.disconnect();
-				return true;
+				new Document("$set", new Document("beacons", beacons)
+						.append("lastTimeUpdated", System.currentTimeMillis())),
+				new FindOneAndUpdateOptions()
+						.projection(Projections.include("deviceID", "beacons"))
+						.returnDocument(ReturnDocument.BEFORE));
+		connection.disconnect();
+		if(previous != null){
+			return previous.getBeacons();
+		}
+		throw new NotFoundException("Device " + deviceID);
+	}
+	
+	/** Replaces beacons in range of several Devices with one bulk write and returns the beacons before the updates.
+	 * Each update only matches the time and beacons of the Device read before, so it replaces exactly that state.
+	 * Devices which are not updated, because they are not existing or changed in between, 
+	 * have to be updated one at a time with swapDeviceBeacons.
+	 * 
+	 * @param beacons SystemBeacons object with the beacons now in range by deviceID
+	 * @return SystemBeacons object with the beacons in range before the update by deviceID of the updated Devices
+	 */
+	public static Map<Integer, SystemBeacons> swapDevicesBeacons(Map<Integer, SystemBeacons> beacons){
+		Map<Integer, SystemBeacons> previous = new HashMap<>();
+		if(beacons.isEmpty()){
+			return previous;
+		}
+		MongoConnection connection = new MongoConnection();
+		Map<Integer, Long> updated = new HashMap<>();
+		for(Device device : connection.getDeviceCollection(Device.class)
+				.find(in("deviceID", beacons.keySet()))
+				.projection(Projections.include("deviceID", "beacons", "lastTimeUpdated"))){
+			previous.put(device.getDeviceID(), device.getBeacons());
+			updated.put(device.getDeviceID(), device.getLastTimeUpdated().getTime());
+		}
+		long now = System.currentTimeMillis();
+		List<Integer> deviceIDs = new ArrayList<>(previous.keySet());
+		List<WriteModel<Document>> updates = new ArrayList<>(deviceIDs.size());
+		for(int deviceID : deviceIDs){
+			updates.add(new UpdateOneModel<Document>(
+					and(eq("deviceID", deviceID), eq("lastTimeUpdated", updated.get(deviceID)), eq("beacons", previous.get(deviceID))),
+					new Document("$set", new Document("beacons", beacons.get(deviceID)).append("lastTimeUpdated", now))));
+		}
+		Set<Integer> losers = new HashSet<>();
+		int matched;
+		if(updates.isEmpty()){
+			matched = 0;
+		} else{
+			try{
+				matched = connection.getDeviceCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false)).getMatchedCount();
+			}catch(MongoBulkWriteException e){
+				for(BulkWriteError error : e.getWriteErrors()){
+					losers.add(deviceIDs.get(error.getIndex()));
+				}
+				matched = e.getWriteResult().getMatchedCount();
 			}
 		}
+		if(matched < deviceIDs.size() - losers.size()){
+			//the bulk result has no matches by update: the winners are the Devices updated with this time
+			Set<Integer> unknown = new HashSet<>(deviceIDs);
+			unknown.removeAll(losers);
+			for(Device device : connection.getDeviceCollection(Device.class)
+					.find(in("deviceID", new ArrayList<>(unknown)))
+					.projection(Projections.include("deviceID", "lastTimeUpdated"))){
+				unknown.remove(device.getDeviceID());
+				if(device.getLastTimeUpdated().getTime() != now){
+					losers.add(device.getDeviceID());
+				}
+			}
+			//removed in between
+			previous.keySet().removeAll(unknown);
+		}
 		connection.disconnect();
-		return false;
+		previous.keySet().removeAll(losers);
+		return previous;
 	}
 	
 	/** Updates Firebase token of the Device
@@ -0,0 +1,199 @@
+package de.geofencing.database;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+
+import de.geofencing.system.SystemConfiguration;
+
+/** Allocates IDs from sequences in the database. 
+ * Each sequence is a document in the sequences collection, IDs are taken with an atomic $inc.
+ * On the first use of a sequence it is raised to the highest ID already existing in the collection
+ * of the IDs, so existing data is not overwritten.
+ * 
+ * With the configuration value idBlockSize a node takes blocks of IDs and hands them out 
+ * without accessing the database until the block is used up. Unused IDs of a block are lost 
+ * when the node stops, so IDs are unique and increasing, but not gapless.
+ * Blocks are only taken by nextIDFromBlock, which is used for the eventIDs and counterIDs. 
+ * Minors and majors are taken one by one with nextID, because they are 16 bit values of the beacons 
+ * which would be used up by the lost IDs of every restart and every node, 
+ * and reserveID does not reach the blocks cached by other nodes.
+ * 
+ * Uses Mongo Java Driver (Needs mongo-java-driver-3.4.2.jar or newer)
+ * 
+ * @author Markus Thral
+ *
+ */
+public class IdAllocator {
+	
+	protected static final String sequenceCollection = "sequences";
+	/** Configuration key of the number of IDs taken from the database at once by nextIDFromBlock
+	 */
+	public static final String idBlockSize = "idBlockSize";
+	
+	private static final int defaultBlockSize = 1;
+	private static final String valueField = "value";
+	
+	private static final Map<String, Block> blocks = new ConcurrentHashMap<>();
+	private static final Set<String> seededSequences = ConcurrentHashMap.newKeySet();
+	
+	/** Range of allocated IDs of a sequence, which are not yet handed out 
+	 */
+	private static class Block {
+		long next = 1;
+		long last = 0;
+	}
+	
+	/** Gets next ID of the sequence, the ID is taken from the database without a block
+	 * 
+	 * @param sequence Name of the sequence
+	 * @param collection Name of the collection which contains the IDs
+	 * @param filter Filter for the documents of the sequence in the collection
+	 * @param field Field of the IDs in the collection
+	 * @return next ID of the sequence
+	 */
+	public static int nextID(String sequence, String collection, Bson filter, String field){
+		return nextID(sequence, collection, filter, field, 1);
+	}
+	
+	/** Gets next ID of the sequence from the block of this node, 
+	 * a new block of idBlockSize IDs is taken if the block is used up. 
+	 * Must not be used for IDs with a small range, i.e. minors and majors
+	 * 
+	 * @param sequence Name of the sequence
+	 * @param collection Name of the collection which contains the IDs
+	 * @param filter Filter for the documents of the sequence in the collection
+	 * @param field Field of the IDs in the collection
+	 * @return next ID of the sequence
+	 */
+	public static int nextIDFromBlock(String sequence, String collection, Bson filter, String field){
+		return nextID(sequence, collection, filter, field, 
+				Math.max(SystemConfiguration.getIntValue(idBlockSize, defaultBlockSize), 1));
+	}
+	
+	/** Gets next ID of the sequence
+	 * 
+	 * @param sequence Name of the sequence
+	 * @param collection Name of the collection which contains the IDs
+	 * @param filter Filter for the documents of the sequence in the collection
+	 * @param field Field of the IDs in the collection
+	 * @param blockSize Number of IDs taken if the block is used up
+	 * @return next ID of the sequence
+	 */
+	private static int nextID(String sequence, String collection, Bson filter, String field, int blockSize){
+		Block block = blocks.computeIfAbsent(sequence, name -> new Block());
+		synchronized(block){
+			if(block.next > block.last){
+				MongoConnection connection = new MongoConnection();
+				if(!seededSequences.contains(sequence)){
+					raise(connection, sequence, findMax(connection, collection, filter, field));
+					seededSequences.add(sequence);
+				}
+				long last = allocate(connection, sequence, blockSize);
+				connection.disconnect();
+				block.next = last - blockSize + 1;
+				block.last = last;
+			}
+			return (int)block.next++;
+		}
+	}
+	
+	/** Raises the sequence to the given ID, if the ID is higher than the current value.
+	 * Used if an ID is set by a client, i.e. the major of a beacon
+	 * 
+	 * @param sequence Name of the sequence
+	 * @param id ID which is in use
+	 */
+	public static void reserveID(String sequence, int id){
+		MongoConnection connection = new MongoConnection();
+		raise(connection, sequence, id);
+		connection.disconnect();
+		Block block = blocks.get(sequence);
+		if(block != null){
+			synchronized(block){
+				if(block.next <= id){
+					block.next = id + 1;
+				}
+			}
+		}
+	}
+	
+	/** Finds the highest ID in the collection
+	 * 
+	 * @param connection Established connection to the database
+	 * @param collection Name of the collection which contains the IDs
+	 * @param filter Filter for the documents of the sequence in the collection
+	 * @param field Field of the IDs in the collection
+	 * @return highest ID or zero if there is no document
+	 */
+	private static long findMax(MongoConnection connection, String collection, Bson filter, String field){
+		Document document = connection.getCollection(collection)
+				.find(filter)
+				.sort(Sorts.descending(field))
+				.projection(Projections.include(field))
+				.first();
+		if(document != null && document.get(field) instanceof Number){
+			return ((Number)document.get(field)).longValue();
+		}
+		return 0;
+	}
+	
+	/** Sets the sequence to the given value if it is higher. The sequence is created if not existing
+	 * 
+	 * @param connection Established connection to the database
+	 * @param sequence Name of the sequence
+	 * @param value Value the sequence is raised to
+	 */
+	private static void raise(MongoConnection connection, String sequence, long value){
+		Document update = new Document("$max", new Document(valueField, value));
+		try{
+			getSequenceCollection(connection).updateOne(eq("_id", sequence), update, new UpdateOptions().upsert(true));
+		} catch(MongoWriteException e){
+			if(e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY){
+				throw e;
+			}
+			//Sequence created concurrently, update the existing one
+			getSequenceCollection(connection).updateOne(eq("_id", sequence), update);
+		}
+	}
+	
+	/** Takes block of IDs from the sequence
+	 * 
+	 * @param connection Established connection to the database
+	 * @param sequence Name of the sequence
+	 * @param blockSize Number of IDs to be taken
+	 * @return last ID of the block
+	 */
+	private static long allocate(MongoConnection connection, String sequence, int blockSize){
+		Document document = getSequenceCollection(connection).findOneAndUpdate(
+				eq("_id", sequence), 
+				new Document("$inc", new Document(valueField, (long)blockSize)),
+				new FindOneAndUpdateOptions()
+						.upsert(true)
+						.returnDocument(ReturnDocument.AFTER));
+		return ((Number)document.get(valueField)).longValue();
+	}
+	
+	/** Gets collection of the sequences
+	 * 
+	 * @param connection Established connection to the database
+	 * @return MongoCollection object with all sequences
+	 */
+	private static MongoCollection<Document> getSequenceCollection(MongoConnection connection){
+		return connection.getCollection(sequenceCollection);
+	}
+}
@@ -0,0 +1,182 @@
+package de.geofencing.database;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.VisibilityChecker;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/** Codec for classes without own codec. The object is mapped by Jackson to a
+ * tree which is written to BSON node by node and read the other way round,
+ * so no JSON String is generated.
+ *
+ * Uses Jackson for mapping (Needs jackson 2.3.2 or newer)
+ *
+ * @author Markus Thral
+ *
+ * @param <T> Class which is de-/serialized by the codec
+ */
+public class JacksonCodec<T> extends ObjectCodec<T> {
+
+	/** Mapper shared by all Jackson codecs, reads fields of any visibility
+	 * and ignores unknown properties
+	 */
+	protected static final ObjectMapper mapper = new ObjectMapper();
+
+	static{
+		mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		mapper.setVisibilityChecker(VisibilityChecker.Std.defaultInstance()
+				.withFieldVisibility(JsonAutoDetect.Visibility.ANY));
+	}
+
+	private final Class<T> classType;
+
+	/** Creates codec for the given class
+	 *
+	 * @param classType Class which is de-/serialized by the codec
+	 */
+	public JacksonCodec(Class<T> classType){
+		this.classType = classType;
+	}
+
+	@Override
+	public Class<T> getEncoderClass() {
+		return classType;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+		JsonNode node = mapper.valueToTree(value);
+		writeNode(writer, node);
+	}
+
+	@Override
+	public T decode(BsonReader reader, DecoderContext decoderContext) {
+		ObjectNode node = readDocument(reader);
+		node.remove("_id");
+		return fromTree(node);
+	}
+
+	/** Maps the read tree to the object
+	 *
+	 * @param node Tree of the read document
+	 * @return Object of the class of the codec
+	 */
+	protected T fromTree(ObjectNode node){
+		try{
+			return mapper.treeToValue(node, classType);
+		}catch(Exception e){
+			throw new CodecConfigurationException("Could not map " + classType.getName() + ": " + e.getMessage());
+		}
+	}
+
+	/** Writes JSON tree to BSON
+	 *
+	 * @param writer BsonWriter
+	 * @param node Node of the tree
+	 */
+	protected static void writeNode(BsonWriter writer, JsonNode node){
+		if(node.isObject()){
+			writer.writeStartDocument();
+			Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+			while(fields.hasNext()){
+				Map.Entry<String, JsonNode> field = fields.next();
+				writer.writeName(field.getKey());
+				writeNode(writer, field.getValue());
+			}
+			writer.writeEndDocument();
+		} else if(node.isArray()){
+			writer.writeStartArray();
+			for(JsonNode element : node){
+				writeNode(writer, element);
+			}
+			writer.writeEndArray();
+		} else if(node.isInt()){
+			writer.writeInt32(node.intValue());
+		} else if(node.isIntegralNumber()){
+			writer.writeInt64(node.longValue());
+		} else if(node.isNumber()){
+			writer.writeDouble(node.doubleValue());
+		} else if(node.isBoolean()){
+			writer.writeBoolean(node.booleanValue());
+		} else if(node.isNull() || node.isMissingNode()){
+			writer.writeNull();
+		} else{
+			writer.writeString(node.asText());
+		}
+	}
+
+	/** Reads BSON document to a JSON tree
+	 *
+	 * @param reader BsonReader positioned at the document
+	 * @return Document as ObjectNode
+	 */
+	protected static ObjectNode readDocument(BsonReader reader){
+		ObjectNode node = JsonNodeFactory.instance.objectNode();
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			String name = reader.readName();
+			JsonNode value = readValue(reader);
+			if(value != null){
+				node.set(name, value);
+			}
+		}
+		reader.readEndDocument();
+		return node;
+	}
+
+	/** Reads current BSON value to a JSON node
+	 *
+	 * @param reader BsonReader positioned at the value
+	 * @return JSON node of the value or null if the type is not supported
+	 */
+	protected static JsonNode readValue(BsonReader reader){
+		JsonNodeFactory factory = JsonNodeFactory.instance;
+		switch(reader.getCurrentBsonType()){
+		case DOCUMENT:
+			return readDocument(reader);
+		case ARRAY:
+			ArrayNode array = factory.arrayNode();
+			reader.readStartArray();
+			while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+				JsonNode element = readValue(reader);
+				array.add(element != null ? element : factory.nullNode());
+			}
+			reader.readEndArray();
+			return array;
+		case INT32:
+			return factory.numberNode(reader.readInt32());
+		case INT64:
+			return factory.numberNode(reader.readInt64());
+		case DOUBLE:
+			return factory.numberNode(reader.readDouble());
+		case DATE_TIME:
+			return factory.numberNode(reader.readDateTime());
+		case BOOLEAN:
+			return factory.booleanNode(reader.readBoolean());
+		case STRING:
+			return factory.textNode(reader.readString());
+		case OBJECT_ID:
+			return factory.textNode(reader.readObjectId().toHexString());
+		case NULL:
+			reader.readNull();
+			return factory.nullNode();
+		default:
+			reader.skipValue();
+			return null;
+		}
+	}
+}
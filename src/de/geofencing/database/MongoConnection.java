@@ -1,33 +1,30 @@
 package de.geofencing.database;
 
-import java.util.Arrays;
+import java.util.function.Supplier;
 
 import org.bson.Document;
 
-import com.mongodb.MongoClient;
-import com.mongodb.MongoCredential;
-import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
 
 import de.geofencing.log.LogEntry;
-import de.geofencing.system.SystemConfiguration;
 import de.geofencing.system.exceptions.ConfigurationException;
 
-/** Establishes connection to MongoDB
+/** Establishes connection to MongoDB. 
+ * The connections are taken from the pool of the MongoConnectionManager
  * 
  * @author Markus Thral
  *
  */
 public class MongoConnection{
 	
-	private static final String geofenceCollection = "geofences";
-	private static final String beaconCollection = "beacons";
-	private static final String eventCollection = "events";
-	private static final String deviceCollection = "devices";
+	static final String geofenceCollection = "geofences";
+	static final String beaconCollection = "beacons";
+	static final String eventCollection = "events";
+	static final String deviceCollection = "devices";
 	
-	private MongoClient client;
-	private MongoDatabase database;
+	private MongoConnectionManager manager;
 	
 	/** Sets up connection to database defined in the Configuration. 
 	 * Should be disconnected after use
@@ -35,18 +32,7 @@ public class MongoConnection{
 	 */
 	public MongoConnection(){
 		try{
-			MongoCredential mongoCredentials = MongoCredential.createCredential(
-					SystemConfiguration.getValue(SystemConfiguration.dbUser), 
-					SystemConfiguration.getValue(SystemConfiguration.dbName),
-					SystemConfiguration.getValue(SystemConfiguration.dbPassword).toCharArray());
-			
-	        client = new MongoClient(
-	        		new ServerAddress(
-	        				SystemConfiguration.getValue(SystemConfiguration.dbAddress), 
-	        				Integer.valueOf(SystemConfiguration.getValue(SystemConfiguration.dbPort))),	
-	        		Arrays.asList(mongoCredentials));
-
-	        database = client.getDatabase(SystemConfiguration.getValue(SystemConfiguration.dbName));    
+			manager = MongoConnectionManager.getInstance();
 		}catch(ConfigurationException e){
 			LogEntry.c(e);
 		}
@@ -57,7 +43,7 @@ public class MongoConnection{
 	 * @return MongoDatabase object
 	 */
 	public MongoDatabase getDatabase(){
-		return database;
+		return manager.getDatabase();
 	}
 	
 	/** Gets collection with the given name from the database 
@@ -67,7 +53,7 @@ public class MongoConnection{
 	 */
 	public MongoCollection<Document> getCollection(String collection){
 		try{
-			return database.getCollection(collection);
+			return manager.getCollection(collection);
 		}catch(IllegalArgumentException e){
 			return null;
 		}
@@ -86,6 +72,15 @@ public class MongoConnection{
 		return collection;
 	}
 	
+	/** Gets collection of all Geofences, read and written as objects of the given class
+	 * 
+	 * @param documentClass Class of the documents (i.e. Geofence.class)
+	 * @return MongoCollection object with all Geofences
+	 */
+	public <T> MongoCollection<T> getGeofenceCollection(Class<T> documentClass){
+		return getGeofenceCollection().withDocumentClass(documentClass);
+	}
+	
 	/** Gets collection of all beacons. Collection is created if not existing
 	 * 
 	 * @return MongoCollection object with all beacons
@@ -98,6 +93,15 @@ public class MongoConnection{
 		}
 		return collection;
 	}
+	
+	/** Gets collection of all beacons, read and written as objects of the given class
+	 * 
+	 * @param documentClass Class of the documents (i.e. SystemBeacon.class)
+	 * @return MongoCollection object with all beacons
+	 */
+	public <T> MongoCollection<T> getBeaconCollection(Class<T> documentClass){
+		return getBeaconCollection().withDocumentClass(documentClass);
+	}
 
 	/** Gets collection of all Events. Collection is created if not existing
 	 * 
@@ -112,6 +116,15 @@ public class MongoConnection{
 		return collection;
 	}
 	
+	/** Gets collection of all Events, read and written as objects of the given class
+	 * 
+	 * @param documentClass Class of the documents (i.e. Event.class)
+	 * @return MongoCollection object with all Events
+	 */
+	public <T> MongoCollection<T> getEventCollection(Class<T> documentClass){
+		return getEventCollection().withDocumentClass(documentClass);
+	}
+	
 	/** Gets collection of all Devices. Collection is created if not existing
 	 * 
 	 * @return MongoCollection object with all Devices
@@ -125,10 +138,39 @@ public class MongoConnection{
 		return collection;	
 	}
 	
-	/** Disconnects from the database
+	/** Gets collection of all Devices, read and written as objects of the given class
+	 * 
+	 * @param documentClass Class of the documents (i.e. Device.class)
+	 * @return MongoCollection object with all Devices
+	 */
+	public <T> MongoCollection<T> getDeviceCollection(Class<T> documentClass){
+		return getDeviceCollection().withDocumentClass(documentClass);
+	}
+	
+	/** Ensures the given indexes of the collection. 
+	 * The indexes are checked only on the first call for each collection
+	 * 
+	 * @param collection Name of the Collection
+	 * @param indexes Indexes which should exist
+	 */
+	public void ensureIndexes(String collection, IndexModel... indexes){
+		manager.ensureIndexes(collection, indexes);
+	}
+	
+	/** Ensures the indexes of the collection, which are only created on the first call for each collection
+	 * 
+	 * @param collection Name of the Collection
+	 * @param indexes Creates the indexes which should exist
+	 */
+	public void ensureIndexes(String collection, Supplier<IndexModel[]> indexes){
+		manager.ensureIndexes(collection, indexes);
+	}
+	
+	/** Disconnects from the database. The pooled connections stay open 
+	 * for the next MongoConnection and are closed by the MongoConnectionManager
 	 * 
 	 */
 	public void disconnect(){
-		client.close();
+		manager = null;
 	}
 }
@@ -0,0 +1,187 @@
+package de.geofencing.database;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.SystemConfiguration;
+import de.geofencing.system.exceptions.ConfigurationException;
+
+/** Holds the process-wide MongoClient with its connection pool and caches
+ * the handles of the used collections. The client is created on first use
+ * with the values defined in the Configuration and closed on shutdown of the JVM.
+ *
+ * Uses Mongo Java Driver (Needs mongo-java-driver-3.4.2.jar or newer)
+ *
+ * @author Markus Thral
+ *
+ */
+public class MongoConnectionManager {
+
+	/** Configuration value: Minimum amount of pooled connections (optional)
+	 */
+	public static final String dbPoolMinSize = "dbPoolMinSize";
+	/** Configuration value: Maximum amount of pooled connections (optional)
+	 */
+	public static final String dbPoolMaxSize = "dbPoolMaxSize";
+	/** Configuration value: Time in seconds after which an idle connection is closed (optional)
+	 */
+	public static final String dbPoolIdleTimeout = "dbPoolIdleTimeout";
+	/** Configuration value: Amount of threads which may wait for a connection
+	 * as multiple of the maximum pool size (optional)
+	 */
+	public static final String dbPoolWaitQueue = "dbPoolWaitQueue";
+	/** Configuration value: Time in milliseconds a thread waits for a free connection (optional)
+	 */
+	public static final String dbPoolMaxWait = "dbPoolMaxWait";
+
+	private static final int defaultMinSize = 0;
+	private static final int defaultMaxSize = 50;
+	private static final int defaultIdleTimeout = 300;
+	private static final int defaultWaitQueue = 5;
+	private static final int defaultMaxWait = 10000;
+	private static final long indexRetryInterval = 60000;
+
+	private static volatile MongoConnectionManager instance;
+
+	private final MongoClient client;
+	private final MongoDatabase database;
+	private final ConcurrentMap<String, MongoCollection<Document>> collections;
+	private final ConcurrentMap<String, Long> indexedCollections;
+
+	/** Sets up the pooled client to the database defined in the Configuration
+	 *
+	 * @throws ConfigurationException if database configuration is missing or not complete
+	 */
+	private MongoConnectionManager() throws ConfigurationException{
+		String dbName = SystemConfiguration.getValue(SystemConfiguration.dbName);
+		MongoCredential mongoCredentials = MongoCredential.createCredential(
+				SystemConfiguration.getValue(SystemConfiguration.dbUser),
+				dbName,
+				SystemConfiguration.getValue(SystemConfiguration.dbPassword).toCharArray());
+
+		MongoClientOptions options = MongoClientOptions.builder()
+				.minConnectionsPerHost(SystemConfiguration.getIntValue(dbPoolMinSize, defaultMinSize))
+				.connectionsPerHost(SystemConfiguration.getIntValue(dbPoolMaxSize, defaultMaxSize))
+				.maxConnectionIdleTime(SystemConfiguration.getIntValue(dbPoolIdleTimeout, defaultIdleTimeout)*1000)
+				.threadsAllowedToBlockForConnectionMultiplier(SystemConfiguration.getIntValue(dbPoolWaitQueue, defaultWaitQueue))
+				.maxWaitTime(SystemConfiguration.getIntValue(dbPoolMaxWait, defaultMaxWait))
+				.codecRegistry(DocumentConverter.getCodecRegistry())
+				.build();
+
+		client = new MongoClient(
+				new ServerAddress(
+						SystemConfiguration.getValue(SystemConfiguration.dbAddress),
+						SystemConfiguration.getIntValue(SystemConfiguration.dbPort)),
+				Arrays.asList(mongoCredentials),
+				options);
+		database = client.getDatabase(dbName);
+		collections = new ConcurrentHashMap<>();
+		indexedCollections = new ConcurrentHashMap<>();
+	}
+
+	/** Gets the shared instance. The client is created on the first call
+	 *
+	 * @return MongoConnectionManager of this process
+	 * @throws ConfigurationException if database configuration is missing or not complete
+	 */
+	public static MongoConnectionManager getInstance() throws ConfigurationException{
+		MongoConnectionManager manager = instance;
+		if(manager == null){
+			synchronized(MongoConnectionManager.class){
+				manager = instance;
+				if(manager == null){
+					manager = new MongoConnectionManager();
+					MongoIndexManager.ensureCoreIndexes(manager.database);
+					instance = manager;
+					Runtime.getRuntime().addShutdownHook(new Thread(MongoConnectionManager::shutdown, "MongoConnectionManager-shutdown"));
+				}
+			}
+		}
+		return manager;
+	}
+
+	/** Closes the shared client and all pooled connections.
+	 * A following call of getInstance creates a new client.
+	 *
+	 */
+	public static void shutdown(){
+		synchronized(MongoConnectionManager.class){
+			if(instance != null){
+				instance.client.close();
+				instance = null;
+				LogEntry.c("Database connection pool closed");
+			}
+		}
+	}
+
+	/** Gets database defined in the Configuration
+	 *
+	 * @return MongoDatabase object
+	 */
+	public MongoDatabase getDatabase(){
+		return database;
+	}
+
+	/** Gets cached handle of the collection with the given name
+	 *
+	 * @param name Name of the collection
+	 * @return MongoCollection of all documents of the collection
+	 * @throws IllegalArgumentException if the name is not a valid collection name
+	 */
+	public MongoCollection<Document> getCollection(String name){
+		MongoCollection<Document> collection = collections.get(name);
+		if(collection == null){
+			collection = database.getCollection(name);
+			MongoCollection<Document> existing = collections.putIfAbsent(name, collection);
+			if(existing != null){
+				collection = existing;
+			}
+		}
+		return collection;
+	}
+
+	/** Ensures the given indexes of the collection once per process.
+	 * Used by extensions to set up the indexes of their collections on first use.
+	 * If an index is missing or conflicting afterwards, it is ensured again on the first use after a minute
+	 *
+	 * @param name Name of the collection
+	 * @param indexes Indexes which should exist
+	 */
+	public void ensureIndexes(String name, IndexModel... indexes){
+		this.ensureIndexes(name, () -> indexes);
+	}
+
+	/** Ensures the indexes of the collection once per process like ensureIndexes(name, indexes).
+	 * The indexes are only created, if the collection is not indexed yet,
+	 * so reading their configuration or preparing the collection is done once
+	 *
+	 * @param name Name of the collection
+	 * @param indexes Creates the indexes which should exist
+	 */
+	public void ensureIndexes(String name, Supplier<IndexModel[]> indexes){
+		long now = System.currentTimeMillis();
+		Long nextAttempt = indexedCollections.get(name);
+		if(nextAttempt != null && nextAttempt > now){
+			return;
+		}
+		boolean claimed = nextAttempt == null 
+				? indexedCollections.putIfAbsent(name, now + indexRetryInterval) == null
+				: indexedCollections.replace(name, nextAttempt, now + indexRetryInterval);
+		if(claimed && MongoIndexManager.ensureIndexes(database, name, indexes.get())){
+			indexedCollections.put(name, Long.MAX_VALUE);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package de.geofencing.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+import de.geofencing.log.LogEntry;
+
+/** Ensures the indexes of the geofencing collections.
+ * Missing indexes are created, existing indexes with other options are reported as conflict.
+ * Creating an index which already exists has no effect, so the methods can be called on every startup.
+ *
+ * Uses Mongo Java Driver (Needs mongo-java-driver-3.4.2.jar or newer)
+ *
+ * @author Markus Thral
+ *
+ */
+public class MongoIndexManager {
+
+	/** Ensures the indexes of the geofence, beacon, event and device collections
+	 *
+	 * @param database Database of the system
+	 * @return true if all indexes are existing, false if an index is missing or conflicting
+	 */
+	public static boolean ensureCoreIndexes(MongoDatabase database){
+		boolean complete = ensureIndexes(database, MongoConnection.geofenceCollection,
+				uniqueIndex(Indexes.ascending("minor")));
+		complete &= ensureIndexes(database, MongoConnection.beaconCollection,
+				uniqueIndex(Indexes.ascending("minor", "major")));
+		complete &= ensureIndexes(database, MongoConnection.eventCollection,
+				uniqueIndex(Indexes.ascending("minor", "eventID")));
+		complete &= ensureIndexes(database, MongoConnection.deviceCollection,
+				uniqueIndex(Indexes.ascending("deviceID")),
+				uniqueIndex(Indexes.ascending("address")));
+		return complete;
+	}
+
+	/** Creates unique index with the given keys
+	 *
+	 * @param keys Keys of the index, i.e. Indexes.ascending("minor")
+	 * @return IndexModel of the unique index
+	 */
+	public static IndexModel uniqueIndex(Bson keys){
+		return new IndexModel(keys, new IndexOptions().unique(true));
+	}
+
+	/** Creates TTL index which removes documents after the given time.
+	 * The field of the index has to contain a date.
+	 *
+	 * @param field Field containing the date of the document
+	 * @param expireAfterSeconds Time in seconds after the documents is removed
+	 * @return IndexModel of the TTL index
+	 */
+	public static IndexModel ttlIndex(String field, long expireAfterSeconds){
+		return new IndexModel(Indexes.ascending(field),
+				new IndexOptions().expireAfter(expireAfterSeconds, TimeUnit.SECONDS));
+	}
+
+	/** Ensures the given indexes on the collection. Missing indexes are created.
+	 * Indexes with same keys but other unique option are reported.
+	 * The expiration time of existing TTL indexes is updated.
+	 *
+	 * @param database Database of the system
+	 * @param collectionName Name of the collection
+	 * @param indexes Indexes which should exist
+	 * @return true if all indexes are existing, false if an index is missing or conflicting
+	 */
+	public static boolean ensureIndexes(MongoDatabase database, String collectionName, IndexModel... indexes){
+		MongoCollection<Document> collection = database.getCollection(collectionName);
+		Map<String, Document> existing = new HashMap<>();
+		try{
+			for(Document index : collection.listIndexes()){
+				existing.put(keyName((Document)index.get("key")), index);
+			}
+		}catch(MongoException e){
+			LogEntry.c("Could not read indexes of " + collectionName + ": " + e.getMessage());
+			return false;
+		}
+
+		boolean complete = true;
+		List<IndexModel> missing = new ArrayList<>();
+		for(IndexModel index : indexes){
+			BsonDocument keys = index.getKeys().toBsonDocument(Document.class, collection.getCodecRegistry());
+			String name = keyName(keys);
+			Document present = existing.get(name);
+			if(present == null){
+				missing.add(index);
+				continue;
+			}
+			IndexOptions options = index.getOptions();
+			if(options.isUnique() != Boolean.TRUE.equals(present.getBoolean("unique"))){
+				LogEntry.c("Conflicting index " + name + " on " + collectionName
+						+ ": unique is " + present.getBoolean("unique") + ", expected " + options.isUnique());
+				complete = false;
+			}
+			Long expireAfter = options.getExpireAfter(TimeUnit.SECONDS);
+			Object presentExpire = present.get("expireAfterSeconds");
+			if(expireAfter != null && (presentExpire == null
+					|| ((Number)presentExpire).longValue() != expireAfter)){
+				complete &= updateExpiration(database, collectionName, keys, expireAfter);
+			}
+		}
+		for(IndexModel index : missing){
+			String name = keyName(index.getKeys().toBsonDocument(Document.class, collection.getCodecRegistry()));
+			try{
+				collection.createIndexes(Collections.singletonList(index));
+				LogEntry.c("Created missing index " + name + " on " + collectionName);
+			}catch(MongoException e){
+				LogEntry.c("Could not create index " + name + " on " + collectionName + ": " + e.getMessage());
+				complete = false;
+			}
+		}
+		return complete;
+	}
+
+	/** Updates the expiration time of an existing TTL index
+	 *
+	 * @param database Database of the system
+	 * @param collectionName Name of the collection
+	 * @param keys Keys of the index
+	 * @param expireAfterSeconds New expiration time in seconds
+	 * @return true if updated, false if an error occurred
+	 */
+	protected static boolean updateExpiration(MongoDatabase database, String collectionName,
+			BsonDocument keys, long expireAfterSeconds){
+		try{
+			database.runCommand(new Document("collMod", collectionName)
+					.append("index", new Document("keyPattern", keys)
+							.append("expireAfterSeconds", expireAfterSeconds)));
+			LogEntry.c("Updated expiration of index " + keyName(keys) + " on " + collectionName
+					+ " to " + expireAfterSeconds + "s");
+			return true;
+		}catch(MongoException e){
+			LogEntry.c("Conflicting TTL index " + keyName(keys) + " on " + collectionName + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/** Generates the default name of an index from its keys (i.e. minor_1_major_1)
+	 *
+	 * @param keys Keys of the index
+	 * @return name of the index
+	 */
+	private static String keyName(Map<String, ?> keys){
+		StringBuilder name = new StringBuilder();
+		for(Map.Entry<String, ?> key : keys.entrySet()){
+			if(name.length() > 0){
+				name.append('_');
+			}
+			name.append(key.getKey()).append('_').append(keyDirection(key.getValue()));
+		}
+		return name.toString();
+	}
+
+	private static String keyDirection(Object value){
+		if(value instanceof BsonValue && ((BsonValue)value).isNumber()){
+			return String.valueOf(((BsonValue)value).asNumber().intValue());
+		}
+		if(value instanceof Number){
+			return String.valueOf(((Number)value).intValue());
+		}
+		if(value instanceof BsonValue && ((BsonValue)value).isString()){
+			return ((BsonValue)value).asString().getValue();
+		}
+		return String.valueOf(value);
+	}
+}
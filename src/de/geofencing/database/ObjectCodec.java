@@ -0,0 +1,81 @@
+package de.geofencing.database;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+
+/** Base class for codecs which read and write objects of the system directly
+ * from and to BSON. Provides methods to read values tolerant to the
+ * types written by former versions (i.e. numbers saved as strings)
+ *
+ * Uses Mongo Java Driver (Needs mongo-java-driver-3.4.2.jar or newer)
+ *
+ * @author Markus Thral
+ *
+ * @param <T> Class which is de-/serialized by the codec
+ */
+public abstract class ObjectCodec<T> implements Codec<T> {
+
+	/** Reads current value as integer
+	 *
+	 * @param reader BsonReader positioned at the value
+	 * @return value as integer, -1 if value is null
+	 */
+	protected static int readInt(BsonReader reader){
+		return (int)readLong(reader);
+	}
+
+	/** Reads current value as long
+	 *
+	 * @param reader BsonReader positioned at the value
+	 * @return value as long, -1 if value is null
+	 */
+	protected static long readLong(BsonReader reader){
+		BsonType type = reader.getCurrentBsonType();
+		switch(type){
+		case INT32:
+			return reader.readInt32();
+		case INT64:
+			return reader.readInt64();
+		case DOUBLE:
+			return (long)reader.readDouble();
+		case DATE_TIME:
+			return reader.readDateTime();
+		case STRING:
+			return Long.parseLong(reader.readString());
+		case NULL:
+			reader.readNull();
+			return -1;
+		default:
+			throw new IllegalArgumentException("Expected number but found " + type);
+		}
+	}
+
+	/** Reads current value as String
+	 *
+	 * @param reader BsonReader positioned at the value
+	 * @return value as String or null
+	 */
+	protected static String readString(BsonReader reader){
+		if(reader.getCurrentBsonType() == BsonType.NULL){
+			reader.readNull();
+			return null;
+		}
+		return reader.readString();
+	}
+
+	/** Writes String or null value
+	 *
+	 * @param writer BsonWriter
+	 * @param name Name of the field
+	 * @param value String or null
+	 */
+	protected static void writeString(BsonWriter writer, String name, String value){
+		if(value == null){
+			writer.writeNull(name);
+		} else{
+			writer.writeString(name, value);
+		}
+	}
+}
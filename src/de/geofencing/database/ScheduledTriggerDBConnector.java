@@ -0,0 +1,154 @@
+package de.geofencing.database;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import de.geofencing.event.PendingTrigger;
+
+/** Saves the pending delayed Triggers, so they survive a restart of the server.
+ * Triggers are read by the range of their due time (indexed), 
+ * before firing a node claims the Triggers with a lease, 
+ * so each Trigger is fired by one node even if several nodes loaded it.
+ * 
+ * Uses Mongo Java Driver (Needs mongo-java-driver-3.4.2.jar or newer)
+ * 
+ * @author Markus Thral
+ *
+ */
+public class ScheduledTriggerDBConnector {
+	
+	protected static final String scheduledTriggerCollection = "scheduledTriggers";
+	
+	/** Saves and removes pending Triggers with one bulk write. 
+	 * Saved Triggers replace the Trigger with the same ID, 
+	 * removed Triggers are only deleted if not replaced by a Trigger with other due time
+	 * 
+	 * @param saved Triggers to be saved
+	 * @param removed Triggers to be removed
+	 */
+	public static void saveScheduledTriggers(Collection<PendingTrigger> saved, Collection<PendingTrigger> removed){
+		List<WriteModel<Document>> writes = new ArrayList<>(saved.size() + removed.size());
+		for(PendingTrigger trigger : saved){
+			writes.add(new ReplaceOneModel<>(eq("_id", trigger.getID()), toDocument(trigger), 
+					new UpdateOptions().upsert(true)));
+		}
+		for(PendingTrigger trigger : removed){
+			writes.add(new DeleteOneModel<>(matches(trigger)));
+		}
+		if(writes.isEmpty()){
+			return;
+		}
+		MongoConnection connection = new MongoConnection();
+		getScheduledTriggerCollection(connection).bulkWrite(writes);
+		connection.disconnect();
+	}
+	
+	/** Claims the Triggers which are not leased by another node
+	 * 
+	 * @param triggers Triggers to be claimed
+	 * @param claim Identifier of the claim, unique for the node and the call
+	 * @param now Current time in milliseconds (epoch)
+	 * @param leaseUntil End of the lease in milliseconds (epoch)
+	 * @return IDs of the claimed Triggers
+	 */
+	public static Set<String> claimScheduledTriggers(Collection<PendingTrigger> triggers, String claim, long now, long leaseUntil){
+		Set<String> claimed = new HashSet<>();
+		if(triggers.isEmpty()){
+			return claimed;
+		}
+		List<Bson> matches = new ArrayList<>(triggers.size());
+		for(PendingTrigger trigger : triggers){
+			matches.add(matches(trigger));
+		}
+		MongoConnection connection = new MongoConnection();
+		MongoCollection<Document> collection = getScheduledTriggerCollection(connection);
+		collection.updateMany(and(or(matches), lt("leaseUntil", now)), 
+				Updates.combine(Updates.set("claim", claim), Updates.set("leaseUntil", leaseUntil)));
+		for(Document document : collection.find(and(or(matches), eq("claim", claim)))
+				.projection(Projections.include("_id"))){
+			claimed.add(document.getString("_id"));
+		}
+		connection.disconnect();
+		return claimed;
+	}
+	
+	/** Gets Triggers due before the given time, which are not leased
+	 * 
+	 * @param dueBefore Time in milliseconds (epoch)
+	 * @param now Current time in milliseconds (epoch)
+	 * @return Triggers sorted by their due time
+	 */
+	public static List<PendingTrigger> findScheduledTriggers(long dueBefore, long now){
+		List<PendingTrigger> triggers = new ArrayList<>();
+		MongoConnection connection = new MongoConnection();
+		for(Document document : getScheduledTriggerCollection(connection)
+				.find(and(lt("due", dueBefore), lt("leaseUntil", now)))
+				.sort(Sorts.ascending("due"))){
+			triggers.add(new PendingTrigger(document.getInteger("minor"), document.getInteger("eventID"), 
+					document.getInteger("deviceID"), document.getLong("due")));
+		}
+		connection.disconnect();
+		return triggers;
+	}
+	
+	/** Creates filter which matches the Trigger only if it has the same due time
+	 * 
+	 * @param trigger PendingTrigger
+	 * @return Filter on ID and due time
+	 */
+	private static Bson matches(PendingTrigger trigger){
+		return and(eq("_id", trigger.getID()), eq("due", trigger.getDue()));
+	}
+	
+	/** Converts Trigger to document, which is not leased
+	 * 
+	 * @param trigger PendingTrigger
+	 * @return Document of the Trigger
+	 */
+	private static Document toDocument(PendingTrigger trigger){
+		return new Document("_id", trigger.getID())
+				.append("minor", trigger.getMinor())
+				.append("eventID", trigger.getEventID())
+				.append("deviceID", trigger.getDeviceID())
+				.append("due", trigger.getDue())
+				.append("leaseUntil", 0L);
+	}
+	
+	/** Gets collection of the pending Triggers. Collection and index on the due time are created if not existing
+	 * 
+	 * @param connection Established connection to the database
+	 * @return MongoCollection object with all pending Triggers
+	 */
+	protected static MongoCollection<Document> getScheduledTriggerCollection(MongoConnection connection){
+		connection.ensureIndexes(scheduledTriggerCollection, 
+				new IndexModel(Indexes.ascending("due")));
+		MongoCollection<Document> collection = connection.getCollection(scheduledTriggerCollection);
+		if(collection == null){
+			connection.getDatabase().createCollection(scheduledTriggerCollection);
+			collection = connection.getCollection(scheduledTriggerCollection);
+		}
+		return collection;
+	}
+}
@@ -0,0 +1,64 @@
+package de.geofencing.database;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import de.geofencing.system.beacon.SystemBeacon;
+import de.geofencing.system.beacon.SystemBeaconPool;
+
+/** Codec for SystemBeacon: uuid, major, minor and location.
+ * Registered beacons are decoded to their canonical instance of the SystemBeaconPool
+ *
+ * @author Markus Thral
+ *
+ */
+public class SystemBeaconCodec extends ObjectCodec<SystemBeacon> {
+
+	@Override
+	public Class<SystemBeacon> getEncoderClass() {
+		return SystemBeacon.class;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, SystemBeacon beacon, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writeString(writer, "uuid", beacon.getUUID() != null ? beacon.getUUID().toString() : null);
+		writer.writeInt32("major", beacon.getMajor());
+		writer.writeInt32("minor", beacon.getMinor());
+		writeString(writer, "location", beacon.getLocation());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public SystemBeacon decode(BsonReader reader, DecoderContext decoderContext) {
+		String uuid = null;
+		int major = -1;
+		int minor = -1;
+		String location = null;
+
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			switch(reader.readName()){
+			case "uuid":
+				uuid = readString(reader);
+				break;
+			case "major":
+				major = readInt(reader);
+				break;
+			case "minor":
+				minor = readInt(reader);
+				break;
+			case "location":
+				location = readString(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return SystemBeaconPool.of(uuid, major, minor, location);
+	}
+}
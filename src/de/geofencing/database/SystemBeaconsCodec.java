@@ -0,0 +1,89 @@
+package de.geofencing.database;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import de.geofencing.system.beacon.SystemBeacon;
+import de.geofencing.system.beacon.SystemBeacons;
+
+/** Codec for SystemBeacons, saved as document with the field beaconList
+ *
+ * @author Markus Thral
+ *
+ */
+public class SystemBeaconsCodec extends ObjectCodec<SystemBeacons> {
+
+	private final Codec<SystemBeacon> beaconCodec;
+
+	/** Creates codec which uses the given codec for the beacons of the list
+	 *
+	 * @param beaconCodec Codec for SystemBeacon
+	 */
+	public SystemBeaconsCodec(Codec<SystemBeacon> beaconCodec){
+		this.beaconCodec = beaconCodec;
+	}
+
+	@Override
+	public Class<SystemBeacons> getEncoderClass() {
+		return SystemBeacons.class;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, SystemBeacons beacons, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeName("beaconList");
+		encodeList(writer, beacons, encoderContext);
+		writer.writeEndDocument();
+	}
+
+	/** Writes the beacons as array
+	 *
+	 * @param writer BsonWriter positioned at the value
+	 * @param beacons SystemBeacons to be written
+	 * @param encoderContext Context of the encoding
+	 */
+	public void encodeList(BsonWriter writer, SystemBeacons beacons, EncoderContext encoderContext) {
+		writer.writeStartArray();
+		for(SystemBeacon beacon : beacons){
+			encoderContext.encodeWithChildContext(beaconCodec, writer, beacon);
+		}
+		writer.writeEndArray();
+	}
+
+	@Override
+	public SystemBeacons decode(BsonReader reader, DecoderContext decoderContext) {
+		SystemBeacons beacons = new SystemBeacons();
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			if(reader.readName().equals("beaconList")){
+				decodeList(reader, beacons, decoderContext);
+			} else{
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return beacons;
+	}
+
+	/** Reads array of beacons and adds them to the given list
+	 *
+	 * @param reader BsonReader positioned at the array
+	 * @param beacons SystemBeacons to add the read beacons to
+	 * @param decoderContext Context of the decoding
+	 */
+	public void decodeList(BsonReader reader, SystemBeacons beacons, DecoderContext decoderContext) {
+		if(reader.getCurrentBsonType() == BsonType.NULL){
+			reader.readNull();
+			return;
+		}
+		reader.readStartArray();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			beacons.addBeacon(beaconCodec.decode(reader, decoderContext));
+		}
+		reader.readEndArray();
+	}
+}
@@ -6,7 +6,9 @@ import java.util.List;
 import de.geofencing.system.beacon.SystemBeacon;
 
 /** Log of changes of the beacons in range of a Device object.
- *  Contains lists of entered and left beacons
+ *  Contains lists of entered and left beacons and of entered and left Geofences:
+ *  a Geofence is entered if none of its beacons was in range before 
+ *  and left if none of its beacons is in range anymore
  * 
  * @author Markus Thral
  *
@@ -14,6 +16,8 @@ import de.geofencing.system.beacon.SystemBeacon;
 public class BeaconChange {
 	private List<SystemBeacon> enteredBeacons;
 	private List<SystemBeacon> leftBeacons;
+	private List<Integer> enteredGeofences;
+	private List<Integer> leftGeofences;
 	
 	/** Creates a new log
 	 * 
@@ -21,6 +25,8 @@ public class BeaconChange {
 	public BeaconChange(){
 		enteredBeacons = new ArrayList<>();
 		leftBeacons = new ArrayList<>();
+		enteredGeofences = new ArrayList<>();
+		leftGeofences = new ArrayList<>();
 	}
 
 	/** Returns List of SystemBeacons which are new in range.
@@ -54,4 +60,36 @@ public class BeaconChange {
 	public void addLeftBeacon(SystemBeacon removed) {
 		this.leftBeacons.add(removed);
 	}
+
+	/** Returns minors of the Geofences which are new in range, each once.
+	 * 
+	 * @return Minors of the Geofences as List
+	 */
+	public List<Integer> getEnteredGeofences() {
+		return enteredGeofences;
+	}
+
+	/** Adds Geofence new in range
+	 * 
+	 * @param minor Minor of the Geofence
+	 */
+	public void addEnteredGeofence(int minor) {
+		this.enteredGeofences.add(minor);
+	}
+
+	/** Returns minors of the Geofences which are no more in range, each once.
+	 * 
+	 * @return Minors of the Geofences as List
+	 */
+	public List<Integer> getLeftGeofences() {
+		return leftGeofences;
+	}
+
+	/** Adds Geofence which is no more in range
+	 * 
+	 * @param minor Minor of the Geofence
+	 */
+	public void addLeftGeofence(int minor) {
+		this.leftGeofences.add(minor);
+	}
 }
@@ -2,13 +2,13 @@ package de.geofencing.event;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Timer;
-import java.util.TimerTask;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.annotation.JsonTypeIdResolver;
+import com.fasterxml.jackson.databind.annotation.JsonTypeResolver;
 
 import de.geofencing.database.GeofencingDBConnector;
-import de.geofencing.log.LogEntry;
+import de.geofencing.system.beacon.SystemBeacons;
 import de.geofencing.system.exceptions.NotFoundException;
 
 /** The Event class can be derived with instruction which should be executed, 
@@ -19,11 +19,15 @@ import de.geofencing.system.exceptions.NotFoundException;
  * 
  * The Event is identified by the eventID, described by the description 
  * and is assigned to an Geofence. 
- * ClassType shows the class of the derivation for serializing.
+ * ClassType shows the class of the derivation for serializing, 
+ * it is resolved by the EventTypeRegistry while deserializing.
  * 
  * @author Markus Thral
  *
  */
+@JsonTypeInfo(use = JsonTypeInfo.Id.CUSTOM, include = JsonTypeInfo.As.PROPERTY, property = "classType", visible = true)
+@JsonTypeIdResolver(EventTypeRegistry.IdResolver.class)
+@JsonTypeResolver(EventTypeRegistry.ResolverBuilder.class)
 public abstract class Event implements Serializable {
 
 	private static final long serialVersionUID = 1L;
@@ -93,10 +97,29 @@ public abstract class Event implements Serializable {
 	/** Returns Class of the Event for identifying the Event derivation
 	 * 
 	 * @return Derivation of the Event as Class
-	 * @throws ClassNotFoundException if the class is not exisiting
+	 * @throws ClassNotFoundException if the class is not registered in the EventTypeRegistry
 	 */
 	public Class<?> getClassType() throws ClassNotFoundException {
-		return Class.forName(classType);
+		return EventTypeRegistry.getType(classType);
+	}
+
+	/** Checks if the Event reacts to movements in every direction, 
+	 * i.e. to count the Devices inside the Geofence. 
+	 * Such Events are registered for every direction, regardless of their Trigger
+	 * 
+	 * @return false, derivations reacting to every direction return true
+	 */
+	public boolean reactsToAnyDirection() {
+		return false;
+	}
+
+	/** Checks if the Event is triggered by movements in the given direction
+	 * 
+	 * @param direction Direction of the movement of the Device
+	 * @return true if the Trigger has the given direction or the Event reacts to every direction, false if not
+	 */
+	public boolean isTriggeredBy(Trigger.Direction direction) {
+		return this.reactsToAnyDirection() || (trigger != null && direction.equals(trigger.getDirection()));
 	}
 
 	/** Checks if the conditions of the Trigger is fulfilled and triggers the Event
@@ -105,32 +128,56 @@ public abstract class Event implements Serializable {
 	 * @param deviceID DeviceID of the updating Device
 	 */
 	public void checkTrigger(Trigger.Direction direction, int deviceID) {
-		if (trigger.getDirection().equals(direction)) {
-			if (trigger.getDelay() == 0) {
-				try {
-					this.trigger(deviceID);
-				} catch (NotFoundException e) {
-					LogEntry.c(e);
-				}
-			} else {
-				Timer timer = new Timer();
-				timer.schedule(new TimerTask() {
-
-					@Override
-					public void run() {
-						try {
-							if (conditionStillFullfilled(deviceID)) {
-								Event.this.trigger(deviceID);
-							}
-						} catch (NotFoundException e) {
-							LogEntry.c(e);
-						}
-					}
-				}, trigger.getDelay() * 1000);
+		if (!trigger.getDirection().equals(direction)) {
+			return;
+		}
+		switch (trigger.getCondition()) {
+		case Immediate:
+			dispatchTrigger(deviceID);
+			break;
+		case LeftWithin:
+			long dwell = PresenceTracker.getInstance().getLastDwell(deviceID, minor);
+			if (dwell >= 0 && dwell <= trigger.getDelay() * 1000L) {
+				dispatchTrigger(deviceID);
 			}
+			break;
+		default:
+			TriggerScheduler.getInstance().schedule(this, deviceID, trigger.getDelay() * 1000L);
+		}
+	}
+
+	/** Triggers the Event in its bulkhead, unless the firing is suppressed by the TriggerThrottle
+	 * 
+	 * @param deviceID DeviceID of the triggering Device
+	 */
+	private void dispatchTrigger(int deviceID) {
+		if (TriggerThrottle.getInstance().tryAcquire(this, deviceID)) {
+			EventExecutor.getInstance().dispatch(this, () -> this.trigger(deviceID));
 		}
 	}
 
+	/** Cancels the pending delayed Trigger of the Event for the Device, 
+	 * i.e. if the Device moved in the opposite direction before the delay is over
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @return true if a pending Trigger is cancelled
+	 */
+	public boolean cancelTrigger(int deviceID) {
+		if (trigger == null || !isDelayed()) {
+			return false;
+		}
+		return TriggerScheduler.getInstance().cancel(this, deviceID);
+	}
+
+	/** Checks if the Trigger is scheduled and fired after its delay
+	 * 
+	 * @return true for Stay and Away Triggers, false if not
+	 */
+	private boolean isDelayed() {
+		Trigger.Condition condition = trigger.getCondition();
+		return condition == Trigger.Condition.Stay || condition == Trigger.Condition.Away;
+	}
+
 	/** Checks if the triggering condition is still fulfilled
 	 * 
 	 * @param deviceID DeviceID of the updating Device
@@ -138,11 +185,43 @@ public abstract class Event implements Serializable {
 	 * @throws NotFoundException if minor or deviceID not existing
 	 */
 	protected boolean conditionStillFullfilled(int deviceID) throws NotFoundException {
-		if (trigger.getDirection().equals(Trigger.Direction.Enter)
-				&& GeofencingDBConnector.isDeviceInGeofence(deviceID, minor)) {
+		Boolean fulfilled = conditionFullfilledByPresence(deviceID, System.currentTimeMillis());
+		if (fulfilled != null) {
+			return fulfilled;
+		}
+		return conditionStillFullfilled(GeofencingDBConnector.findDeviceBeacons(deviceID));
+	}
+
+	/** Checks the triggering condition with the presence tracked in memory: 
+	 * the Device stayed in or was away from the Geofence for the delay of the Trigger
+	 * 
+	 * @param deviceID DeviceID of the updating Device
+	 * @param due Time in milliseconds the delay is over
+	 * @return true if condition is fulfilled, false if not, 
+	 * null if the presence of the Device is unknown or may be changed by another node (PresenceTracker)
+	 */
+	protected Boolean conditionFullfilledByPresence(int deviceID, long due) {
+		long since = due - trigger.getDelay() * 1000L;
+		switch (trigger.getCondition()) {
+		case Stay:
+			return PresenceTracker.getInstance().isInsideSince(deviceID, minor, since);
+		case Away:
+			return PresenceTracker.getInstance().isAwaySince(deviceID, minor, since);
+		default:
+			return null;
+		}
+	}
+
+	/** Checks if the triggering condition is still fulfilled with the beacons in range of the Device
+	 * 
+	 * @param beacons SystemBeacons in range of the Device
+	 * @return true if condition is still fulfilled, false if not
+	 */
+	protected boolean conditionStillFullfilled(SystemBeacons beacons) {
+		boolean inGeofence = beacons.containsBeaconWithMinor(minor);
+		if (trigger.getDirection().equals(Trigger.Direction.Enter) && inGeofence) {
 			return true;
-		} else if (trigger.getDirection().equals(Trigger.Direction.Leave)
-				&& !GeofencingDBConnector.isDeviceInGeofence(deviceID, minor)) {
+		} else if (trigger.getDirection().equals(Trigger.Direction.Leave) && !inGeofence) {
 			return true;
 		}
 		return false;
@@ -171,12 +250,10 @@ public abstract class Event implements Serializable {
 	 * @param json JSON String containing a serialized Event or a derivation
 	 * @return Deserialized Event object or a derivation (has to be casted)
 	 * @throws IOException if an I/O exception occurs
-	 * @throws ClassNotFoundException if the class type of the JSON String is not existing
+	 * @throws ClassNotFoundException if the class type of the JSON String is not registered in the EventTypeRegistry
 	 */
 	public static Event jsonToEvent(String json) throws IOException, ClassNotFoundException{
-		ObjectMapper mapper = new ObjectMapper();
-		String classType = mapper.readTree(json).findValue("classType").asText();
-		return (Event)mapper.readValue(json, Class.forName(classType));
+		return EventTypeRegistry.read(json);
 	}
 
 	@Override
@@ -0,0 +1,406 @@
+package de.geofencing.event;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.SystemConfiguration;
+import de.geofencing.system.exceptions.ConfigurationException;
+import de.geofencing.system.exceptions.NotFoundException;
+
+/** Executes the triggered Events outside of the device updates.
+ * Each Event class has its own bulkhead: a bounded queue and a dedicated pool of worker threads,
+ * so a slow mail server only delays the mail Events. Executions longer than the timeout are interrupted.
+ *
+ * If the queue of a bulkhead is full, the overflow policy decides:
+ * Reject drops the new execution, DropOldest drops the oldest waiting execution
+ * and CallerRuns executes it in the calling thread, which slows down the caller (backpressure).
+ *
+ * Device updates are acknowledged after the executions are enqueued (Enqueued)
+ * or after they are executed (Executed). Device updates processed on a lane collect the waiting for the executions
+ * and the executions of CallerRuns (collect), which are done by the caller after the lane processed the update
+ * (acknowledge), so a slow execution does not stall the other Devices of the lane.
+ *
+ * Configuration values, which can be set for a single Event class with the simple class name as suffix
+ * (i.e. eventWorkers.SendMailEvent): eventWorkers, eventQueueSize, eventTimeout (s) and eventOverflow.
+ * The acknowledge mode is set with eventAcknowledge.
+ *
+ * @author Markus Thral
+ *
+ */
+public class EventExecutor {
+
+	/** Configuration key of the number of worker threads of an Event class
+	 */
+	public static final String eventWorkers = "eventWorkers";
+	/** Configuration key of the number of executions waiting for a worker of an Event class
+	 */
+	public static final String eventQueueSize = "eventQueueSize";
+	/** Configuration key of the time in seconds after an execution is interrupted
+	 */
+	public static final String eventTimeout = "eventTimeout";
+	/** Configuration key of the overflow policy (Overflow) of an Event class
+	 */
+	public static final String eventOverflow = "eventOverflow";
+	/** Configuration key of the acknowledge mode (Acknowledge) of the device updates
+	 */
+	public static final String eventAcknowledge = "eventAcknowledge";
+
+	private static final int defaultWorkers = 2;
+	private static final int defaultQueueSize = 1000;
+	private static final long defaultTimeout = 30;
+
+	/** Policy if the queue of an Event class is full
+	 */
+	public enum Overflow {Reject, DropOldest, CallerRuns};
+
+	/** Time a device update is acknowledged
+	 */
+	public enum Acknowledge {Enqueued, Executed};
+
+	/** Instructions executed for a triggered Event
+	 */
+	public interface Task {
+		void run() throws NotFoundException;
+	}
+
+	private static volatile EventExecutor instance;
+
+	private final Map<Class<?>, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+	private final ThreadLocal<List<Runnable>> deferred = new ThreadLocal<>();
+	private final ScheduledExecutorService watchdog;
+
+	private EventExecutor(){
+		watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "event-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/** Gets the shared executor
+	 *
+	 * @return EventExecutor of the system
+	 */
+	public static EventExecutor getInstance(){
+		if(instance == null){
+			synchronized(EventExecutor.class){
+				if(instance == null){
+					instance = new EventExecutor();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Executes the task in the bulkhead of the Event class and
+	 * waits for the execution if the acknowledge mode is Executed
+	 *
+	 * @param event Triggered Event
+	 * @param task Instructions of the Event
+	 */
+	public void dispatch(Event event, Task task){
+		Bulkhead bulkhead = this.getBulkhead(event);
+		Future<?> execution = bulkhead.submit(task);
+		if(execution == null || acknowledge() != Acknowledge.Executed){
+			return;
+		}
+		List<Runnable> pending = deferred.get();
+		if(pending != null){
+			pending.add(() -> bulkhead.await(execution));
+		} else{
+			bulkhead.await(execution);
+		}
+	}
+
+	/** Runs the Device update and collects the work the caller has to do before the update is acknowledged:
+	 * waiting for the executions (Executed) and executions of a full bulkhead with CallerRuns
+	 *
+	 * @param update Device update, i.e. processed on the lane of the Device
+	 * @return Work to be done with acknowledge
+	 * @throws NotFoundException if the Device is not existing
+	 */
+	public List<Runnable> collect(Task update) throws NotFoundException{
+		List<Runnable> pending = new ArrayList<>();
+		deferred.set(pending);
+		try{
+			update.run();
+		}finally{
+			deferred.remove();
+		}
+		return pending;
+	}
+
+	/** Does the collected work of a Device update in the calling thread
+	 *
+	 * @param pending Work collected by collect
+	 */
+	public void acknowledge(List<Runnable> pending){
+		for(Runnable work : pending){
+			work.run();
+		}
+	}
+
+	/** Executes the task in the bulkhead of the Event class without waiting
+	 *
+	 * @param event Triggered Event
+	 * @param task Instructions of the Event
+	 * @return Future of the execution or null if dropped
+	 */
+	public Future<?> submit(Event event, Task task){
+		return this.getBulkhead(event).submit(task);
+	}
+
+	/** Gets statistics of each Event class: queued and active executions, submitted, completed, failed,
+	 * dropped and timed out executions, average and maximum waiting time and duration (ms) of the executions
+	 *
+	 * @return Map with the statistics by the simple name of the Event class
+	 */
+	public Map<String, Object> getStatistics(){
+		Map<String, Object> statistics = new TreeMap<>();
+		for(Bulkhead bulkhead : bulkheads.values()){
+			statistics.put(bulkhead.name, bulkhead.getStatistics());
+		}
+		return statistics;
+	}
+
+	/** Gets acknowledge mode of the device updates
+	 *
+	 * @return Acknowledge mode, Enqueued if not set
+	 */
+	private static Acknowledge acknowledge(){
+		try{
+			return SystemConfiguration.getEnumValue(eventAcknowledge, Acknowledge.class);
+		}catch(ConfigurationException e){
+			return Acknowledge.Enqueued;
+		}
+	}
+
+	/** Gets bulkhead of the Event class, creates it on the first execution of the class
+	 *
+	 * @param event Triggered Event
+	 * @return Bulkhead of the Event class
+	 */
+	private Bulkhead getBulkhead(Event event){
+		return bulkheads.computeIfAbsent(event.getClass(), type -> 
+				new Bulkhead(type.getSimpleName().isEmpty() ? type.getName() : type.getSimpleName()));
+	}
+
+	/** Gets overflow policy of the Event class or the policy for all classes
+	 *
+	 * @param name Simple name of the Event class
+	 * @return Overflow policy, Reject if not set
+	 */
+	private static Overflow overflow(String name){
+		try{
+			return SystemConfiguration.getEnumValue(eventOverflow + "." + name, Overflow.class);
+		}catch(ConfigurationException e){
+			try{
+				return SystemConfiguration.getEnumValue(eventOverflow, Overflow.class);
+			}catch(ConfigurationException e1){
+				return Overflow.Reject;
+			}
+		}
+	}
+
+	/** Bounded queue and worker pool of an Event class
+	 */
+	private final class Bulkhead {
+
+		private final String name;
+		private final ThreadPoolExecutor pool;
+		private final long timeout;
+		private final Overflow overflow;
+
+		private final AtomicLong submitted = new AtomicLong();
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong timedOut = new AtomicLong();
+		private final AtomicLong totalWait = new AtomicLong();
+		private final AtomicLong totalDuration = new AtomicLong();
+		private volatile long maxWait;
+		private volatile long maxDuration;
+
+		private Bulkhead(String name){
+			this.name = name;
+			int workers = Math.max(1, SystemConfiguration.getIntValue(eventWorkers, name, defaultWorkers));
+			int queueSize = Math.max(1, SystemConfiguration.getIntValue(eventQueueSize, name, defaultQueueSize));
+			this.timeout = TimeUnit.SECONDS.toMillis(Math.max(1, SystemConfiguration.getIntValue(eventTimeout, name, (int)defaultTimeout)));
+			this.overflow = overflow(name);
+			AtomicInteger workerCount = new AtomicInteger();
+			pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+						Thread thread = new Thread(runnable, "event-" + name + "-" + workerCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+			pool.allowCoreThreadTimeOut(true);
+		}
+
+		/** Enqueues the task, applies the overflow policy if the queue is full
+		 *
+		 * @param task Instructions of the Event
+		 * @return Future of the execution or null if dropped
+		 */
+		private Future<?> submit(Task task){
+			Execution execution = new Execution(task);
+			submitted.incrementAndGet();
+			try{
+				pool.execute(execution);
+				return execution;
+			}catch(RejectedExecutionException e){
+			}
+			switch(overflow){
+			case CallerRuns:
+				List<Runnable> pending = deferred.get();
+				if(pending != null){
+					pending.add(() -> this.runInCaller(execution));
+				} else{
+					this.runInCaller(execution);
+				}
+				return execution;
+			case DropOldest:
+				Runnable oldest = pool.getQueue().poll();
+				if(oldest != null){
+					((Execution)oldest).cancel(false);
+					this.drop();
+				}
+				try{
+					pool.execute(execution);
+					return execution;
+				}catch(RejectedExecutionException e){
+					this.drop();
+					return null;
+				}
+			default:
+				this.drop();
+				return null;
+			}
+		}
+
+		/** Executes in the calling thread
+		 *
+		 * @param execution Execution of a task
+		 */
+		private void runInCaller(Execution execution){
+			boolean interrupted = Thread.interrupted();
+			try{
+				execution.run();
+			}finally{
+				//the interrupt of the watchdog after the timeout must not remain on the calling thread
+				Thread.interrupted();
+				if(interrupted){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/** Waits for the execution until the timeout
+		 *
+		 * @param execution Future of the execution
+		 */
+		private void await(Future<?> execution){
+			try{
+				execution.get(timeout, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}catch(ExecutionException | TimeoutException | RuntimeException e){
+				//counted and logged by the bulkhead
+			}
+		}
+
+		/** Counts and logs dropped execution
+		 *
+		 */
+		private void drop(){
+			if(dropped.incrementAndGet() % 100 == 1){
+				LogEntry.c("Queue of " + name + " full, " + dropped.get() + " executions dropped");
+			}
+		}
+
+		private Map<String, Object> getStatistics(){
+			long finished = completed.get() + failed.get() + timedOut.get();
+			Map<String, Object> statistics = new LinkedHashMap<>();
+			statistics.put("queued", pool.getQueue().size());
+			statistics.put("active", pool.getActiveCount());
+			statistics.put("submitted", submitted.get());
+			statistics.put("completed", completed.get());
+			statistics.put("failed", failed.get());
+			statistics.put("dropped", dropped.get());
+			statistics.put("timedOut", timedOut.get());
+			statistics.put("averageWait", finished > 0 ? totalWait.get() / finished : 0);
+			statistics.put("maxWait", maxWait);
+			statistics.put("averageDuration", finished > 0 ? totalDuration.get() / finished : 0);
+			statistics.put("maxDuration", maxDuration);
+			return statistics;
+		}
+
+		/** Execution of a task, interrupted by the watchdog after the timeout
+		 */
+		private final class Execution extends FutureTask<Void> {
+
+			private final long enqueued = System.nanoTime();
+
+			private Execution(Task task){
+				super(() -> {
+					task.run();
+					return null;
+				});
+			}
+
+			@Override
+			public void run(){
+				long started = System.nanoTime();
+				ScheduledFuture<?> timer = watchdog.schedule(() -> {
+					if(this.cancel(true)){
+						LogEntry.c("Execution of " + name + " interrupted after " + timeout + " ms");
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+				super.run();
+				timer.cancel(false);
+
+				long wait = TimeUnit.NANOSECONDS.toMillis(started - enqueued);
+				long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+				totalWait.addAndGet(wait);
+				totalDuration.addAndGet(duration);
+				if(wait > maxWait){
+					maxWait = wait;
+				}
+				if(duration > maxDuration){
+					maxDuration = duration;
+				}
+				if(this.isCancelled()){
+					timedOut.incrementAndGet();
+					return;
+				}
+				try{
+					this.get();
+					completed.incrementAndGet();
+				}catch(ExecutionException e){
+					failed.incrementAndGet();
+					LogEntry.c(e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package de.geofencing.event;
+
+import java.util.Collection;
+
+/** Provides Event classes of an extension, which are registered in the EventTypeRegistry.
+ * Implementations are found by the ServiceLoader, so the extension has to list its implementation in
+ * META-INF/services/de.geofencing.event.EventTypeProvider
+ * 
+ * @author Markus Thral
+ *
+ */
+public interface EventTypeProvider {
+	
+	/** Gets the Event classes of the extension
+	 * 
+	 * @return Event classes which can be deserialized
+	 */
+	Collection<Class<? extends Event>> getEventTypes();
+}
@@ -0,0 +1,220 @@
+package de.geofencing.event;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.jsontype.impl.StdTypeResolverBuilder;
+import com.fasterxml.jackson.databind.jsontype.impl.TypeIdResolverBase;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import de.geofencing.event.counter.GeofenceCounterEvent;
+import de.geofencing.event.counter.ModifyCounterEvent;
+import de.geofencing.event.mail.SendMailEvent;
+import de.geofencing.event.notification.AdminNotificationEvent;
+import de.geofencing.event.notification.DeviceNotificationEvent;
+import de.geofencing.log.LogEntry;
+
+/** Registry of the Event classes which can be deserialized. 
+ * Only registered classes are instantiated, the classType of a serialized Event
+ * is never loaded with Class.forName.
+ * 
+ * The Events of the system are registered by default, 
+ * extensions register their Events with an EventTypeProvider found by the ServiceLoader.
+ * The Event class resolves its classType with the IdResolver of this registry, 
+ * so the JSON is read in a single pass by the reader of the Event class, cached for each ObjectMapper.
+ * Jackson 2.3 cannot write a type id held by an existing property (As.EXISTING_PROPERTY), 
+ * therefore the ResolverBuilder reads the classType as visible property and writes no type id, 
+ * the classType field of the Event is serialized instead.
+ * 
+ * Uses Jackson for deserializing (Needs jackson 2.3.2 or newer)
+ * 
+ * @author Markus Thral
+ *
+ */
+public final class EventTypeRegistry {
+	
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final Map<String, Class<? extends Event>> types = new ConcurrentHashMap<>();
+	private static final Map<ObjectMapper, ObjectReader> readers = new ConcurrentHashMap<>();
+	
+	static{
+		register(SendMailEvent.class);
+		register(DeviceNotificationEvent.class);
+		register(AdminNotificationEvent.class);
+		register(ModifyCounterEvent.class);
+		register(GeofenceCounterEvent.class);
+		try{
+			for(EventTypeProvider provider : ServiceLoader.load(EventTypeProvider.class)){
+				for(Class<? extends Event> type : provider.getEventTypes()){
+					register(type);
+				}
+			}
+		}catch(ServiceConfigurationError e){
+			LogEntry.c("Could not load EventTypeProvider: " + e.getMessage());
+		}
+	}
+	
+	private EventTypeRegistry(){}
+	
+	/** Registers Event class, so it can be deserialized
+	 * 
+	 * @param type Class derived from Event, must not be abstract
+	 * @return true if registered, false if abstract or no Event
+	 */
+	public static boolean register(Class<? extends Event> type){
+		if(!Event.class.isAssignableFrom(type) || Modifier.isAbstract(type.getModifiers())){
+			LogEntry.c("Event type " + type.getName() + " not registered: abstract or no Event");
+			return false;
+		}
+		types.put(type.getName(), type);
+		return true;
+	}
+	
+	/** Gets registered Event class
+	 * 
+	 * @param classType Name of the class
+	 * @return Class of the Event
+	 * @throws ClassNotFoundException if the class is not registered
+	 */
+	public static Class<? extends Event> getType(String classType) throws ClassNotFoundException{
+		Class<? extends Event> type = classType != null ? types.get(classType) : null;
+		if(type == null){
+			throw new ClassNotFoundException("Event type not registered: " + classType);
+		}
+		return type;
+	}
+	
+	/** Gets names of the registered Event classes
+	 * 
+	 * @return sorted names of the classes
+	 */
+	public static Set<String> getTypeNames(){
+		return new TreeSet<>(types.keySet());
+	}
+	
+	/** Deserializes Event or a derivation from a JSON String
+	 * 
+	 * @param json JSON String containing a serialized Event or a derivation
+	 * @return Deserialized Event object or a derivation
+	 * @throws IOException if the JSON is malformed, has no classType or does not match the class
+	 * @throws ClassNotFoundException if the classType is not registered
+	 */
+	public static Event read(String json) throws IOException, ClassNotFoundException{
+		try{
+			return getReader(mapper).readValue(json);
+		}catch(IllegalArgumentException e){
+			throw unwrap(e);
+		}
+	}
+	
+	/** Deserializes Event or a derivation from a JSON tree with the reader of the given mapper
+	 * 
+	 * @param objectMapper Mapper which configures the reader
+	 * @param tree JSON tree containing a serialized Event or a derivation
+	 * @return Deserialized Event object or a derivation
+	 * @throws IOException if the tree has no classType or does not match the class
+	 * @throws ClassNotFoundException if the classType is not registered
+	 */
+	public static Event read(ObjectMapper objectMapper, JsonNode tree) throws IOException, ClassNotFoundException{
+		try{
+			return getReader(objectMapper).readValue(tree);
+		}catch(IllegalArgumentException e){
+			throw unwrap(e);
+		}
+	}
+	
+	/** Gets cached reader of the Event class
+	 * 
+	 * @param objectMapper Mapper which configures the reader
+	 * @return ObjectReader for the Event class
+	 */
+	private static ObjectReader getReader(ObjectMapper objectMapper){
+		return readers.computeIfAbsent(objectMapper, key -> key.reader(Event.class));
+	}
+	
+	/** Gets ClassNotFoundException thrown by the IdResolver
+	 * 
+	 * @param e Exception thrown while reading
+	 * @return ClassNotFoundException of the unregistered classType
+	 * @throws IllegalArgumentException if not thrown by the IdResolver
+	 */
+	private static ClassNotFoundException unwrap(IllegalArgumentException e){
+		if(e.getCause() instanceof ClassNotFoundException){
+			return (ClassNotFoundException)e.getCause();
+		}
+		throw e;
+	}
+	
+	/** Resolves the classType of a serialized Event to the registered class
+	 * 
+	 * @author Markus Thral
+	 *
+	 */
+	static final class IdResolver extends TypeIdResolverBase {
+		
+		private JavaType baseType;
+		
+		@Override
+		public String idFromValue(Object value) {
+			return value.getClass().getName();
+		}
+
+		@Override
+		public String idFromValueAndType(Object value, Class<?> suggestedType) {
+			return suggestedType.getName();
+		}
+
+		@Override
+		public JsonTypeInfo.Id getMechanism() {
+			return JsonTypeInfo.Id.CUSTOM;
+		}
+		
+		@Override
+		public void init(JavaType baseType) {
+			this.baseType = baseType;
+		}
+
+		@Override
+		public JavaType typeFromId(String id) {
+			try{
+				Class<? extends Event> type = getType(id);
+				if(!baseType.getRawClass().isAssignableFrom(type)){
+					throw new ClassNotFoundException("Event type " + id + " is no " + baseType.getRawClass().getName());
+				}
+				return TypeFactory.defaultInstance().constructSpecializedType(baseType, type);
+			}catch(ClassNotFoundException e){
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
+		}
+	}
+	
+	/** Reads the classType as visible property, but writes no type id, 
+	 * because the classType field of the Event is serialized
+	 * 
+	 * @author Markus Thral
+	 *
+	 */
+	static final class ResolverBuilder extends StdTypeResolverBuilder {
+		
+		@Override
+		public TypeSerializer buildTypeSerializer(SerializationConfig config, JavaType baseType, 
+				Collection<NamedType> subtypes) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package de.geofencing.event;
+
+/** Delayed Trigger of an Event for a Device, as saved in the database until it is due.
+ * The ID is composed of minor, eventID and deviceID, so only one Trigger 
+ * of an Event is pending for a Device
+ * 
+ * @author Markus Thral
+ *
+ */
+public final class PendingTrigger {
+	
+	private final int minor;
+	private final int eventID;
+	private final int deviceID;
+	private final long due;
+	
+	/** Creates pending Trigger
+	 * 
+	 * @param minor Minor of the Geofence of the Event
+	 * @param eventID EventID of the Event
+	 * @param deviceID DeviceID of the triggering Device
+	 * @param due Time in milliseconds (epoch) when the Trigger is due
+	 */
+	public PendingTrigger(int minor, int eventID, int deviceID, long due){
+		this.minor = minor;
+		this.eventID = eventID;
+		this.deviceID = deviceID;
+		this.due = due;
+	}
+	
+	/** Gets ID of the pending Trigger in the database
+	 * 
+	 * @return minor, eventID and deviceID separated by colon
+	 */
+	public String getID(){
+		return minor + ":" + eventID + ":" + deviceID;
+	}
+
+	public int getMinor() {
+		return minor;
+	}
+
+	public int getEventID() {
+		return eventID;
+	}
+
+	public int getDeviceID() {
+		return deviceID;
+	}
+
+	public long getDue() {
+		return due;
+	}
+
+	@Override
+	public String toString() {
+		return "PendingTrigger [minor=" + minor + ", eventID=" + eventID + ", deviceID=" + deviceID + ", due=" + due + "]";
+	}
+}
@@ -0,0 +1,302 @@
+package de.geofencing.event;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.geofencing.system.SystemConfiguration;
+import de.geofencing.system.exceptions.ConfigurationException;
+
+/** Tracks the presence of each Device in each Geofence in memory:
+ * whether the Device is inside or away and since when, and how long its last visit lasted.
+ * Delayed Triggers (Stay, Away) and LeftWithin Triggers are decided with the tracked presence
+ * without reading the Device from the database.
+ *
+ * The presence is only known for movements seen by this node since its start,
+ * unknown presence returns null and has to be checked with the database.
+ * With several nodes a Device may move through another node, so the tracked presence
+ * can be outdated: with presenceDeployment MultiNode, Stay and Away are always checked with the database
+ * while LeftWithin still uses the last visit seen by this node.
+ * Presences of Devices which are away longer than the retention time are removed.
+ *
+ * Configuration values: presenceRetention (s, default one day), presenceDeployment (default SingleNode)
+ *
+ * @author Markus Thral
+ *
+ */
+public class PresenceTracker {
+
+	/** Configuration key of the time in seconds a Device away from a Geofence is tracked
+	 */
+	public static final String presenceRetention = "presenceRetention";
+
+	/** Configuration key of the Deployment, which decides if the tracked presence is complete
+	 */
+	public static final String presenceDeployment = "presenceDeployment";
+
+	private static final long defaultRetention = 86400;
+
+	/** Deployment of the system: a single node sees every movement, 
+	 * with several nodes the movements of a Device may be seen by another node
+	 */
+	public enum Deployment {SingleNode, MultiNode};
+
+	private static volatile PresenceTracker instance;
+
+	private final Map<Long, Presence> presences = new ConcurrentHashMap<>();
+	private final Map<Integer, Dwell> dwells = new ConcurrentHashMap<>();
+	private final long retention;
+	private final boolean complete;
+	private final AtomicLong purged = new AtomicLong();
+
+	private PresenceTracker(){
+		retention = Math.max(1000, SystemConfiguration.getDurationValue(presenceRetention, TimeUnit.SECONDS, defaultRetention));
+		complete = deployment() == Deployment.SingleNode;
+		ScheduledExecutorService purge = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "presence-purge");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1000, retention / 10);
+		purge.scheduleWithFixedDelay(this::purge, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/** Gets the shared tracker
+	 *
+	 * @return PresenceTracker of the system
+	 */
+	public static PresenceTracker getInstance(){
+		if(instance == null){
+			synchronized(PresenceTracker.class){
+				if(instance == null){
+					instance = new PresenceTracker();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Records that the Device entered the Geofence.
+	 * Ignored if the Device is already inside
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 * @param time Time of the movement in milliseconds
+	 */
+	public void enter(int deviceID, int minor, long time){
+		boolean[] entered = new boolean[1];
+		presences.compute(key(deviceID, minor), (key, presence) -> {
+			if(presence != null && presence.inside){
+				return presence;
+			}
+			entered[0] = true;
+			return new Presence(true, time, presence != null ? presence.lastDwell : -1);
+		});
+		if(entered[0]){
+			this.getDwell(minor).inside.incrementAndGet();
+		}
+	}
+
+	/** Records that the Device left the Geofence
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 * @param time Time of the movement in milliseconds
+	 * @return Duration of the visit in milliseconds or -1 if the entering is unknown
+	 */
+	public long leave(int deviceID, int minor, long time){
+		long[] dwell = {-1};
+		presences.compute(key(deviceID, minor), (key, presence) -> {
+			if(presence == null){
+				return new Presence(false, time, -1);
+			}
+			if(!presence.inside){
+				return presence;
+			}
+			dwell[0] = Math.max(0, time - presence.since);
+			return new Presence(false, time, dwell[0]);
+		});
+		if(dwell[0] >= 0){
+			this.getDwell(minor).visit(dwell[0]);
+		}
+		return dwell[0];
+	}
+
+	/** Checks if the Device is inside the Geofence since the given time or earlier
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 * @param time Latest time of entering in milliseconds
+	 * @return true if inside since the time, false if not, 
+	 * null if the presence is unknown or may be changed by another node
+	 */
+	public Boolean isInsideSince(int deviceID, int minor, long time){
+		Presence presence = presences.get(key(deviceID, minor));
+		if(presence == null || !complete){
+			return null;
+		}
+		return presence.inside && presence.since <= time;
+	}
+
+	/** Checks if the Device is away from the Geofence since the given time or earlier
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 * @param time Latest time of leaving in milliseconds
+	 * @return true if away since the time, false if not, 
+	 * null if the presence is unknown or may be changed by another node
+	 */
+	public Boolean isAwaySince(int deviceID, int minor, long time){
+		Presence presence = presences.get(key(deviceID, minor));
+		if(presence == null || !complete){
+			return null;
+		}
+		return !presence.inside && presence.since <= time;
+	}
+
+	/** Gets duration of the last completed visit of the Device in the Geofence
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 * @return Duration in milliseconds or -1 if unknown
+	 */
+	public long getLastDwell(int deviceID, int minor){
+		Presence presence = presences.get(key(deviceID, minor));
+		return presence != null ? presence.lastDwell : -1;
+	}
+
+	/** Removes the presences of the Device, i.e. if the Device is removed
+	 *
+	 * @param deviceID DeviceID of the Device
+	 */
+	public void removeDevice(int deviceID){
+		Iterator<Map.Entry<Long, Presence>> iterator = presences.entrySet().iterator();
+		while(iterator.hasNext()){
+			Map.Entry<Long, Presence> entry = iterator.next();
+			if((int)(entry.getKey() >>> 32) == deviceID){
+				if(entry.getValue().inside){
+					this.getDwell(entry.getKey().intValue()).inside.decrementAndGet();
+				}
+				iterator.remove();
+			}
+		}
+	}
+
+	/** Gets dwell statistics of the Geofence: Devices inside, completed visits,
+	 * average and maximum duration (ms) of the visits
+	 *
+	 * @param minor Minor of the Geofence
+	 * @return Map with the statistics
+	 */
+	public Map<String, Object> getDwellStatistics(int minor){
+		Dwell dwell = dwells.get(minor);
+		return dwell != null ? dwell.getStatistics() : new Dwell().getStatistics();
+	}
+
+	/** Gets statistics of the tracker: tracked presences, Devices inside, completed visits,
+	 * average and maximum duration (ms) of the visits in all Geofences and purged presences
+	 *
+	 * @return Map with the statistics
+	 */
+	public Map<String, Object> getStatistics(){
+		long inside = 0;
+		long visits = 0;
+		long total = 0;
+		long max = 0;
+		for(Dwell dwell : dwells.values()){
+			inside += dwell.inside.get();
+			visits += dwell.visits.get();
+			total += dwell.total.get();
+			max = Math.max(max, dwell.max);
+		}
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("presences", presences.size());
+		statistics.put("inside", inside);
+		statistics.put("visits", visits);
+		statistics.put("averageDwell", visits > 0 ? total / visits : 0);
+		statistics.put("maxDwell", max);
+		statistics.put("purged", purged.get());
+		return statistics;
+	}
+
+	/** Removes presences of Devices away longer than the retention time
+	 *
+	 */
+	private void purge(){
+		long oldest = System.currentTimeMillis() - retention;
+		for(Map.Entry<Long, Presence> entry : presences.entrySet()){
+			Presence presence = entry.getValue();
+			if(!presence.inside && presence.since < oldest && presences.remove(entry.getKey(), presence)){
+				purged.incrementAndGet();
+			}
+		}
+	}
+
+	/** Gets deployment of the system
+	 *
+	 * @return Deployment, SingleNode if not set
+	 */
+	private static Deployment deployment(){
+		try{
+			return SystemConfiguration.getEnumValue(presenceDeployment, Deployment.class);
+		}catch(ConfigurationException e){
+			return Deployment.SingleNode;
+		}
+	}
+
+	private Dwell getDwell(int minor){
+		return dwells.computeIfAbsent(minor, key -> new Dwell());
+	}
+
+	private static long key(int deviceID, int minor){
+		return ((long)deviceID << 32) | (minor & 0xffffffffL);
+	}
+
+	/** Presence of a Device in a Geofence, replaced on each movement
+	 */
+	private static final class Presence {
+		private final boolean inside;
+		private final long since;
+		private final long lastDwell;
+
+		private Presence(boolean inside, long since, long lastDwell){
+			this.inside = inside;
+			this.since = since;
+			this.lastDwell = lastDwell;
+		}
+	}
+
+	/** Dwell statistics of a Geofence
+	 */
+	private static final class Dwell {
+		private final AtomicInteger inside = new AtomicInteger();
+		private final AtomicLong visits = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private volatile long max;
+
+		private void visit(long dwell){
+			inside.decrementAndGet();
+			visits.incrementAndGet();
+			total.addAndGet(dwell);
+			if(dwell > max){
+				max = dwell;
+			}
+		}
+
+		private Map<String, Object> getStatistics(){
+			long count = visits.get();
+			Map<String, Object> statistics = new LinkedHashMap<>();
+			statistics.put("inside", inside.get());
+			statistics.put("visits", count);
+			statistics.put("averageDwell", count > 0 ? total.get() / count : 0);
+			statistics.put("maxDwell", max);
+			return statistics;
+		}
+	}
+}
@@ -2,7 +2,12 @@ package de.geofencing.event;
 
 import java.io.Serializable;
 
-/** Defines how a Event is triggered with direction and optional delay
+/** Defines how a Event is triggered with direction, condition and optional delay.
+ * The condition defines the meaning of the delay: 
+ * Stay triggers if the Device stayed at least delay seconds in the Geofence, 
+ * Away triggers if the Device was away at least delay seconds, 
+ * LeftWithin triggers if the Device left the Geofence within delay seconds after entering it.
+ * Triggers saved without condition are Immediate without delay, Stay or Away with delay
  * 
  * @author Markus Thral
  *
@@ -17,8 +22,15 @@ public class Trigger implements Serializable{
 	 */
 	public enum Direction{Enter, Leave};
 	
+	/** Condition of the Trigger:
+	 * Immediate, stay or away at least delay seconds, or leave within delay seconds after entering
+	 * 
+	 */
+	public enum Condition{Immediate, Stay, Away, LeftWithin};
+	
 	protected final Direction direction;
 	protected final int delay;			
+	protected final Condition condition;
 
 	/** Creates Trigger with direction and delay, after which 
 	 * the event is triggered if the condition is still fulfilled
@@ -29,6 +41,23 @@ public class Trigger implements Serializable{
 	public Trigger(Direction direction, int delay){
 		this.direction = direction;
 		this.delay = delay;
+		this.condition = null;
+	}
+
+	/** Creates Trigger with condition and duration in seconds, 
+	 * the direction is Enter for Stay and Leave for Away and LeftWithin
+	 * 
+	 * @param condition Trigger.Condition Stay, Away or LeftWithin
+	 * @param duration in seconds the Device has to stay, be away or leave within
+	 * @throws IllegalArgumentException if the condition is Immediate, which needs a direction (Trigger(Direction))
+	 */
+	public Trigger(Condition condition, int duration){
+		if(condition == Condition.Immediate){
+			throw new IllegalArgumentException("Immediate Trigger needs a direction");
+		}
+		this.direction = condition == Condition.Stay ? Direction.Enter : Direction.Leave;
+		this.delay = duration;
+		this.condition = condition;
 	}
 
 	/** Creates Trigger with direction. Triggers immediately
@@ -38,6 +67,7 @@ public class Trigger implements Serializable{
 	public Trigger(Direction direction){
 		this.direction = direction;
 		this.delay = 0;
+		this.condition = Condition.Immediate;
 	}
 	
 	/** Constructor for serialization
@@ -46,6 +76,7 @@ public class Trigger implements Serializable{
 	public Trigger(){
 		this.direction = null;
 		this.delay = 0;
+		this.condition = null;
 	}
 
 	public Direction getDirection(){
@@ -55,11 +86,26 @@ public class Trigger implements Serializable{
 	public int getDelay(){
 		return this.delay;
 	}
+	
+	/** Gets condition of the Trigger, derived from direction and delay if not set
+	 * 
+	 * @return Trigger.Condition of the Trigger
+	 */
+	public Condition getCondition(){
+		if(this.condition != null){
+			return this.condition;
+		}
+		if(this.delay == 0){
+			return Condition.Immediate;
+		}
+		return Direction.Leave.equals(this.direction) ? Condition.Away : Condition.Stay;
+	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		result = prime * result + getCondition().hashCode();
 		result = prime * result + delay;
 		result = prime * result + ((direction == null) ? 0 : direction.hashCode());
 		return result;
@@ -76,6 +122,8 @@ public class Trigger implements Serializable{
 		Trigger other = (Trigger) obj;
 		if (delay != other.delay)
 			return false;
+		if (getCondition() != other.getCondition())
+			return false;
 		if (direction != other.direction)
 			return false;
 		return true;
@@ -83,7 +131,7 @@ public class Trigger implements Serializable{
 
 	@Override
 	public String toString() {
-		return "Trigger [direction=" + direction + ", delay=" + delay + "]";
+		return "Trigger [direction=" + direction + ", delay=" + delay + ", condition=" + getCondition() + "]";
 	}
 	
 	
@@ -0,0 +1,595 @@
+package de.geofencing.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.geofencing.database.GeofencingDBConnector;
+import de.geofencing.database.ScheduledTriggerDBConnector;
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.SystemConfiguration;
+import de.geofencing.system.Topology;
+import de.geofencing.system.TopologySnapshot;
+import de.geofencing.system.beacon.SystemBeacons;
+import de.geofencing.system.exceptions.NotFoundException;
+import de.geofencing.system.geofence.Geofence;
+
+/** Schedules delayed Triggers of Events on a hashed timing wheel, shared by all Events.
+ * One thread advances the wheel every tick and hands the due Triggers to a bounded executor,
+ * the conditions of all Triggers due in the same tick are checked with one lookup of the Devices.
+ *
+ * A Trigger is scheduled once per Event and Device: it is pending until it is due or cancelled,
+ * i.e. a Device leaving the Geofence cancels the pending Enter Triggers of the Geofence.
+ *
+ * Fired Triggers are executed by the EventExecutor.
+ *
+ * Pending Triggers are saved in the database in batches (once per tick, by the store thread),
+ * so they are recovered after a restart: The Triggers due within the next two recovery intervals
+ * are loaded on startup and every recovery interval. A due Trigger is claimed with a lease before it is fired,
+ * so with several nodes only one node fires it. Changes not saved yet are written before the claim,
+ * Triggers which still could not be saved are only known to this node and fired without a claim.
+ * Changes of a failed write are saved with the next batch. Triggers of a node which stopped before deleting them
+ * are recovered by any node after the lease, so a Trigger is fired at least once.
+ *
+ * The tick (triggerTick, ms), the number of worker threads (triggerWorkers),
+ * the size of the queue of the workers (triggerQueueSize), the lease (triggerLease, s)
+ * and the recovery interval (triggerRecoveryInterval, s) are read from the configuration.
+ *
+ * @author Markus Thral
+ *
+ */
+public class TriggerScheduler {
+
+	/** Configuration key of the duration of a tick of the wheel in milliseconds
+	 */
+	public static final String triggerTick = "triggerTick";
+	/** Configuration key of the number of threads executing the due Triggers
+	 */
+	public static final String triggerWorkers = "triggerWorkers";
+	/** Configuration key of the number of due Triggers waiting for a worker
+	 */
+	public static final String triggerQueueSize = "triggerQueueSize";
+	/** Configuration key of the time in seconds a node may fire a claimed Trigger before other nodes may claim it
+	 */
+	public static final String triggerLease = "triggerLease";
+	/** Configuration key of the interval in seconds the pending Triggers are loaded from the database
+	 */
+	public static final String triggerRecoveryInterval = "triggerRecoveryInterval";
+
+	private static final int defaultTick = 100;
+	private static final int defaultWorkers = 4;
+	private static final int defaultQueueSize = 10000;
+	private static final long defaultLease = 60;
+	private static final long defaultRecoveryInterval = 60;
+	private static final int wheelSize = 512;
+
+	private static volatile TriggerScheduler instance;
+
+	private final long tickDuration;
+	private final long startTime;
+	private final List<List<ScheduledTrigger>> wheel;
+	private final Queue<ScheduledTrigger> added = new ConcurrentLinkedQueue<>();
+	private final Map<TriggerKey, ScheduledTrigger> pending = new ConcurrentHashMap<>();
+	private final ThreadPoolExecutor executor;
+	private final ExecutorService store;
+	private final Map<String, Change> unsaved = new LinkedHashMap<>();
+	private final Object flushLock = new Object();
+	private final String node = UUID.randomUUID().toString();
+	private final AtomicLong claims = new AtomicLong();
+	private final long lease;
+	private final long recoveryInterval;
+	private long nextRecovery;
+	private long tick;
+
+	private final AtomicLong scheduled = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong claimedElsewhere = new AtomicLong();
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong decidedByPresence = new AtomicLong();
+	private volatile long lag;
+	private volatile long maxLag;
+
+	private TriggerScheduler(){
+		tickDuration = Math.max(1, SystemConfiguration.getIntValue(triggerTick, defaultTick));
+		int workers = Math.max(1, SystemConfiguration.getIntValue(triggerWorkers, defaultWorkers));
+		int queueSize = Math.max(1, SystemConfiguration.getIntValue(triggerQueueSize, defaultQueueSize));
+		lease = SystemConfiguration.getDurationValue(triggerLease, TimeUnit.SECONDS, defaultLease);
+		recoveryInterval = SystemConfiguration.getDurationValue(triggerRecoveryInterval, TimeUnit.SECONDS, defaultRecoveryInterval);
+
+		wheel = new ArrayList<>(wheelSize);
+		for(int i = 0; i < wheelSize; i++){
+			wheel.add(new ArrayList<ScheduledTrigger>());
+		}
+		AtomicInteger workerCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+					Thread thread = new Thread(runnable, "trigger-worker-" + workerCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		store = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "trigger-store");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		startTime = System.nanoTime();
+		Thread thread = new Thread(this::run, "trigger-scheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Gets the shared scheduler, which is started on the first call 
+	 * and recovers the pending Triggers from the database
+	 *
+	 * @return TriggerScheduler of the system
+	 */
+	public static TriggerScheduler getInstance(){
+		if(instance == null){
+			synchronized(TriggerScheduler.class){
+				if(instance == null){
+					instance = new TriggerScheduler();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Schedules the Trigger of the Event for the Device,
+	 * if no Trigger of the Event is pending for the Device
+	 *
+	 * @param event Event to be triggered
+	 * @param deviceID DeviceID of the triggering Device
+	 * @param delay Delay in milliseconds
+	 * @return true if scheduled, false if already pending
+	 */
+	public boolean schedule(Event event, int deviceID, long delay){
+		delay = Math.max(0, delay);
+		PendingTrigger entry = new PendingTrigger(event.getMinor(), event.getEventID(), deviceID, 
+				System.currentTimeMillis() + delay);
+		if(!this.add(event, entry, delay)){
+			return false;
+		}
+		this.save(entry);
+		scheduled.incrementAndGet();
+		return true;
+	}
+
+	/** Adds Trigger to the wheel if no Trigger of the Event is pending for the Device
+	 *
+	 * @param event Event to be triggered
+	 * @param entry PendingTrigger as saved in the database
+	 * @param delay Delay in milliseconds
+	 * @return true if added, false if already pending
+	 */
+	private boolean add(Event event, PendingTrigger entry, long delay){
+		TriggerKey key = new TriggerKey(event, entry.getDeviceID());
+		ScheduledTrigger scheduledTrigger = new ScheduledTrigger(key, event, entry, this.elapsed() + delay);
+		if(pending.putIfAbsent(key, scheduledTrigger) != null){
+			return false;
+		}
+		added.add(scheduledTrigger);
+		return true;
+	}
+
+	/** Cancels the pending Trigger of the Event for the Device
+	 *
+	 * @param event Event of the Trigger
+	 * @param deviceID DeviceID of the triggering Device
+	 * @return true if a pending Trigger is cancelled, false if none pending
+	 */
+	public boolean cancel(Event event, int deviceID){
+		if(pending.isEmpty()){
+			return false;
+		}
+		ScheduledTrigger scheduledTrigger = pending.remove(new TriggerKey(event, deviceID));
+		if(scheduledTrigger == null){
+			return false;
+		}
+		scheduledTrigger.cancelled = true;
+		this.remove(scheduledTrigger.entry);
+		cancelled.incrementAndGet();
+		return true;
+	}
+
+	/** Marks the Trigger to be saved with the next batch
+	 *
+	 * @param entry PendingTrigger to be saved
+	 */
+	private void save(PendingTrigger entry){
+		synchronized(unsaved){
+			unsaved.put(entry.getID(), new Change(entry, false));
+		}
+	}
+
+	/** Marks the Trigger to be removed with the next batch. 
+	 * A newer Trigger with the same ID, which is not saved yet, is kept
+	 *
+	 * @param entry PendingTrigger to be removed
+	 */
+	private void remove(PendingTrigger entry){
+		synchronized(unsaved){
+			Change change = unsaved.get(entry.getID());
+			if(change == null || change.entry == entry){
+				unsaved.put(entry.getID(), new Change(entry, true));
+			}
+		}
+	}
+
+	/** Saves and removes the changed Triggers with one bulk write. Runs on the store thread
+	 * and before the due Triggers are claimed, a running write is finished first.
+	 * If the write fails, the changes are kept unless they are replaced by newer changes
+	 *
+	 */
+	private void flush(){
+		synchronized(flushLock){
+			Map<String, Change> changes;
+			synchronized(unsaved){
+				if(unsaved.isEmpty()){
+					return;
+				}
+				changes = new LinkedHashMap<>(unsaved);
+				unsaved.clear();
+			}
+			List<PendingTrigger> saved = new ArrayList<>();
+			List<PendingTrigger> removed = new ArrayList<>();
+			for(Change change : changes.values()){
+				(change.removed ? removed : saved).add(change.entry);
+			}
+			try{
+				ScheduledTriggerDBConnector.saveScheduledTriggers(saved, removed);
+			}catch(RuntimeException e){
+				LogEntry.c("Could not save " + saved.size() + " and remove " + removed.size() + " pending Triggers");
+				LogEntry.c(e);
+				synchronized(unsaved){
+					for(Map.Entry<String, Change> change : changes.entrySet()){
+						unsaved.putIfAbsent(change.getKey(), change.getValue());
+					}
+				}
+			}
+		}
+	}
+	
+	/** Checks if the Trigger is not saved yet, so no other node knows it
+	 *
+	 * @param entry PendingTrigger
+	 * @return true if the Trigger is waiting to be saved
+	 */
+	private boolean isUnsaved(PendingTrigger entry){
+		synchronized(unsaved){
+			Change change = unsaved.get(entry.getID());
+			return change != null && change.entry == entry && !change.removed;
+		}
+	}
+
+	/** Loads the Triggers due within the next two recovery intervals, which are not pending on this node.
+	 * Triggers of removed Events are removed. Runs on the store thread
+	 *
+	 */
+	private void recover(){
+		try{
+			long now = System.currentTimeMillis();
+			TopologySnapshot snapshot = Topology.getInstance().getSnapshot();
+			int count = 0;
+			for(PendingTrigger entry : ScheduledTriggerDBConnector.findScheduledTriggers(now + 2 * recoveryInterval, now)){
+				Geofence geofence = snapshot.getGeofence(entry.getMinor());
+				Event event;
+				try{
+					if(geofence == null){
+						throw new NotFoundException("Geofence " + entry.getMinor());
+					}
+					event = geofence.getEvent(entry.getEventID());
+				}catch(NotFoundException e){
+					this.remove(entry);
+					continue;
+				}
+				if(this.add(event, entry, Math.max(0, entry.getDue() - now))){
+					count++;
+				}
+			}
+			recovered.addAndGet(count);
+			if(count > 0){
+				LogEntry.c("Recovered " + count + " pending Triggers");
+			}
+		}catch(RuntimeException e){
+			LogEntry.c(e);
+		}
+	}
+
+	/** Gets amount of pending Triggers
+	 *
+	 * @return amount of scheduled Triggers which are neither due nor cancelled
+	 */
+	public int pendingCount(){
+		return pending.size();
+	}
+
+	/** Gets statistics of the scheduler: pending, scheduled, cancelled, fired, expired
+	 * (condition not fulfilled anymore) and rejected (queue full) Triggers,
+	 * Triggers decided by the tracked presence without reading the Device, 
+	 * the lag (ms) of the wheel behind the due time of the last tick with due Triggers and the maximum lag
+	 *
+	 * @return Map with the statistic values
+	 */
+	public Map<String, Object> getStatistics(){
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("pending", pending.size());
+		statistics.put("scheduled", scheduled.get());
+		statistics.put("cancelled", cancelled.get());
+		statistics.put("fired", fired.get());
+		statistics.put("expired", expired.get());
+		statistics.put("rejected", rejected.get());
+		statistics.put("claimedElsewhere", claimedElsewhere.get());
+		statistics.put("recovered", recovered.get());
+		statistics.put("decidedByPresence", decidedByPresence.get());
+		statistics.put("queued", executor.getQueue().size());
+		statistics.put("lag", lag);
+		statistics.put("maxLag", maxLag);
+		statistics.put("tick", tickDuration);
+		return statistics;
+	}
+
+	/** Gets milliseconds since the start of the scheduler
+	 *
+	 * @return elapsed milliseconds
+	 */
+	private long elapsed(){
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+
+	/** Advances the wheel every tick, runs on the scheduler thread
+	 *
+	 */
+	private void run(){
+		while(true){
+			try{
+				long sleep = tickDuration * tick - this.elapsed();
+				if(sleep > 0){
+					Thread.sleep(sleep);
+				}
+				this.storeChanges();
+				this.transferAdded();
+				List<ScheduledTrigger> due = this.expire(wheel.get((int)(tick & (wheelSize - 1))));
+				if(!due.isEmpty()){
+					this.dispatch(due);
+				}
+				tick++;
+			}catch(InterruptedException e){
+				return;
+			}catch(RuntimeException e){
+				LogEntry.c(e);
+			}
+		}
+	}
+
+	/** Hands the changed Triggers and, every recovery interval, the recovery to the store thread
+	 *
+	 */
+	private void storeChanges(){
+		boolean changed;
+		synchronized(unsaved){
+			changed = !unsaved.isEmpty();
+		}
+		if(changed){
+			store.execute(this::flush);
+		}
+		if(this.elapsed() >= nextRecovery){
+			nextRecovery = this.elapsed() + recoveryInterval;
+			store.execute(this::recover);
+		}
+	}
+
+	/** Moves the newly scheduled Triggers to their bucket of the wheel
+	 *
+	 */
+	private void transferAdded(){
+		ScheduledTrigger scheduledTrigger;
+		while((scheduledTrigger = added.poll()) != null){
+			if(scheduledTrigger.cancelled){
+				continue;
+			}
+			long dueTick = (scheduledTrigger.deadline + tickDuration - 1) / tickDuration;
+			scheduledTrigger.remainingRounds = (dueTick - tick) / wheelSize;
+			wheel.get((int)(Math.max(dueTick, tick) & (wheelSize - 1))).add(scheduledTrigger);
+		}
+	}
+
+	/** Removes cancelled and due Triggers from the bucket
+	 *
+	 * @param bucket Bucket of the current tick
+	 * @return due Triggers
+	 */
+	private List<ScheduledTrigger> expire(List<ScheduledTrigger> bucket){
+		List<ScheduledTrigger> due = new ArrayList<>();
+		long now = this.elapsed();
+		long tickLag = Math.max(0, now - tick * tickDuration);
+		Iterator<ScheduledTrigger> iterator = bucket.iterator();
+		while(iterator.hasNext()){
+			ScheduledTrigger scheduledTrigger = iterator.next();
+			if(scheduledTrigger.cancelled){
+				iterator.remove();
+			} else if(scheduledTrigger.remainingRounds <= 0){
+				iterator.remove();
+				if(pending.remove(scheduledTrigger.key, scheduledTrigger)){
+					due.add(scheduledTrigger);
+				}
+			} else{
+				scheduledTrigger.remainingRounds--;
+			}
+		}
+		if(!due.isEmpty()){
+			lag = tickLag;
+			if(tickLag > maxLag){
+				maxLag = tickLag;
+			}
+		}
+		return due;
+	}
+
+	/** Hands the due Triggers of a tick to the executor. 
+	 * Rejected Triggers stay in the database and are recovered
+	 *
+	 * @param due Triggers due in the current tick
+	 */
+	private void dispatch(List<ScheduledTrigger> due){
+		try{
+			executor.execute(() -> this.fire(due));
+		}catch(RejectedExecutionException e){
+			rejected.addAndGet(due.size());
+			LogEntry.c("Trigger queue full, " + due.size() + " Triggers rejected");
+		}
+	}
+
+	/** Saves the unsaved changes and claims the due Triggers, checks their conditions with the tracked presences
+	 * or, if the presence of a Device is unknown, with one lookup of the Devices
+	 * and triggers the Events with fulfilled condition. Fired and expired Triggers are removed.
+	 * Triggers which could not be saved are only known to this node and are not claimed
+	 *
+	 * @param due Triggers due in the same tick
+	 */
+	private void fire(List<ScheduledTrigger> due){
+		this.flush();
+		List<PendingTrigger> entries = new ArrayList<>(due.size());
+		Set<String> claimed = new HashSet<>();
+		for(ScheduledTrigger scheduledTrigger : due){
+			if(this.isUnsaved(scheduledTrigger.entry)){
+				claimed.add(scheduledTrigger.entry.getID());
+			} else{
+				entries.add(scheduledTrigger.entry);
+			}
+		}
+		Map<ScheduledTrigger, Boolean> fulfilled = new HashMap<>();
+		Map<Integer, SystemBeacons> beacons = Collections.emptyMap();
+		try{
+			long now = System.currentTimeMillis();
+			claimed.addAll(ScheduledTriggerDBConnector.claimScheduledTriggers(entries, 
+					node + ":" + claims.incrementAndGet(), now, now + lease));
+			Set<Integer> deviceIDs = new HashSet<>();
+			for(ScheduledTrigger scheduledTrigger : due){
+				if(claimed.contains(scheduledTrigger.entry.getID())){
+					Boolean presence = scheduledTrigger.event.conditionFullfilledByPresence(
+							scheduledTrigger.entry.getDeviceID(), scheduledTrigger.entry.getDue());
+					if(presence != null){
+						fulfilled.put(scheduledTrigger, presence);
+					} else{
+						deviceIDs.add(scheduledTrigger.entry.getDeviceID());
+					}
+				}
+			}
+			if(!deviceIDs.isEmpty()){
+				beacons = GeofencingDBConnector.findDevicesBeacons(deviceIDs);
+			}
+		}catch(RuntimeException e){
+			LogEntry.c(e);
+			return;
+		}
+		decidedByPresence.addAndGet(fulfilled.size());
+		for(ScheduledTrigger scheduledTrigger : due){
+			if(!claimed.contains(scheduledTrigger.entry.getID())){
+				claimedElsewhere.incrementAndGet();
+				continue;
+			}
+			this.remove(scheduledTrigger.entry);
+			Boolean presence = fulfilled.get(scheduledTrigger);
+			SystemBeacons deviceBeacons = beacons.get(scheduledTrigger.entry.getDeviceID());
+			if(presence != null ? !presence 
+					: deviceBeacons == null || !scheduledTrigger.event.conditionStillFullfilled(deviceBeacons)){
+				expired.incrementAndGet();
+				continue;
+			}
+			Event event = scheduledTrigger.event;
+			int deviceID = scheduledTrigger.entry.getDeviceID();
+			if(!TriggerThrottle.getInstance().tryAcquire(event, deviceID)){
+				continue;
+			}
+			EventExecutor.getInstance().submit(event, () -> event.trigger(deviceID));
+			fired.incrementAndGet();
+		}
+	}
+
+	/** Identifies the Trigger of an Event for a Device
+	 */
+	private static final class TriggerKey {
+		private final int minor;
+		private final int eventID;
+		private final int deviceID;
+
+		private TriggerKey(Event event, int deviceID){
+			this.minor = event.getMinor();
+			this.eventID = event.getEventID();
+			this.deviceID = deviceID;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + deviceID;
+			result = prime * result + eventID;
+			result = prime * result + minor;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof TriggerKey))
+				return false;
+			TriggerKey other = (TriggerKey) obj;
+			return deviceID == other.deviceID && eventID == other.eventID && minor == other.minor;
+		}
+	}
+
+	/** Trigger in the wheel, deadline in milliseconds since the start of the scheduler
+	 */
+	private static final class ScheduledTrigger {
+		private final TriggerKey key;
+		private final Event event;
+		private final PendingTrigger entry;
+		private final long deadline;
+		private long remainingRounds;
+		private volatile boolean cancelled;
+
+		private ScheduledTrigger(TriggerKey key, Event event, PendingTrigger entry, long deadline){
+			this.key = key;
+			this.event = event;
+			this.entry = entry;
+			this.deadline = deadline;
+		}
+	}
+
+	/** Change of a pending Trigger which is not saved yet
+	 */
+	private static final class Change {
+		private final PendingTrigger entry;
+		private final boolean removed;
+
+		private Change(PendingTrigger entry, boolean removed){
+			this.entry = entry;
+			this.removed = removed;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package de.geofencing.event;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.SystemConfiguration;
+import de.geofencing.util.LongHashMap;
+
+/** Limits how often an Event is triggered for a Device, i.e. if a beacon at the edge of its range
+ * makes the Device enter and leave the Geofence with every scan.
+ * A cooldown suppresses firings of the Event for the Device until the cooldown is over after the last firing,
+ * a token bucket allows a burst of firings and refills with the configured rate.
+ *
+ * The state of each Device and Event is kept in striped maps with primitive keys (Device and Geofence, then eventID)
+ * and is evicted once the cooldown is over and the bucket is refilled.
+ * Suppressed firings are counted for each Event class.
+ *
+ * Configuration values, which can be set for a single Event class with the simple class name as suffix
+ * (i.e. triggerCooldown.SendMailEvent): triggerCooldown (s), triggerRate (firings per minute)
+ * and triggerBurst (firings, default triggerRate). Events are not limited if not set.
+ *
+ * @author Markus Thral
+ *
+ */
+public class TriggerThrottle {
+
+	/** Configuration key of the time in seconds an Event is not triggered again for the same Device
+	 */
+	public static final String triggerCooldown = "triggerCooldown";
+	/** Configuration key of the firings per minute of an Event for the same Device
+	 */
+	public static final String triggerRate = "triggerRate";
+	/** Configuration key of the firings of an Event for the same Device allowed at once
+	 */
+	public static final String triggerBurst = "triggerBurst";
+
+	private static final int stripeCount = 16;
+	private static final long evictionInterval = 60000;
+
+	private static volatile TriggerThrottle instance;
+
+	private final List<LongHashMap<LongHashMap<Window>>> stripes = new ArrayList<>(stripeCount);
+	private final Map<Class<?>, Limits> limits = new ConcurrentHashMap<>();
+	private final AtomicLong evicted = new AtomicLong();
+
+	private TriggerThrottle(){
+		for(int i = 0; i < stripeCount; i++){
+			stripes.add(new LongHashMap<>());
+		}
+		ScheduledExecutorService eviction = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "trigger-throttle");
+			thread.setDaemon(true);
+			return thread;
+		});
+		eviction.scheduleWithFixedDelay(this::evict, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/** Gets the shared throttle
+	 *
+	 * @return TriggerThrottle of the system
+	 */
+	public static TriggerThrottle getInstance(){
+		if(instance == null){
+			synchronized(TriggerThrottle.class){
+				if(instance == null){
+					instance = new TriggerThrottle();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Checks if the Event may be triggered for the Device and records the firing.
+	 * Suppressed firings are counted
+	 *
+	 * @param event Event to be triggered
+	 * @param deviceID DeviceID of the triggering Device
+	 * @return true if the Event may be triggered, false if suppressed
+	 */
+	public boolean tryAcquire(Event event, int deviceID){
+		Limits eventLimits = this.getLimits(event);
+		if(eventLimits.unlimited){
+			eventLimits.allowed.incrementAndGet();
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		long key = key(deviceID, event.getMinor());
+		LongHashMap<LongHashMap<Window>> stripe = stripes.get(stripe(key));
+		synchronized(stripe){
+			LongHashMap<Window> windows = stripe.get(key);
+			if(windows == null){
+				windows = new LongHashMap<>(4);
+				stripe.put(key, windows);
+			}
+			Window window = windows.get(event.getEventID());
+			if(window == null){
+				window = new Window(eventLimits);
+				windows.put(event.getEventID(), window);
+			}
+			if(eventLimits.cooldown > 0 && window.lastFired > 0 && now - window.lastFired < eventLimits.cooldown){
+				eventLimits.suppressedCooldown.incrementAndGet();
+				return false;
+			}
+			if(eventLimits.rate > 0){
+				window.refill(now);
+				if(window.tokens < 1){
+					eventLimits.suppressedRate.incrementAndGet();
+					return false;
+				}
+				window.tokens--;
+			}
+			window.lastFired = now;
+		}
+		eventLimits.allowed.incrementAndGet();
+		return true;
+	}
+
+	/** Gets statistics of the throttle: tracked Devices and Events, evicted entries,
+	 * allowed and suppressed firings (by cooldown and by rate) of each Event class
+	 *
+	 * @return Map with the statistics
+	 */
+	public Map<String, Object> getStatistics(){
+		int entries = 0;
+		for(LongHashMap<LongHashMap<Window>> stripe : stripes){
+			synchronized(stripe){
+				for(LongHashMap<Window> windows : stripe.values()){
+					entries += windows.size();
+				}
+			}
+		}
+		Map<String, Object> classes = new TreeMap<>();
+		for(Limits eventLimits : limits.values()){
+			classes.put(eventLimits.name, eventLimits.getStatistics());
+		}
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("entries", entries);
+		statistics.put("evicted", evicted.get());
+		statistics.put("classes", classes);
+		return statistics;
+	}
+
+	/** Removes entries whose cooldown is over and whose bucket is refilled
+	 *
+	 */
+	private void evict(){
+		try{
+			long now = System.currentTimeMillis();
+			for(LongHashMap<LongHashMap<Window>> stripe : stripes){
+				synchronized(stripe){
+					for(long key : stripe.keys()){
+						LongHashMap<Window> windows = stripe.get(key);
+						for(long eventID : windows.keys()){
+							if(now - windows.get(eventID).lastFired >= windows.get(eventID).retention){
+								windows.remove(eventID);
+								evicted.incrementAndGet();
+							}
+						}
+						if(windows.isEmpty()){
+							stripe.remove(key);
+						}
+					}
+				}
+			}
+		}catch(RuntimeException e){
+			LogEntry.c(e);
+		}
+	}
+
+	/** Gets limits of the Event class, read from the configuration on the first firing of the class
+	 *
+	 * @param event Event to be triggered
+	 * @return Limits of the Event class
+	 */
+	private Limits getLimits(Event event){
+		return limits.computeIfAbsent(event.getClass(), type ->
+				new Limits(type.getSimpleName().isEmpty() ? type.getName() : type.getSimpleName()));
+	}
+
+	/** Key of the Geofence of the Events for the Device
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 * @return key of the map
+	 */
+	private static long key(int deviceID, int minor){
+		return ((long)deviceID << 32) | (minor & 0xffffffffL);
+	}
+
+	private static int stripe(long key){
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int)(hash >>> 60) & (stripeCount - 1);
+	}
+
+	/** Limits and counters of an Event class
+	 */
+	private static final class Limits {
+		private final String name;
+		private final long cooldown;
+		private final double rate;
+		private final int burst;
+		private final long retention;
+		private final boolean unlimited;
+
+		private final AtomicLong allowed = new AtomicLong();
+		private final AtomicLong suppressedCooldown = new AtomicLong();
+		private final AtomicLong suppressedRate = new AtomicLong();
+
+		private Limits(String name){
+			this.name = name;
+			this.cooldown = TimeUnit.SECONDS.toMillis(Math.max(0, SystemConfiguration.getIntValue(triggerCooldown, name, 0)));
+			int perMinute = Math.max(0, SystemConfiguration.getIntValue(triggerRate, name, 0));
+			this.rate = perMinute / 60000.0;
+			this.burst = Math.max(1, SystemConfiguration.getIntValue(triggerBurst, name, perMinute));
+			this.retention = Math.max(cooldown, perMinute > 0 ? (long)Math.ceil(burst / rate) : 0);
+			this.unlimited = cooldown == 0 && perMinute == 0;
+		}
+
+		private Map<String, Object> getStatistics(){
+			Map<String, Object> statistics = new LinkedHashMap<>();
+			statistics.put("allowed", allowed.get());
+			statistics.put("suppressedCooldown", suppressedCooldown.get());
+			statistics.put("suppressedRate", suppressedRate.get());
+			return statistics;
+		}
+	}
+
+	/** Last firing and token bucket of an Event for a Device, guarded by the lock of its stripe
+	 */
+	private static final class Window {
+		private final double rate;
+		private final int burst;
+		private final long retention;
+		private double tokens;
+		private long lastRefill;
+		private long lastFired;
+
+		private Window(Limits limits){
+			this.rate = limits.rate;
+			this.burst = limits.burst;
+			this.retention = limits.retention;
+			this.tokens = burst;
+			this.lastRefill = System.currentTimeMillis();
+		}
+
+		private void refill(long now){
+			if(now > lastRefill){
+				tokens = Math.min(burst, tokens + (now - lastRefill) * rate);
+				lastRefill = now;
+			}
+		}
+	}
+}
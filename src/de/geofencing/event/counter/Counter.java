@@ -31,6 +31,17 @@ public class Counter implements Serializable{
 		this.counterID = counterID;
 		this.value = 0;
 	}
+	
+	/** Creates counter with given counterID and value.
+	 *  Used to restore the Counter from the database
+	 * 
+	 * @param counterID counterID of the Counter
+	 * @param value Value of the Counter
+	 */
+	public Counter(int counterID, int value){
+		this.counterID = counterID;
+		this.value = value;
+	}
 
 	public int getCounterID(){
 		return this.counterID;
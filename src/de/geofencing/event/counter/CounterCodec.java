@@ -0,0 +1,53 @@
+package de.geofencing.event.counter;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import de.geofencing.database.ObjectCodec;
+
+/** Codec for Counter: counterID and value.
+ * Values saved as String by former versions are read as well
+ * 
+ * @author Markus Thral
+ *
+ */
+public class CounterCodec extends ObjectCodec<Counter> {
+
+	@Override
+	public Class<Counter> getEncoderClass() {
+		return Counter.class;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, Counter counter, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		writer.writeInt32("counterID", counter.getCounterID());
+		writer.writeInt32("value", counter.getValue());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public Counter decode(BsonReader reader, DecoderContext decoderContext) {
+		int counterID = -1;
+		int value = 0;
+
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			switch(reader.readName()){
+			case "counterID":
+				counterID = readInt(reader);
+				break;
+			case "value":
+				value = Math.max(readInt(reader), 0);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new Counter(counterID, value);
+	}
+}
@@ -8,11 +8,14 @@ import java.util.List;
 import org.bson.Document;
 
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Indexes;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 
 import de.geofencing.database.DocumentConverter;
+import de.geofencing.database.IdAllocator;
 import de.geofencing.database.MongoConnection;
+import de.geofencing.database.MongoIndexManager;
 import de.geofencing.system.exceptions.NotFoundException;
 
 /** Provides methods to execute CRUD-operations for Counters on the MongoDB
@@ -24,6 +27,10 @@ public class CounterDBConnector {
 	
 	private static final String counterCollection = "counter";
 	
+	static{
+		DocumentConverter.registerCodec(new CounterCodec());
+	}
+	
 	/** Sets next counterID and inserts new Counter in database
 	 * 
 	 * @return CounterID of the Counter
@@ -32,7 +39,7 @@ public class CounterDBConnector {
 
 		Counter counter = new Counter(getNextCounterID());
 		MongoConnection connection = new MongoConnection();
-		getCounterCollection(connection).insertOne(DocumentConverter.toDocument(counter));
+		getCounterCollection(connection).withDocumentClass(Counter.class).insertOne(counter);
 		connection.disconnect();
 		return counter.getCounterID();
 	}
@@ -45,11 +52,11 @@ public class CounterDBConnector {
 	 */
 	public static Counter findCounter(int counterID) throws NotFoundException{
 		MongoConnection connection = new MongoConnection();
-		Document document = getCounterCollection(connection)
+		Counter counter = getCounterCollection(connection).withDocumentClass(Counter.class)
 				.find(eq("counterID", counterID)).first();
 		connection.disconnect();
-		if(document != null){
-			return (Counter)DocumentConverter.toObject(Counter.class, document);
+		if(counter != null){
+			return counter;
 		}
 		throw new NotFoundException("Counter " + counterID);
 	}
@@ -61,9 +68,8 @@ public class CounterDBConnector {
 	public static List<Counter> findCounterList(){
 		MongoConnection connection = new MongoConnection();
 		List<Counter> counterList = new ArrayList<>();
-		for(Document document : getCounterCollection(connection).find()){
-			counterList.add((Counter)DocumentConverter.toObject(Counter.class, document));
-		}
+		getCounterCollection(connection).withDocumentClass(Counter.class).find().into(counterList);
+		connection.disconnect();
 		return counterList;
 	}
 	
@@ -79,7 +85,7 @@ public class CounterDBConnector {
 		MongoCollection<Document> collection = getCounterCollection(connection);
 		UpdateResult result = collection.updateOne(
 				eq("counterID", counterID), 
-				new Document("$set", new Document("value", value+"")));
+				new Document("$set", new Document("value", value)));
 		connection.disconnect();
 		if(result.getModifiedCount() == 1){
 			return value;
@@ -99,7 +105,7 @@ public class CounterDBConnector {
 		MongoCollection<Document> collection = getCounterCollection(connection);
 		UpdateResult result = collection.updateOne(
 				eq("counterID", counterID), 
-				new Document("$set", new Document("value", value+"")));
+				new Document("$set", new Document("value", value)));
 		connection.disconnect();
 		if(result.getModifiedCount() == 1){
 			return value;
@@ -118,7 +124,7 @@ public class CounterDBConnector {
 		MongoCollection<Document> collection = getCounterCollection(connection);
 		UpdateResult result = collection.updateOne(
 				eq("counterID", counterID), 
-				new Document("$set", new Document("value", "0")));
+				new Document("$set", new Document("value", 0)));
 		connection.disconnect();
 		if(result.getModifiedCount() == 1){
 			return true;
@@ -143,12 +149,14 @@ public class CounterDBConnector {
 		throw new NotFoundException("Counter " + counterID);	
 	}
 	
-	/** Gets collection of all Counters. Collection is created if not existing
+	/** Gets collection of all Counters. Collection and index on counterID are created if not existing
 	 * 
 	 * @param connection Established connection to the database
 	 * @return MongoCollection object with all Counters
 	 */
 	protected static MongoCollection<Document> getCounterCollection(MongoConnection connection){
+		connection.ensureIndexes(counterCollection, 
+				MongoIndexManager.uniqueIndex(Indexes.ascending("counterID")));
 		MongoCollection<Document> collection = connection.getCollection(counterCollection);
 		if(collection == null){
 			connection.getDatabase().createCollection(counterCollection);
@@ -157,17 +165,11 @@ public class CounterDBConnector {
 		return collection;
 	}
 	
-	/** Generates the next available counterID
+	/** Generates the next available counterID from the sequence of the counterIDs
 	 * 
 	 * @return generated counterID
 	 */
 	protected static int getNextCounterID(){
-		int counterID = 1;
-		for(Counter counter : findCounterList()){
-			if(counter.getCounterID() >= counterID){
-				counterID = counter.getCounterID()+1;
-			}
-		}
-		return counterID;
+		return IdAllocator.nextIDFromBlock("counterID", counterCollection, new Document(), "counterID");
 	}
 }
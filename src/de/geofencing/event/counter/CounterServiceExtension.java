@@ -31,12 +31,12 @@ public class CounterServiceExtension extends GeofencingService{
 	/** Gets the value of the Counter with the given counterID.
 	 * 
 	 * @param counterID CounterID of the Counter
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return Value of the Counter as Integer wrapped in Response object
 	 */
 	public Response getCounterValue(int counterID, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK).entity(CounterDBConnector.findCounter(counterID).getValue()).build();
 
 		}catch(UnauthorizedExcpetion e){
@@ -54,12 +54,12 @@ public class CounterServiceExtension extends GeofencingService{
 	 * I.e. with GeofenceCounterEvent.
 	 * 
 	 * @param minor Minor of the Geofence
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return Value of the Counter as Integer wrapped in Response object
 	 */
 	public Response getGeofenceCounterValue(int minor, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			for(Event event : GeofencingDBConnector.findGeofenceEvents(minor)){
 				if (event instanceof GeofenceCounterEvent){
 					Counter counter = CounterDBConnector.findCounter(((GeofenceCounterEvent)event).getCounterID());
@@ -79,12 +79,12 @@ public class CounterServiceExtension extends GeofencingService{
 	
 	/** Gets a list of all Counter
 	 * 
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return All Counter as List wrapped in Response object
 	 */
 	public Response getCounterList(String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK).entity(CounterDBConnector.findCounterList()).build();
 
 		}catch(UnauthorizedExcpetion e){
@@ -103,7 +103,7 @@ public class CounterServiceExtension extends GeofencingService{
 	 */
 	public Response removeCounter(int counterID, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK).entity(CounterDBConnector.removeCounter(counterID)).build();
 
 		}catch(UnauthorizedExcpetion e){
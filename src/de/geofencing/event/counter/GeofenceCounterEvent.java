@@ -1,7 +1,7 @@
 package de.geofencing.event.counter;
 
+import de.geofencing.event.EventExecutor;
 import de.geofencing.event.Trigger;
-import de.geofencing.log.LogEntry;
 import de.geofencing.system.exceptions.NotFoundException;
 
 /** Event which modifies a counter which shows the amount of devices in the Geofence.
@@ -12,8 +12,6 @@ import de.geofencing.system.exceptions.NotFoundException;
 public class GeofenceCounterEvent extends ModifyCounterEvent {
 
 	private static final long serialVersionUID = 1L;
-	
-	private Trigger.Direction movement;
 
 	/** Constructor for serializing.
 	 * 
@@ -41,25 +39,28 @@ public class GeofenceCounterEvent extends ModifyCounterEvent {
 	};
 	
 	@Override
-	public void checkTrigger(Trigger.Direction direction, int deviceID) {
-		try {
-			movement = direction;
-			this.trigger(deviceID);
-		} catch (NotFoundException e) {
-			LogEntry.c(e);
-		}
+	public boolean reactsToAnyDirection() {
+		return true;
 	}
 	
 	@Override
-	protected void trigger(int deviceID) throws NotFoundException{
-		if(movement.equals(Trigger.Direction.Enter)){
-			CounterDBConnector.incrementCounter(counterID);
+	public void checkTrigger(Trigger.Direction direction, int deviceID) {
+		if(direction.equals(Trigger.Direction.Enter)){
+			EventExecutor.getInstance().dispatch(this, () -> CounterDBConnector.incrementCounter(counterID));
 			return;
 		}
-		if(movement.equals(Trigger.Direction.Leave)){
-			CounterDBConnector.decrementCounter(counterID);
+		if(direction.equals(Trigger.Direction.Leave)){
+			EventExecutor.getInstance().dispatch(this, () -> CounterDBConnector.decrementCounter(counterID));
 			return;
 		}
 	}
 	
+	/** Not used: The counter is modified by checkTrigger depending on the direction.
+	 * The direction is not stored in the Event, because the Event is shared by concurrent updates
+	 * 
+	 */
+	@Override
+	protected void trigger(int deviceID) throws NotFoundException{
+	}
+	
 }
@@ -34,6 +34,17 @@ public class AddressOnHold implements Serializable {
 		this.verificationRequestTime = System.currentTimeMillis();
 	}
 	
+	/** Creates AddressOnHold with given time of the verification request.
+	 * Used to restore the AddressOnHold from the database
+	 * 
+	 * @param mailAddress Mail address where the request is sent to
+	 * @param verificationRequestTime Time when the request was sent
+	 */
+	public AddressOnHold(InternetAddress mailAddress, long verificationRequestTime){
+		this.mailAddress = mailAddress;
+		this.verificationRequestTime = verificationRequestTime;
+	}
+	
 	public InternetAddress getMailAddress(){
 		return mailAddress;
 	}
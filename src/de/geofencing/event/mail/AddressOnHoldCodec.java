@@ -0,0 +1,100 @@
+package de.geofencing.event.mail;
+
+import java.io.UnsupportedEncodingException;
+
+import javax.mail.internet.InternetAddress;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import de.geofencing.database.ObjectCodec;
+
+/** Codec for AddressOnHold: mail address (address and personal), 
+ * time of the verification request and the same time as date for the TTL index
+ * 
+ * @author Markus Thral
+ *
+ */
+public class AddressOnHoldCodec extends ObjectCodec<AddressOnHold> {
+
+	@Override
+	public Class<AddressOnHold> getEncoderClass() {
+		return AddressOnHold.class;
+	}
+
+	@Override
+	public void encode(BsonWriter writer, AddressOnHold onHold, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		InternetAddress address = onHold.getMailAddress();
+		if(address != null){
+			writer.writeStartDocument("mailAddress");
+			writeString(writer, "address", address.getAddress());
+			writeString(writer, "personal", address.getPersonal());
+			writer.writeEndDocument();
+		} else{
+			writer.writeNull("mailAddress");
+		}
+		writer.writeInt64("verificationRequestTime", onHold.getVerificationRequestTime());
+		writer.writeDateTime(MailDBConnector.verificationRequestDate, onHold.getVerificationRequestTime());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public AddressOnHold decode(BsonReader reader, DecoderContext decoderContext) {
+		InternetAddress address = null;
+		long verificationRequestTime = -1;
+
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			switch(reader.readName()){
+			case "mailAddress":
+				address = decodeAddress(reader);
+				break;
+			case "verificationRequestTime":
+				verificationRequestTime = readLong(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new AddressOnHold(address, verificationRequestTime);
+	}
+
+	/** Reads mail address document with address and personal
+	 * 
+	 * @param reader BsonReader positioned at the mail address
+	 * @return InternetAddress or null
+	 */
+	private InternetAddress decodeAddress(BsonReader reader){
+		if(reader.getCurrentBsonType() == BsonType.NULL){
+			reader.readNull();
+			return null;
+		}
+		String address = null;
+		String personal = null;
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+			switch(reader.readName()){
+			case "address":
+				address = readString(reader);
+				break;
+			case "personal":
+				personal = readString(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		try {
+			return new InternetAddress(address, personal);
+		} catch (UnsupportedEncodingException e) {
+			throw new CodecConfigurationException("Could not read mail address " + address + ": " + e.getMessage());
+		}
+	}
+}
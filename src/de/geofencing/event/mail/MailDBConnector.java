@@ -1,17 +1,28 @@
 package de.geofencing.event.mail;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 
 import org.bson.Document;
 
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.result.DeleteResult;
 
 import de.geofencing.database.DocumentConverter;
 import de.geofencing.database.MongoConnection;
+import de.geofencing.database.MongoIndexManager;
+import de.geofencing.log.LogEntry;
 import de.geofencing.system.SystemConfiguration;
 import de.geofencing.system.exceptions.ConfigurationException;
 import de.geofencing.system.exceptions.NotFoundException;
@@ -25,6 +36,13 @@ public class MailDBConnector {
 
 	protected static final String mailConfirmedCollection = "confirmedMail";
 	protected static final String waitingConfirationCollection = "mailOnHold";
+	/** Date of the verification request, used by the TTL index to remove expired addresses on hold
+	 */
+	protected static final String verificationRequestDate = "verificationRequestDate";
+	
+	static{
+		DocumentConverter.registerCodec(new AddressOnHoldCodec());
+	}
 
 	// Address Management
 
@@ -41,7 +59,7 @@ public class MailDBConnector {
 		if(!isMailAddressConfirmed(recipient)){
 			try{
 				AddressOnHold onHold = findMailOnHold(recipient);
-				long confirmationTimeout = Integer.parseInt(SystemConfiguration.getValue("confirmationTimeout"))*1000;
+				long confirmationTimeout = SystemConfiguration.getDurationValue("confirmationTimeout", TimeUnit.SECONDS);
 				long currentTime = System.currentTimeMillis();
 				long difference = currentTime - onHold.getVerificationRequestTime();
 				if (difference < confirmationTimeout) {
@@ -68,7 +86,7 @@ public class MailDBConnector {
 			AddressOnHold onHold = findMailOnHold(recipient);
 			long currentTime = System.currentTimeMillis();
 			long difference = currentTime - onHold.getVerificationRequestTime();
-			long confirmationTimeout = Integer.parseInt(SystemConfiguration.getValue("confirmationTimeout"))*1000;
+			long confirmationTimeout = SystemConfiguration.getDurationValue("confirmationTimeout", TimeUnit.SECONDS);
 			if (difference < confirmationTimeout) {
 				insertConfirmedMail(new InternetAddress(recipient));
 				return true;
@@ -92,15 +110,15 @@ public class MailDBConnector {
 
 	// Create
 
-	/** Inserts mail address in on hold addresses with current time stamp
-	 * Also removes expired on hold addresses.
+	/** Inserts mail address in on hold addresses with current time stamp.
+	 * The entry is removed by the database after the delete timeout.
 	 * 
 	 * @param address Mail address to be added
 	 */
 	protected static void insertOnHoldMail(InternetAddress address) {
 		MongoConnection connection = new MongoConnection();
-		AddressOnHold onHold = new AddressOnHold(address);
-		getWaitingCollection(connection).insertOne(DocumentConverter.toDocument(onHold));
+		getWaitingCollection(connection).withDocumentClass(AddressOnHold.class)
+				.insertOne(new AddressOnHold(address));
 		connection.disconnect();
 	}
 
@@ -110,7 +128,8 @@ public class MailDBConnector {
 	 */
 	protected static void insertConfirmedMail(InternetAddress address) {
 		MongoConnection connection = new MongoConnection();
-		getConfirmedCollection(connection).insertOne(DocumentConverter.toDocument(address));
+		getConfirmedCollection(connection).insertOne(new Document("address", address.getAddress())
+				.append("personal", address.getPersonal()));
 		connection.disconnect();
 	}
 
@@ -124,12 +143,12 @@ public class MailDBConnector {
 	 * @throws ConfigurationException if mail configuration missing or not complete
 	 */
 	public static AddressOnHold findMailOnHold(String recipient) throws NotFoundException, ConfigurationException {
-		removeExpiredFromOnHold();
 		MongoConnection connection = new MongoConnection();
-		Document document = getWaitingCollection(connection).find(eq("mailAddress.address", recipient)).first();
+		AddressOnHold onHold = getWaitingCollection(connection).withDocumentClass(AddressOnHold.class)
+				.find(eq("mailAddress.address", recipient)).first();
 		connection.disconnect();
-		if (document != null) {
-			return (AddressOnHold) DocumentConverter.toObject(AddressOnHold.class, document);
+		if (onHold != null) {
+			return onHold;
 		}
 		throw new NotFoundException("Address On Hold " + recipient);
 	}
@@ -186,12 +205,14 @@ public class MailDBConnector {
 
 	// Collections
 
-	/** Gets collection of all confirmed addresses. Collection is created if not existing
+	/** Gets collection of all confirmed addresses. Collection and index are created if not existing
 	 * 
 	 * @param connection Established connection to the database
 	 * @return MongoCollection object with all confirmed addresses
 	 */
 	protected static MongoCollection<Document> getConfirmedCollection(MongoConnection connection) {
+		connection.ensureIndexes(mailConfirmedCollection, 
+				MongoIndexManager.uniqueIndex(Indexes.ascending("address")));
 		MongoCollection<Document> collection = connection.getCollection(mailConfirmedCollection);
 		if (collection == null) {
 			connection.getDatabase().createCollection(mailConfirmedCollection);
@@ -200,12 +221,18 @@ public class MailDBConnector {
 		return collection;
 	}
 
-	/** Gets collection of all addresses on hold. Collection is created if not existing
+	/** Gets collection of all addresses on hold. Collection and indexes are created if not existing.
+	 * The TTL index removes addresses on hold after the delete timeout.
+	 * Before the indexes are created, addresses on hold without the date of the verification request get it.
 	 * 
 	 * @param connection Established connection to the database
 	 * @return MongoCollection object with all addresses on hold
 	 */
 	protected static MongoCollection<Document> getWaitingCollection(MongoConnection connection) {
+		connection.ensureIndexes(waitingConfirationCollection, () -> {
+			backfillVerificationRequestDates(connection);
+			return waitingIndexes();
+		});
 		MongoCollection<Document> collection = connection.getCollection(waitingConfirationCollection);
 		if (collection == null) {
 			connection.getDatabase().createCollection(waitingConfirationCollection);
@@ -216,26 +243,48 @@ public class MailDBConnector {
 
 	// Utilities
 
-	/** Removes all addresses, where the delete time is expired
+	/** Sets the date of the verification request on addresses on hold, which only have the time
+	 * of the verification request, so they are removed by the TTL index too
 	 * 
-	 * @throws ConfigurationException if mail configuration missing or not complete
+	 * @param connection Established connection to the database
 	 */
-	protected static void removeExpiredFromOnHold() throws ConfigurationException {
-		long currentTime = System.currentTimeMillis();
-		long difference;
-		long deleteTimeout = Integer.parseInt(SystemConfiguration.getValue("deleteTimeout"))*1000;
-
-		MongoConnection connection = new MongoConnection();
-		for (Document document : getWaitingCollection(connection).find()) {
-			AddressOnHold onHold = (AddressOnHold) DocumentConverter.toObject(AddressOnHold.class, document);
-			difference = currentTime - onHold.getVerificationRequestTime();
-			if (difference > deleteTimeout) {
-				try {
-					removeOnHoldMail(onHold.getMailAddress().getAddress());
-				} catch (NotFoundException e) {
+	protected static void backfillVerificationRequestDates(MongoConnection connection) {
+		MongoCollection<Document> collection = connection.getCollection(waitingConfirationCollection);
+		if (collection == null) {
+			return;
+		}
+		int count = 0;
+		try {
+			for (Document document : collection
+					.find(and(exists(verificationRequestDate, false), exists("verificationRequestTime")))
+					.projection(Projections.include("verificationRequestTime"))) {
+				Object time = document.get("verificationRequestTime");
+				if (time instanceof Number) {
+					collection.updateOne(eq("_id", document.get("_id")), 
+							new Document("$set", new Document(verificationRequestDate, new Date(((Number) time).longValue()))));
+					count++;
 				}
 			}
+		} catch (MongoException e) {
+			LogEntry.c(e);
+		}
+		if (count > 0) {
+			LogEntry.c(count + " addresses on hold got the date of the verification request");
+		}
+	}
+
+	/** Gets indexes of the addresses on hold: Mail address and TTL index with the delete timeout
+	 * 
+	 * @return Indexes of the collection of addresses on hold
+	 */
+	protected static IndexModel[] waitingIndexes() {
+		IndexModel addressIndex = new IndexModel(Indexes.ascending("mailAddress.address"));
+		try {
+			long deleteTimeout = SystemConfiguration.getIntValue("deleteTimeout");
+			return new IndexModel[]{addressIndex, MongoIndexManager.ttlIndex(verificationRequestDate, deleteTimeout)};
+		} catch (ConfigurationException e) {
+			LogEntry.c("Missing TTL index on " + waitingConfirationCollection + ": deleteTimeout not set");
+			return new IndexModel[]{addressIndex};
 		}
-		connection.disconnect();
 	}
 }
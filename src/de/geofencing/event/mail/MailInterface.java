@@ -2,6 +2,7 @@ package de.geofencing.event.mail;
 
 import java.io.UnsupportedEncodingException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.mail.Authenticator;
 import javax.mail.Message;
@@ -38,13 +39,17 @@ public class MailInterface {
 	 * @throws ConfigurationException if configuration not found or necessary values not set
 	 */
 	protected static Properties setupMailserverConfig() throws ConfigurationException {
-		int port = Integer.parseInt(SystemConfiguration.getValue("mailPort"));
-		EncryptMethod method = EncryptMethod.valueOf(SystemConfiguration.getValue("mailEncryptMethod"));
+		int port = SystemConfiguration.getIntValue("mailPort");
+		EncryptMethod method = SystemConfiguration.getEnumValue("mailEncryptMethod", EncryptMethod.class);
 
 		Properties mailServerConfig = new Properties();
 		mailServerConfig.put("mail.smtp.auth", "true");
 		mailServerConfig.put("mail.smtp.host", SystemConfiguration.getValue("mailHost"));
 		mailServerConfig.put("mail.smtp.port", port);
+		String timeout = String.valueOf(TimeUnit.SECONDS.toMillis(SystemConfiguration.getIntValue("mailTimeout", 10)));
+		mailServerConfig.put("mail.smtp.connectiontimeout", timeout);
+		mailServerConfig.put("mail.smtp.timeout", timeout);
+		mailServerConfig.put("mail.smtp.writetimeout", timeout);
 
 		if (method == EncryptMethod.TLS) {
 			mailServerConfig.put("mail.smtp.starttls.enable", "true");
@@ -169,7 +174,8 @@ public class MailInterface {
 	 */
 	public static boolean sendDefaultVerificationMail(String recipient) 
 			throws ConfigurationException, MailException, AddressException {
-		int confirmationTimeout = Integer.parseInt(SystemConfiguration.getValue("confirmationTimeout"))/60;
+		long confirmationTimeout = TimeUnit.MILLISECONDS.toMinutes(
+				SystemConfiguration.getDurationValue("confirmationTimeout", TimeUnit.SECONDS));
 		String subject = "E-Mail Verification Request";
 		String verificationText = "Please click the following link to verifiy your mail address (" + recipient
 				+ "): \n\n\n" + getVerificationLink(recipient) + "\n\n\n"
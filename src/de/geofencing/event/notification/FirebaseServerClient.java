@@ -6,6 +6,7 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -34,6 +35,9 @@ public class FirebaseServerClient {
 	/** Firebase messaging URL
 	 */
 	public static final String propFirebaseURL = "firebaseUrl";
+	/** Configuration value for connect and read timeout in seconds, 10 if not set
+	 */
+	public static final String propFirebaseTimeout = "firebaseTimeout";
 
 	/** Generates all fields necessary for the Firebase configuration
 	 * 
@@ -64,6 +68,9 @@ public class FirebaseServerClient {
 		conn.setRequestProperty("Accept", "application/json, application/x-www-form-urlencoded; charset=UTF-8");
 		conn.setRequestMethod("POST");
 		conn.setDoOutput(true);
+		int timeout = (int)TimeUnit.SECONDS.toMillis(SystemConfiguration.getIntValue(propFirebaseTimeout, 10));
+		conn.setConnectTimeout(timeout);
+		conn.setReadTimeout(timeout);
 		return conn;
 	}
 
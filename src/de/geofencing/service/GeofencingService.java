@@ -1,13 +1,19 @@
 package de.geofencing.service;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.ws.rs.core.Response;
 
 import de.geofencing.event.Event;
 import de.geofencing.log.LogEntry;
+import de.geofencing.system.AccessTokens;
 import de.geofencing.system.GeofencingSystem;
 import de.geofencing.system.beacon.SystemBeacon;
 import de.geofencing.system.beacon.SystemBeacons;
+import de.geofencing.system.device.DeviceObservations;
 import de.geofencing.system.exceptions.AlreadyExistingException;
+import de.geofencing.system.exceptions.ConfigurationException;
 import de.geofencing.system.exceptions.NotFoundException;
 import de.geofencing.system.exceptions.UnauthorizedExcpetion;
 
@@ -28,6 +34,10 @@ public class GeofencingService {
 	 * sent by the client for authorization
 	 */
 	public static final String AUTHORIZATIONHEADER = "Authorization";
+	/** Prefix of a token in the authentication header, 
+	 * headers without prefix contain administrator password or verification address
+	 */
+	public static final String BEARER = "Bearer ";
 	
 	protected GeofencingSystem system;
 	
@@ -49,12 +59,12 @@ public class GeofencingService {
 
 	/** Gets all Devices registered on the system
 	 * 
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return Deivces of the system as Devices object wrapped in Response object
 	 */
 	public Response getDevices(String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK).entity(system.getDevices()).build();
 			
 		}catch(UnauthorizedExcpetion e){
@@ -76,7 +86,7 @@ public class GeofencingService {
 			try{
 				this.authenticateDevice(deviceID, authHeader);
 			}catch(UnauthorizedExcpetion e){
-				system.checkPassword(authHeader);
+				this.authenticateAdmin(authHeader);
 			}
 			system.getDevice(deviceID);
 			return Response.status(Response.Status.OK).entity(system.getDevice(deviceID)).build();
@@ -93,12 +103,12 @@ public class GeofencingService {
 	
 	/** Gets Geofences of the system as GeofenceList object
 	 * 
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return Geofences as GeofenceList object, wrapped in Response object
 	 */
 	public Response getGeofenceList(String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK).entity(system.getGeofenceList()).build();
 
 		}catch(UnauthorizedExcpetion e){
@@ -109,15 +119,179 @@ public class GeofencingService {
 		}
 	}
 
+	/** Gets dwell statistics of the Geofence
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Dwell statistics as Map, wrapped in Response object
+	 */
+	public Response getDwellStatistics(int minor, String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(system.getDwellStatistics(minor)).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(NotFoundException e){
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+
+	/** Gets the Devices inside the Geofence
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Number of Devices and deviceIDs as Map, wrapped in Response object
+	 */
+	public Response getOccupancy(int minor, String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(system.getOccupancy(minor)).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(NotFoundException e){
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+
+	/** Gets the Devices inside all Geofences of in and outside all Geofences of notIn.
+	 * Without Geofences of in the number of Devices inside each Geofence is returned
+	 * 
+	 * @param in Comma separated minors of the Geofences the Devices have to be inside
+	 * @param notIn Comma separated minors of the Geofences the Devices must not be inside
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Number of Devices and deviceIDs or number of Devices by minor as Map, wrapped in Response object
+	 */
+	public Response getOccupancy(String in, String notIn, String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			List<Integer> inside = minors(in);
+			if(inside.isEmpty()){
+				return Response.status(Response.Status.OK).entity(system.getOccupancyCounts()).build();
+			}
+			return Response.status(Response.Status.OK).entity(system.getOccupancy(inside, minors(notIn))).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(NumberFormatException e){
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+
+	/** Gets the Geofences the Device is inside
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Minors of the Geofences, wrapped in Response object
+	 */
+	public Response getDeviceGeofences(int deviceID, String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(system.getDeviceGeofences(deviceID)).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+
+	/** Rebuilds the occupancy of the Geofences from the database, 
+	 * needed if Devices are updated by another node
+	 * 
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Number of Devices inside at least one Geofence, wrapped in Response object
+	 */
+	public Response rebuildOccupancy(String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(system.rebuildOccupancy()).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(IllegalStateException e){
+			return Response.status(Response.Status.CONFLICT).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+
+	/** Parses comma separated minors
+	 * 
+	 * @param minors Comma separated minors, may be null
+	 * @return List of the minors
+	 * @throws NumberFormatException if a minor is not a number
+	 */
+	private static List<Integer> minors(String minors){
+		List<Integer> list = new ArrayList<>();
+		if(minors != null){
+			for(String minor : minors.split(",")){
+				if(!minor.trim().isEmpty()){
+					list.add(Integer.parseInt(minor.trim()));
+				}
+			}
+		}
+		return list;
+	}
+
+	/** Gets statistics of the system, i.e. size and hit rate of the beacon registry
+	 * 
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Statistics as Map, wrapped in Response object
+	 */
+	public Response getStatistics(String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(system.getStatistics()).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+
+	/** Reloads Geofences, beacons and Events from the database, 
+	 * i.e. after changes on another node
+	 * 
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Version of the reloaded topology as Long, wrapped in Response object
+	 */
+	public Response reloadTopology(String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(system.reloadTopology()).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+
 	/** Gets Events from the Geofence as EventList object
 	 * 
 	 * @param minor Minor of the Geofence
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return Events of the Geofence as EventList object, wrapped in Response object
 	 */
 	public Response getEventList(int minor, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK).entity(system.getEventList(minor)).build();
 
 		}catch(UnauthorizedExcpetion e){
@@ -134,12 +308,12 @@ public class GeofencingService {
 	 * 
 	 * @param minor Minor of the Geofence
 	 * @param eventID EventID of the Event
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return Event object, wrapped in Response object
 	 */
 	public Response getEvent(int minor, int eventID, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK).entity(
 					system.getGeofence(minor).getEvent(eventID)).build();
 		}catch(UnauthorizedExcpetion e){
@@ -155,12 +329,12 @@ public class GeofencingService {
 	/** Gets beacons of the Geofence
 	 * 
 	 * @param minor Minor of the Geofence
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return beacons of the Geofence as SystemBeacons object, wrapped in Response object
 	 */
 	public Response getBeacons(int minor, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.getGeofence(minor).getBeacons()).build();
 			
@@ -178,12 +352,12 @@ public class GeofencingService {
 	 * 
 	 * @param minor Minor of the Geofence
 	 * @param major Major of the beacon
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return beacon as SystemBeacon object, wrapped in Response object
 	 */
 	public Response getBeacon(int minor, int major, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.getGeofence(minor).getBeacon(major)).build();
 			
@@ -200,16 +374,12 @@ public class GeofencingService {
 	/** Gets description of the given beacons an returns them
 	 * 
 	 * @param beacons SystemBeacons object with beacons to get description for
-	 * @param authHeader must contain administrator password or an authentication address of an Device
+	 * @param authHeader must contain administrator password or a token or an authentication address of any Device
 	 * @return beacons with description as SystemBeacons object, wrapped in Response object
 	 */
 	public Response getBeaconData(SystemBeacons beacons, String authHeader){
 		try{
-			try{
-				this.authenticateDevice(system.getDevice(authHeader).getDeviceID(), authHeader);
-			}catch(UnauthorizedExcpetion | NotFoundException e){
-				system.checkPassword(authHeader);
-			}
+			this.authenticateAnyDevice(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.getBeaconData(beacons)).build();
 
@@ -224,12 +394,12 @@ public class GeofencingService {
 	/** Generates minor and adds Geofence to the system
 	 * 
 	 * @param description Description of the Geofence
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return generated minor of the Geofence, wrapped in Response object
 	 */
 	public Response addGeofence(String description, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.addGeofence(description)).build();
 
@@ -261,12 +431,12 @@ public class GeofencingService {
 	/** Generates next beacon of the Geofence. Beacon is not added
 	 * 
 	 * @param minor Minor of the Geofence
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return generated beacon as SystemBeacon object, wrapped in Response object
 	 */
 	public Response generateBeacon(int minor, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.generateBeacon(minor)).build();
 			
@@ -283,12 +453,12 @@ public class GeofencingService {
 	/** Adds beacon to the Geofence
 	 * 
 	 * @param beacon SystemBeacon to be added
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return true if beacon added, false if not, wrapped in Response object
 	 */
 	public Response addBeacon(SystemBeacon beacon, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.addBeacon(beacon)).build();
 
@@ -305,12 +475,12 @@ public class GeofencingService {
 	/** Adds Event to the Geofence
 	 * 
 	 * @param eventJSON JSON String containing a serialized Event or a derivation
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return true if Event is added, false if an problem occurs, wrapped in Response objectw
 	 */
 	public Response addEvent(String eventJSON, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.addEventToGeofence(Event.jsonToEvent(eventJSON))).build();
 			
@@ -352,6 +522,25 @@ public class GeofencingService {
 		return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
 	}
 	
+	/** Updates beacons in range of several Devices observed by a gateway
+	 * 
+	 * @param observations Beacons in range of the Devices
+	 * @param authHeader must contain a token of a gateway or the administrator
+	 * @return Result of each observed Device by deviceID, wrapped in Response object
+	 */
+	public Response updateDevices(DeviceObservations observations, String authHeader){
+		try{
+			this.authenticateGateway(authHeader);
+			return Response.status(Response.Status.OK).entity(system.updateDevicesBeacons(observations)).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+	
 	/** Updates Firebase token of the Device
 	 * 
 	 * @param deviceID DeviceID if the Device
@@ -382,7 +571,7 @@ public class GeofencingService {
 	/** Removes Device from system
 	 * 
 	 * @param deviceID DeviceID if the Device
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return true if Device removed, false if not, wrapped in Response object
 	 */
 	public Response removeDevice(int deviceID, String authHeader){
@@ -390,10 +579,12 @@ public class GeofencingService {
 			try{
 				this.authenticateDevice(deviceID, authHeader);
 			}catch(UnauthorizedExcpetion e){
-				system.checkPassword(authHeader);
+				this.authenticateAdmin(authHeader);
 			}
+			boolean removed = system.removeDevice(deviceID);
+			AccessTokens.revoke(deviceID);
 			return Response.status(Response.Status.OK)
-					.entity(system.removeDevice(deviceID)).build();
+					.entity(removed).build();
 			
 		}catch(UnauthorizedExcpetion e){
 			return Response.status(Response.Status.UNAUTHORIZED).build();
@@ -408,12 +599,12 @@ public class GeofencingService {
 	/** Removes Geofence from system
 	 * 
 	 * @param minor Minor of the Geofence
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return True if Geofence removed, false if there are beacons or events left, wrapped in Response object
 	 */
 	public Response removeGeofence(int minor, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.removeGeofence(minor)).build();
 	
@@ -431,12 +622,12 @@ public class GeofencingService {
 	 * 
 	 * @param minor Minor of the Geofence
 	 * @param major Major of the beacon
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return True if beacon removed, false if not, wrapped in Response object
 	 */
 	public Response removeBeacon(int minor, int major, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.removeBeacon(minor, major)).build();
 	
@@ -454,12 +645,12 @@ public class GeofencingService {
 	 * 
 	 * @param minor Minor of the Geofence
 	 * @param eventID EventID of the Event
-	 * @param authHeader Administrator password from the authentication header
+	 * @param authHeader Administrator password or token from the authentication header
 	 * @return True if Event removed, false if not, wrapped in Response object
 	 */
 	public Response removeEvent(int minor, int eventID, String authHeader){
 		try{
-			system.checkPassword(authHeader);
+			this.authenticateAdmin(authHeader);
 			return Response.status(Response.Status.OK)
 					.entity(system.removeEventFromGeofence(minor, eventID)).build();
 	
@@ -491,15 +682,123 @@ public class GeofencingService {
 		}
 	}
 	
-	/** Checks if the given authentication header contains the address which matches with the deviceID
+	/** Issues signed token for the administrator, which can be used instead of the password
+	 * 
+	 * @param authHeader Administrator password or valid administrator token from the authentication header
+	 * @return Token as String, wrapped in Response object
+	 */
+	public Response getAdminToken(String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(AccessTokens.issueAdminToken()).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+	
+	/** Issues signed token for a gateway, which reports the beacons of many Devices
+	 * 
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Token as String, wrapped in Response object
+	 */
+	public Response getGatewayToken(String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			return Response.status(Response.Status.OK).entity(AccessTokens.issueGatewayToken()).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+	
+	/** Revokes all tokens of the administrator issued until now, i.e. if a token got lost.
+	 * Administrator tokens issued afterwards are valid. The revocation is saved in the configuration of this node,
+	 * other nodes need the same tokenRevoked.Admin value (or a new tokenSecret)
+	 * 
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Response object with status
+	 */
+	public Response revokeAdminTokens(String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			AccessTokens.revoke(AccessTokens.Role.Admin);
+			return Response.status(Response.Status.OK).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+	
+	/** Revokes all tokens of the gateways issued until now, 
+	 * the gateways have to get new tokens afterwards. The revocation is saved in the configuration of this node,
+	 * other nodes need the same tokenRevoked.Gateway value (or a new tokenSecret)
+	 * 
+	 * @param authHeader Administrator password or token from the authentication header
+	 * @return Response object with status
+	 */
+	public Response revokeGatewayTokens(String authHeader){
+		try{
+			this.authenticateAdmin(authHeader);
+			AccessTokens.revoke(AccessTokens.Role.Gateway);
+			return Response.status(Response.Status.OK).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+	
+	/** Issues signed token for the Device, which can be used instead of the authentication address
 	 * 
 	 * @param deviceID DeviceID if the Device
-	 * @param authHeader must contain the authentication address of the Device
-	 * @return true if address and deviceID match, false if not
-	 * @throws UnauthorizedExcpetion if deviceID not found or address incorrect
+	 * @param authHeader must contain the authentication address or a valid token of the Device
+	 * @return Token as String, wrapped in Response object
+	 */
+	public Response getDeviceToken(int deviceID, String authHeader){
+		try{
+			this.authenticateDevice(deviceID, authHeader);
+			return Response.status(Response.Status.OK).entity(AccessTokens.issueDeviceToken(deviceID)).build();
+
+		}catch(UnauthorizedExcpetion e){
+			return Response.status(Response.Status.UNAUTHORIZED).build();
+		}catch(NotFoundException e){
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}catch(Exception e){
+			LogEntry.c(e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+		}
+	}
+	
+	/** Checks if the given authentication header contains a token of the Device 
+	 * or the address which matches with the deviceID.
+	 * Tokens are validated in memory, addresses are looked up in the database
+	 * 
+	 * @param deviceID DeviceID if the Device
+	 * @param authHeader must contain a token (Bearer) or the authentication address of the Device
+	 * @return true if token or address and deviceID match, false if not
+	 * @throws UnauthorizedExcpetion if deviceID not found, address or token incorrect
 	 * @throws NotFoundException if Device with given deviceID not existing
 	 */
 	public boolean authenticateDevice(int deviceID, String authHeader) throws UnauthorizedExcpetion, NotFoundException{
+		if(isToken(authHeader)){
+			AccessTokens.Claims claims = AccessTokens.validate(authHeader.substring(BEARER.length()));
+			if(claims.getRole() == AccessTokens.Role.Device && claims.getDeviceID() == deviceID){
+				return true;
+			}
+			throw new UnauthorizedExcpetion();
+		}
 		try{
 			if(system.getDevice(authHeader).getDeviceID() == deviceID){
 				return true;
@@ -507,4 +806,69 @@ public class GeofencingService {
 		} catch(NotFoundException e){}
 		throw new UnauthorizedExcpetion();
 	}
+	
+	/** Checks if the given authentication header contains a token or the address of any Device,
+	 * otherwise the administrator is authenticated. The Device of a token is taken from its claims
+	 * 
+	 * @param authHeader must contain a token (Bearer) or the authentication address of a Device or the administrator password
+	 * @return true if token, address or password is correct
+	 * @throws UnauthorizedExcpetion if token, address or password is incorrect
+	 * @throws ConfigurationException if password value not set in configuration
+	 */
+	public boolean authenticateAnyDevice(String authHeader) throws UnauthorizedExcpetion, ConfigurationException{
+		if(isToken(authHeader)){
+			if(AccessTokens.validate(authHeader.substring(BEARER.length())).getRole() == AccessTokens.Role.Device){
+				return true;
+			}
+			return this.authenticateAdmin(authHeader);
+		}
+		try{
+			system.getDevice(authHeader);
+			return true;
+		} catch(NotFoundException e){}
+		return this.authenticateAdmin(authHeader);
+	}
+	
+	/** Checks if the given authentication header contains a token of the administrator
+	 * or the administrator password
+	 * 
+	 * @param authHeader must contain a token (Bearer) or the administrator password
+	 * @return true if token or password is correct
+	 * @throws UnauthorizedExcpetion if token or password is incorrect
+	 * @throws ConfigurationException if password value not set in configuration
+	 */
+	public boolean authenticateAdmin(String authHeader) throws UnauthorizedExcpetion, ConfigurationException{
+		if(isToken(authHeader)){
+			if(AccessTokens.validate(authHeader.substring(BEARER.length())).getRole() == AccessTokens.Role.Admin){
+				return true;
+			}
+			throw new UnauthorizedExcpetion();
+		}
+		return system.checkPassword(authHeader);
+	}
+	
+	/** Checks if the given authentication header contains a token of a gateway or the administrator
+	 * or the administrator password
+	 * 
+	 * @param authHeader must contain a token (Bearer) or the administrator password
+	 * @return true if token or password is correct
+	 * @throws UnauthorizedExcpetion if token or password is incorrect
+	 * @throws ConfigurationException if password value not set in configuration
+	 */
+	public boolean authenticateGateway(String authHeader) throws UnauthorizedExcpetion, ConfigurationException{
+		if(isToken(authHeader)
+				&& AccessTokens.validate(authHeader.substring(BEARER.length())).getRole() == AccessTokens.Role.Gateway){
+			return true;
+		}
+		return this.authenticateAdmin(authHeader);
+	}
+	
+	/** Checks if the authentication header contains a token
+	 * 
+	 * @param authHeader Authentication header
+	 * @return true if the header starts with Bearer
+	 */
+	protected static boolean isToken(String authHeader){
+		return authHeader != null && authHeader.startsWith(BEARER);
+	}
 }
@@ -9,6 +9,7 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -17,6 +18,7 @@ import de.geofencing.event.mail.MailServiceExtension;
 import de.geofencing.system.GeofencingSystem;
 import de.geofencing.system.beacon.SystemBeacon;
 import de.geofencing.system.beacon.SystemBeacons;
+import de.geofencing.system.device.DeviceObservations;
 
 //TODO Entfernen
 @Path("/")
@@ -150,6 +152,15 @@ public class MyService {
 		return service.updateDevice(deviceID, beaconList, authHeader);
 	}
 	
+	@PUT
+	@Path("/devices/update")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response updateDevices(DeviceObservations observations,
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.updateDevices(observations, authHeader);
+	}
+	
 	@PUT
 	@Path("/devices/{deviceID}/update/token")
 	@Consumes(MediaType.TEXT_PLAIN)
@@ -191,6 +202,102 @@ public class MyService {
 		return service.removeEvent(minor, eventID, authHeader);
 	}
 	
+	@GET
+	@Path("/statistics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getStatistics(
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getStatistics(authHeader);
+	}
+	
+	@GET
+	@Path("/geofences/{minor}/presence")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getDwellStatistics(@PathParam("minor") int minor,
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getDwellStatistics(minor, authHeader);
+	}
+	
+	@GET
+	@Path("/geofences/{minor}/occupancy")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getOccupancy(@PathParam("minor") int minor,
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getOccupancy(minor, authHeader);
+	}
+	
+	@GET
+	@Path("/occupancy")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getOccupancy(@QueryParam("in") String in, @QueryParam("notIn") String notIn,
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getOccupancy(in, notIn, authHeader);
+	}
+	
+	@POST
+	@Path("/occupancy/rebuild")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response rebuildOccupancy(
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.rebuildOccupancy(authHeader);
+	}
+	
+	@GET
+	@Path("/devices/{deviceID}/geofences")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getDeviceGeofences(@PathParam("deviceID") int deviceID,
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getDeviceGeofences(deviceID, authHeader);
+	}
+	
+	@POST
+	@Path("/token")
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response getAdminToken(
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getAdminToken(authHeader);
+	}
+	
+	@POST
+	@Path("/gateway/token")
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response getGatewayToken(
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getGatewayToken(authHeader);
+	}
+	
+	@DELETE
+	@Path("/token")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response revokeAdminTokens(
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.revokeAdminTokens(authHeader);
+	}
+	
+	@DELETE
+	@Path("/gateway/token")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response revokeGatewayTokens(
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.revokeGatewayTokens(authHeader);
+	}
+	
+	@POST
+	@Path("/devices/{deviceID}/token")
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response getDeviceToken(@PathParam("deviceID") int deviceID,
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.getDeviceToken(deviceID, authHeader);
+	}
+	
+	@POST
+	@Path("/topology/reload")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response reloadTopology(
+			@HeaderParam(GeofencingService.AUTHORIZATIONHEADER) String authHeader){
+		return service.reloadTopology(authHeader);
+	}
+	
 	//Counter
 	
 	CounterServiceExtension counterService = new CounterServiceExtension(system);
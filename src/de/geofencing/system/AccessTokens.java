@@ -0,0 +1,285 @@
+package de.geofencing.system;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.exceptions.ConfigurationException;
+import de.geofencing.system.exceptions.UnauthorizedExcpetion;
+
+/** Issues and validates signed access tokens for Devices, gateways and administrators.
+ * A token contains role, deviceID, time of issue and expiry time and is signed with HMAC-SHA256,
+ * so it is validated in memory without accessing the database.
+ * 
+ * The secret is read from the configuration value tokenSecret and generated if not set.
+ * All nodes of a system need the same secret. The lifetime in seconds is read from tokenLifetime.
+ * Tokens of removed Devices are revoked by deviceID until they are expired,
+ * tokens of the administrator and of the gateways are revoked by role. The time of the revocation by role is saved 
+ * in the configuration (tokenRevoked.Admin, tokenRevoked.Gateway), so it lasts after a restart. 
+ * Like the secret it has to be set on all nodes.
+ * 
+ * @author Markus Thral
+ *
+ */
+public class AccessTokens {
+	
+	/** Role of the owner of the token
+	 * 
+	 */
+	public enum Role {Device, Admin, Gateway};
+	
+	/** Configuration value: Secret for signing the tokens
+	 */
+	public static final String tokenSecret = "tokenSecret";
+	/** Configuration value: Lifetime of the tokens in seconds
+	 */
+	public static final String tokenLifetime = "tokenLifetime";
+	/** Configuration value: Time (ms since epoch) until the tokens of a role are revoked, the role is the suffix of the key
+	 */
+	public static final String tokenRevoked = "tokenRevoked";
+	
+	private static final long defaultLifetime = TimeUnit.DAYS.toSeconds(1);
+	private static final String algorithm = "HmacSHA256";
+	private static final String separator = ".";
+	
+	private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+	private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+	private static final Map<Integer, Long> revoked = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Signer> signers = new ThreadLocal<>();
+	
+	/** Content of a valid token
+	 * 
+	 */
+	public static class Claims {
+		
+		private final Role role;
+		private final int deviceID;
+		private final long issued;
+		private final long expires;
+		
+		private Claims(Role role, int deviceID, long issued, long expires){
+			this.role = role;
+			this.deviceID = deviceID;
+			this.issued = issued;
+			this.expires = expires;
+		}
+		
+		public Role getRole(){
+			return role;
+		}
+		
+		public int getDeviceID(){
+			return deviceID;
+		}
+		
+		public long getIssued(){
+			return issued;
+		}
+		
+		public long getExpires(){
+			return expires;
+		}
+	}
+	
+	/** Mac of one thread with the secret it is initialized with
+	 * 
+	 */
+	private static class Signer {
+		
+		private final String secret;
+		private final Mac mac;
+		
+		private Signer(String secret) throws GeneralSecurityException{
+			this.secret = secret;
+			this.mac = Mac.getInstance(algorithm);
+			this.mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), algorithm));
+		}
+	}
+	
+	/** Issues token for the administrator
+	 * 
+	 * @return signed token
+	 * @throws ConfigurationException if the secret couldn't be read or generated
+	 */
+	public static String issueAdminToken() throws ConfigurationException{
+		return issue(Role.Admin, -1);
+	}
+	
+	/** Issues token for the Device
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @return signed token
+	 * @throws ConfigurationException if the secret couldn't be read or generated
+	 */
+	public static String issueDeviceToken(int deviceID) throws ConfigurationException{
+		return issue(Role.Device, deviceID);
+	}
+	
+	/** Issues token for a gateway, which reports the beacons of many Devices
+	 * 
+	 * @return signed token
+	 * @throws ConfigurationException if the secret couldn't be read or generated
+	 */
+	public static String issueGatewayToken() throws ConfigurationException{
+		return issue(Role.Gateway, -1);
+	}
+	
+	/** Issues token with the given role
+	 * 
+	 * @param role Role of the owner
+	 * @param deviceID DeviceID of the owner or -1
+	 * @return signed token
+	 * @throws ConfigurationException if the secret couldn't be read or generated
+	 */
+	protected static String issue(Role role, int deviceID) throws ConfigurationException{
+		long issued = System.currentTimeMillis();
+		long expires = issued + getLifetime();
+		String payload = encoder.encodeToString((role + ":" + deviceID + ":" + issued + ":" + expires)
+				.getBytes(StandardCharsets.UTF_8));
+		return payload + separator + encoder.encodeToString(sign(payload));
+	}
+	
+	/** Validates signature, expiry and revocation of the token
+	 * 
+	 * @param token Token to be validated
+	 * @return Claims of the token
+	 * @throws UnauthorizedExcpetion if the token is malformed, forged, expired or revoked
+	 */
+	public static Claims validate(String token) throws UnauthorizedExcpetion{
+		int split = token.indexOf(separator);
+		if(split <= 0){
+			throw new UnauthorizedExcpetion();
+		}
+		String payload = token.substring(0, split);
+		Claims claims;
+		try{
+			byte[] signature = decoder.decode(token.substring(split + 1));
+			if(!MessageDigest.isEqual(signature, sign(payload))){
+				throw new UnauthorizedExcpetion();
+			}
+			String[] values = new String(decoder.decode(payload), StandardCharsets.UTF_8).split(":");
+			claims = new Claims(Role.valueOf(values[0]), Integer.parseInt(values[1]), 
+					Long.parseLong(values[2]), Long.parseLong(values[3]));
+		}catch(ConfigurationException | IllegalArgumentException | ArrayIndexOutOfBoundsException e){
+			throw new UnauthorizedExcpetion();
+		}
+		if(claims.getExpires() < System.currentTimeMillis()){
+			throw new UnauthorizedExcpetion();
+		}
+		long revokedAt = claims.getRole() == Role.Device ? revoked.getOrDefault(claims.getDeviceID(), -1L) 
+				: SystemConfiguration.getLongValue(tokenRevoked + "." + claims.getRole(), -1);
+		if(claims.getIssued() <= revokedAt){
+			throw new UnauthorizedExcpetion();
+		}
+		return claims;
+	}
+	
+	/** Revokes all tokens of the Device issued until now
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 */
+	public static void revoke(int deviceID){
+		long now = System.currentTimeMillis();
+		revoked.put(deviceID, now);
+		//Tokens revoked longer than the lifetime ago are expired anyway
+		long lifetime = getLifetime();
+		Iterator<Long> iterator = revoked.values().iterator();
+		while(iterator.hasNext()){
+			if(iterator.next() < now - lifetime){
+				iterator.remove();
+			}
+		}
+	}
+	
+	/** Revokes all tokens of the administrator or of the gateways issued until now.
+	 * The time is saved in the configuration of this node
+	 * 
+	 * @param role Role of the tokens, Admin or Gateway
+	 * @throws ConfigurationException if the time of the revocation couldn't be saved
+	 */
+	public static void revoke(Role role) throws ConfigurationException{
+		if(role == Role.Device){
+			throw new IllegalArgumentException("Tokens of Devices are revoked by deviceID");
+		}
+		String key = tokenRevoked + "." + role;
+		if(!SystemConfiguration.setValue(key, Long.toString(System.currentTimeMillis()))){
+			throw new ConfigurationException(ConfigurationException.Error.CouldntWriteFile);
+		}
+		LogEntry.c("Revoked tokens of " + role + " - set the same " + key + " on all nodes");
+	}
+	
+	/** Gets number of Devices with revoked tokens
+	 * 
+	 * @return Number of revoked Devices
+	 */
+	public static int revokedCount(){
+		return revoked.size();
+	}
+	
+	/** Signs the payload with the secret
+	 * 
+	 * @param payload Payload of the token
+	 * @return Signature
+	 * @throws ConfigurationException if the secret couldn't be read or generated
+	 */
+	private static byte[] sign(String payload) throws ConfigurationException{
+		String secret = getSecret();
+		Signer signer = signers.get();
+		try{
+			if(signer == null || !signer.secret.equals(secret)){
+				signer = new Signer(secret);
+				signers.set(signer);
+			}
+		}catch(GeneralSecurityException e){
+			throw new ConfigurationException(e, ConfigurationException.Error.ValueMalformed);
+		}
+		return signer.mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+	}
+	
+	/** Gets the secret from the configuration. If not set, a secret is generated and saved
+	 * 
+	 * @return secret
+	 * @throws ConfigurationException if the secret couldn't be read or generated
+	 */
+	private static String getSecret() throws ConfigurationException{
+		try{
+			return SystemConfiguration.getValue(tokenSecret);
+		}catch(ConfigurationException e){
+			if(e.getError() == ConfigurationException.Error.FileNotExisiting){
+				throw e;
+			}
+			synchronized(AccessTokens.class){
+				try{
+					return SystemConfiguration.getValue(tokenSecret);
+				}catch(ConfigurationException notSet){
+					byte[] random = new byte[32];
+					new SecureRandom().nextBytes(random);
+					String secret = Base64.getUrlEncoder().encodeToString(random);
+					if(!SystemConfiguration.setValue(tokenSecret, secret)){
+						throw new ConfigurationException(ConfigurationException.Error.CouldntWriteFile);
+					}
+					LogEntry.c("Generated token secret - set the same " + tokenSecret + " on all nodes");
+					return secret;
+				}
+			}
+		}
+	}
+	
+	/** Gets lifetime of the tokens
+	 * 
+	 * @return lifetime in milliseconds
+	 */
+	private static long getLifetime(){
+		return SystemConfiguration.getDurationValue(tokenLifetime, TimeUnit.SECONDS, defaultLifetime);
+	}
+}
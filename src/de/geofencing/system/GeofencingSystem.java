@@ -1,25 +1,43 @@
 package de.geofencing.system;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.geofencing.database.GeofencingDBConnector;
 import de.geofencing.event.BeaconChange;
 import de.geofencing.event.Event;
+import de.geofencing.event.EventExecutor;
 import de.geofencing.event.EventList;
+import de.geofencing.event.PresenceTracker;
 import de.geofencing.event.Trigger;
+import de.geofencing.event.TriggerScheduler;
+import de.geofencing.event.TriggerThrottle;
+import de.geofencing.log.LogEntry;
 import de.geofencing.system.beacon.SystemBeacon;
 import de.geofencing.system.beacon.SystemBeacons;
 import de.geofencing.system.device.Device;
+import de.geofencing.system.device.DeviceLanes;
+import de.geofencing.system.device.DeviceObservation;
+import de.geofencing.system.device.DeviceObservations;
 import de.geofencing.system.device.Devices;
+import de.geofencing.system.device.PresenceFilter;
 import de.geofencing.system.exceptions.AlreadyExistingException;
 import de.geofencing.system.exceptions.ConfigurationException;
 import de.geofencing.system.exceptions.NotFoundException;
 import de.geofencing.system.exceptions.UnauthorizedExcpetion;
 import de.geofencing.system.geofence.Geofence;
 import de.geofencing.system.geofence.GeofenceList;
+import de.geofencing.system.geofence.OccupancyIndex;
+import de.geofencing.util.DeviceBitmap;
 
 /** Represents a GeofencingSystem with an UUID containing 
  * registered devices, geofences, their beacons and events.
@@ -37,12 +55,19 @@ public class GeofencingSystem implements Serializable {
 	public static final String LOCATION_NOT_SET = "-not set-";
 
 	private final UUID uuid;
+	private final Random random = new Random();
 
-	/** Creates GeofencingSystem and creates UUID if not found in configuration
+	/** Creates GeofencingSystem and creates UUID if not found in configuration.
+	 * The scheduler of the delayed Triggers is started with the first system, 
+	 * so the pending Triggers are recovered after a restart. The occupancy index is built with the first system,
+	 * so the first Device update does not wait for it
 	 * 
 	 */
 	public GeofencingSystem() {
 		this.uuid = SystemConfiguration.getUUID();
+		TriggerScheduler.getInstance();
+		OccupancyIndex.getInstance();
+		PresenceFilter.getInstance().setHandler(GeofencingSystem::applyDeviceBeacons);
 	}
 
 	public UUID getUUID() {
@@ -91,14 +116,7 @@ public class GeofencingSystem implements Serializable {
 	 * @return next available minor
 	 */
 	protected int getNextMinor() {
-		int nextMinor = 1;
-		List<Geofence> list = GeofencingDBConnector.findGeofences();
-		for (Geofence geofence : list) {
-			if (geofence.getMinor() >= nextMinor) {
-				nextMinor = geofence.getMinor() + 1;
-			}
-		}
-		return nextMinor;
+		return GeofencingDBConnector.nextMinor();
 	}
 
 	/** Adds Geofence to system
@@ -109,6 +127,7 @@ public class GeofencingSystem implements Serializable {
 	public int addGeofence(String description) {
 		int minor = this.getNextMinor();
 		GeofencingDBConnector.insertGeofence(new Geofence(minor, description));
+		Topology.getInstance().reload();
 		return minor;
 	}
 
@@ -126,7 +145,11 @@ public class GeofencingSystem implements Serializable {
 		if(geofence.getEvents().size() > 0) {
 			return false;
 		}
-		return GeofencingDBConnector.removeGeofence(minor);
+		try {
+			return GeofencingDBConnector.removeGeofence(minor);
+		} finally {
+			Topology.getInstance().reload();
+		}
 	}
 
 	/*
@@ -140,7 +163,7 @@ public class GeofencingSystem implements Serializable {
 	 * @throws NotFoundException if the Geofence is not exisiting
 	 */
 	public EventList getEventList(int minor) throws NotFoundException{
-		return GeofencingDBConnector.findGeofence(minor).getEventList();
+		return GeofencingDBConnector.findGeofenceWithEvents(minor).getEventList();
 	}
 	
 	/** Gets next available eventID of the Geofence
@@ -150,13 +173,10 @@ public class GeofencingSystem implements Serializable {
 	 * @throws NotFoundException if Geofence is not exisiting
 	 */
 	protected int getNextEventID(int minor) throws NotFoundException {
-		int nextEventID = 1;
-		for (Event event : GeofencingDBConnector.findGeofenceEvents(minor)) {
-			if (event.getEventID() >= nextEventID) {
-				nextEventID = event.getEventID() + 1;
-			}
+		if (!GeofencingDBConnector.isGeofenceExisting(minor)) {
+			throw new NotFoundException("Geofence " + minor);
 		}
-		return nextEventID;
+		return GeofencingDBConnector.nextEventID(minor);
 	}
 
 	/** Adds Event to Gefence
@@ -169,6 +189,7 @@ public class GeofencingSystem implements Serializable {
 		if(event.onAddToGeofence()){
 			event.setEventID(this.getNextEventID(event.getMinor()));
 			GeofencingDBConnector.insertEvent(event);
+			Topology.getInstance().reload();
 			return true;
 		}
 		return false;
@@ -182,8 +203,14 @@ public class GeofencingSystem implements Serializable {
 	 * @throws NotFoundException if Geofence or Event is not existing
 	 */
 	public boolean removeEventFromGeofence(int minor, int eventID) throws NotFoundException {
-		GeofencingDBConnector.findGeofence(minor);
-		return GeofencingDBConnector.removeEvent(minor, eventID);
+		if (!GeofencingDBConnector.isGeofenceExisting(minor)) {
+			throw new NotFoundException("Geofence " + minor);
+		}
+		try {
+			return GeofencingDBConnector.removeEvent(minor, eventID);
+		} finally {
+			Topology.getInstance().reload();
+		}
 	}
 
 	/*
@@ -198,28 +225,39 @@ public class GeofencingSystem implements Serializable {
 	public SystemBeacons getBeaconData(SystemBeacons beacons) {
 		SystemBeacons withData = new SystemBeacons();
 
+		Topology topology = Topology.getInstance();
+		TopologySnapshot snapshot = topology.getSnapshot();
 		for (SystemBeacon beacon : beacons) {
-			try {
-				withData.addBeacon(GeofencingDBConnector.findBeacon(beacon.getMinor(), beacon.getMajor()));
-			} catch (NotFoundException e) {
-				withData.addBeacon(beacon);
-			}
+			SystemBeacon registered = topology.getBeacon(snapshot, beacon);
+			withData.addBeacon(registered != null ? registered : beacon);
 		}
 		return withData;
 	}
 
-	/** Filters beacons if registered on the system
+	/** Filters beacons if registered on the system. 
+	 * Beacons with foreign UUID or not registered are removed
 	 * 
 	 * @param beacons List of beacon
 	 * @return SystemBeacons object containing only registered beacons
 	 */
 	public SystemBeacons filterBeacons(SystemBeacons beacons) {
+		return filterBeacons(Topology.getInstance().getSnapshot(), beacons);
+	}
+
+	/** Filters beacons if registered in the given snapshot. 
+	 * Beacons with foreign UUID or not registered are removed
+	 * 
+	 * @param snapshot TopologySnapshot with the registered beacons
+	 * @param beacons List of beacon
+	 * @return SystemBeacons object containing only registered beacons
+	 */
+	protected SystemBeacons filterBeacons(TopologySnapshot snapshot, SystemBeacons beacons) {
 		SystemBeacons filtered = new SystemBeacons();
+		Topology topology = Topology.getInstance();
 		for (SystemBeacon beacon : beacons) {
-			try {
-				filtered.addBeacon(GeofencingDBConnector.findBeacon(beacon.getMinor(), beacon.getMajor()));
-			} catch (NotFoundException e) {
-
+			SystemBeacon registered = topology.getBeacon(snapshot, beacon);
+			if (registered != null) {
+				filtered.addBeacon(registered);
 			}
 		}
 		return filtered;
@@ -233,7 +271,12 @@ public class GeofencingSystem implements Serializable {
 	 */
 	protected SystemBeacon getBeacon(SystemBeacon beacon) throws NotFoundException {
 		if (beacon.getUUID().equals(this.uuid)) {
-			return GeofencingDBConnector.findBeacon(beacon.getMinor(), beacon.getMajor());
+			Topology topology = Topology.getInstance();
+			SystemBeacon registered = topology.getBeacon(topology.getSnapshot(), beacon);
+			if (registered == null) {
+				throw new NotFoundException("Beacon minor/major" + beacon.getMinor() + "/" + beacon.getMajor());
+			}
+			return registered;
 		}
 		return null;
 	}
@@ -245,7 +288,10 @@ public class GeofencingSystem implements Serializable {
 	 * @throws NotFoundException if Geofence is not existing
 	 */
 	public SystemBeacon generateBeacon(int minor) throws NotFoundException {
-		return GeofencingDBConnector.findGeofence(minor).generateBeacon(uuid);
+		if (!GeofencingDBConnector.isGeofenceExisting(minor)) {
+			throw new NotFoundException("Geofence " + minor);
+		}
+		return new SystemBeacon(uuid, GeofencingDBConnector.nextMajor(minor), minor);
 	}
 
 	/** Adds beacon to the Geofence
@@ -264,10 +310,12 @@ public class GeofencingSystem implements Serializable {
 				throw new AlreadyExistingException(
 						"Beacon: " + beacon.getUUID() + ":" + beacon.getMajor() + ":" + beacon.getMinor());
 			}
-			if (beacon.getLocation() == "") {
-				beacon.setLocation(LOCATION_NOT_SET);
+			if ("".equals(beacon.getLocation())) {
+				beacon = new SystemBeacon(beacon.getUUID(), beacon.getMajor(), beacon.getMinor(), LOCATION_NOT_SET);
 			}
 			GeofencingDBConnector.insertBeacon(beacon);
+			GeofencingDBConnector.reserveMajor(beacon.getMinor(), beacon.getMajor());
+			Topology.getInstance().reload();
 			return true;
 		}
 		return false;
@@ -281,7 +329,11 @@ public class GeofencingSystem implements Serializable {
 	 * @throws NotFoundException if SystemBeacon is not existing
 	 */
 	public boolean removeBeacon(int minor, int major) throws NotFoundException {
-		return GeofencingDBConnector.removeBeacon(minor, major);
+		try {
+			return GeofencingDBConnector.removeBeacon(minor, major);
+		} finally {
+			Topology.getInstance().reload();
+		}
 	}
 
 	/*
@@ -316,24 +368,23 @@ public class GeofencingSystem implements Serializable {
 		return GeofencingDBConnector.findDevices();
 	}
 
-	/** Adds Device to the system
+	/** Adds Device to the system. The deviceID is generated randomly and 
+	 * claimed by the insert, which fails if deviceID or mail address are in use.
+	 * The mail address is checked before as well, so duplicates are rejected if the unique index is missing
 	 * 
 	 * @param mailAddress Mail address of the Device
 	 * @return generated deviceID if Device is added
 	 * @throws AlreadyExistingException if the mail address is already exisiting
 	 */
 	public int addDevice(String mailAddress) throws AlreadyExistingException {
-		if (!GeofencingDBConnector.mailAddressInUse(mailAddress)) {
-			Random rand = new Random();
-			int randomDid;
-			do {
-				randomDid = rand.nextInt(Integer.MAX_VALUE);
-			} while (GeofencingDBConnector.isDeviceExisting(randomDid));
-			Device device = new Device(randomDid, mailAddress);
-			GeofencingDBConnector.insertDevice(device);
-			return randomDid;
+		if (GeofencingDBConnector.mailAddressInUse(mailAddress)) {
+			throw new AlreadyExistingException(mailAddress);
 		}
-		throw new AlreadyExistingException(mailAddress);
+		Device device;
+		do {
+			device = new Device(random.nextInt(Integer.MAX_VALUE), mailAddress);
+		} while (!GeofencingDBConnector.insertDevice(device));
+		return device.getDeviceID();
 	}
 
 	/** Removes Device from the system
@@ -343,38 +394,195 @@ public class GeofencingSystem implements Serializable {
 	 * @throws NotFoundException if Device not existing
 	 */
 	public boolean removeDevice(int deviceID) throws NotFoundException {
-		return GeofencingDBConnector.removeDevice(deviceID);
+		boolean removed = GeofencingDBConnector.removeDevice(deviceID);
+		PresenceFilter.getInstance().removeDevice(deviceID);
+		PresenceTracker.getInstance().removeDevice(deviceID);
+		OccupancyIndex.getInstance().removeDevice(deviceID);
+		return removed;
 	}
 
-	/** Updates beacons in range of the Device
+	/** Updates beacons in range of the Device. The update is processed on the lane of the Device, 
+	 * so updates of a Device are processed one after another and waiting updates are replaced by newer ones.
+	 * The registered beacons are debounced by the PresenceFilter,
+	 * they are only saved and trigger Events if the confirmed beacons changed.
+	 * Waiting for the triggered executions is done by the calling thread after the lane processed the update
 	 * 
 	 * @param deviceID DeviceID of the Device
 	 * @param beacons Beacons in range of the device
-	 * @return true if updated
+	 * @return true if the update is accepted
 	 * @throws NotFoundException if Device not existing
 	 */
 	public boolean updateDeviceBeacons(int deviceID, SystemBeacons beacons) throws NotFoundException {
-		SystemBeacons filtered = filterBeacons(beacons);
-		BeaconChange beaconChange = GeofencingDBConnector.findDevice(deviceID).updateBeacons(filtered);
-		if (beaconChange != null) {
-			GeofencingDBConnector.updateDevice(deviceID, filtered);
-			Geofence geofence;
-			for (SystemBeacon beacon : beaconChange.getEnteredBeacons()) {
+		SystemBeacons filtered = filterBeacons(Topology.getInstance().getSnapshot(), beacons);
+		EventExecutor executor = EventExecutor.getInstance();
+		List<Runnable> acknowledgement = new ArrayList<>();
+		DeviceLanes.getInstance().process(deviceID, () -> acknowledgement.addAll(executor.collect(
+				() -> PresenceFilter.getInstance().update(deviceID, filtered, GeofencingSystem::applyDeviceBeacons))));
+		executor.acknowledge(acknowledgement);
+		return true;
+	}
+	
+	/** Updates beacons in range of several Devices observed by a gateway.
+	 * The topology is resolved once, the observations are processed on the lanes of their Devices 
+	 * in order with the other updates of the Devices: each lane debounces the observations of its Devices,
+	 * saves the confirmed changes with one bulk write and triggers the Events.
+	 * If a Device is observed several times, the last observation is used
+	 * 
+	 * @param observations Beacons in range of the Devices
+	 * @return Result of each observed Device by deviceID
+	 */
+	public Map<Integer, DeviceObservation.Result> updateDevicesBeacons(DeviceObservations observations) {
+		TopologySnapshot snapshot = Topology.getInstance().getSnapshot();
+		Map<Integer, SystemBeacons> observed = new LinkedHashMap<>();
+		for (DeviceObservation observation : observations) {
+			observed.put(observation.getDeviceID(), filterBeacons(snapshot, observation.getBeacons()));
+		}
+		DeviceLanes lanes = DeviceLanes.getInstance();
+		EventExecutor executor = EventExecutor.getInstance();
+		Map<Integer, DeviceObservation.Result> applied = new ConcurrentHashMap<>();
+		List<Runnable> acknowledgement = Collections.synchronizedList(new ArrayList<>());
+		try {
+			lanes.awaitAll(lanes.submitAll(observed.keySet(), deviceIDs -> {
 				try {
-					geofence = GeofencingDBConnector.findGeofence(beacon.getMinor());
-					geofence.trigger(Trigger.Direction.Enter, deviceID);
+					acknowledgement.addAll(executor.collect(() -> applyDevicesBeacons(snapshot, deviceIDs, observed, applied)));
 				} catch (NotFoundException e) {
+					//results by Device
 				}
+			}));
+			executor.acknowledge(new ArrayList<>(acknowledgement));
+		} catch (RuntimeException e) {
+			LogEntry.c(e);
+		}
+
+		Map<Integer, DeviceObservation.Result> results = new LinkedHashMap<>();
+		for (int deviceID : observed.keySet()) {
+			results.put(deviceID, applied.getOrDefault(deviceID, DeviceObservation.Result.Failed));
+		}
+		return results;
+	}
+	
+	/** Debounces the observations of Devices on the same lane, saves the confirmed beacons with one bulk write
+	 * and triggers the Events of the entered and left Geofences. Devices changed since their beacons were read
+	 * are saved one at a time. Runs on the lane of the Devices
+	 * 
+	 * @param snapshot TopologySnapshot with the Geofences
+	 * @param deviceIDs DeviceIDs of the Devices on the lane
+	 * @param observed Registered beacons in range of the observed Devices
+	 * @param results Result of each Device
+	 */
+	private static void applyDevicesBeacons(TopologySnapshot snapshot, List<Integer> deviceIDs, 
+			Map<Integer, SystemBeacons> observed, Map<Integer, DeviceObservation.Result> results) {
+		PresenceFilter filter = PresenceFilter.getInstance();
+		Map<Integer, SystemBeacons> confirmed = new LinkedHashMap<>();
+		for (int deviceID : deviceIDs) {
+			try {
+				boolean changed = filter.update(deviceID, observed.get(deviceID), confirmed::put);
+				results.put(deviceID, changed ? DeviceObservation.Result.Applied : DeviceObservation.Result.Unchanged);
+			} catch (NotFoundException e) {
+				results.put(deviceID, DeviceObservation.Result.NotFound);
 			}
-			for (SystemBeacon beacon : beaconChange.getLeftBeacons()) {
-				try {
-					geofence = GeofencingDBConnector.findGeofence(beacon.getMinor());
-					geofence.trigger(Trigger.Direction.Leave, deviceID);
-				} catch (NotFoundException e) {
+		}
+		if (confirmed.isEmpty()) {
+			return;
+		}
+		Map<Integer, SystemBeacons> previous;
+		try {
+			previous = GeofencingDBConnector.swapDevicesBeacons(confirmed);
+		} catch (RuntimeException e) {
+			LogEntry.c(e);
+			for (int deviceID : confirmed.keySet()) {
+				filter.reject(deviceID);
+				results.put(deviceID, DeviceObservation.Result.Failed);
+			}
+			return;
+		}
+		for (Map.Entry<Integer, SystemBeacons> entry : confirmed.entrySet()) {
+			int deviceID = entry.getKey();
+			SystemBeacons before = previous.get(deviceID);
+			try {
+				if (before == null) {
+					before = GeofencingDBConnector.swapDeviceBeacons(deviceID, entry.getValue());
 				}
+				checkTriggers(snapshot, deviceID, before.compare(entry.getValue()));
+			} catch (NotFoundException e) {
+				filter.removeDevice(deviceID);
+				results.put(deviceID, DeviceObservation.Result.NotFound);
+			} catch (RuntimeException e) {
+				LogEntry.c(e);
+				filter.reject(deviceID);
+				results.put(deviceID, DeviceObservation.Result.Failed);
+			}
+		}
+	}
+	
+	/** Saves the confirmed beacons of the Device and triggers the Events 
+	 * of the entered and left Geofences
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @param confirmed Registered beacons in range of the Device, confirmed by the PresenceFilter
+	 * @throws NotFoundException if Device not existing
+	 */
+	private static void applyDeviceBeacons(int deviceID, SystemBeacons confirmed) throws NotFoundException {
+		TopologySnapshot snapshot = Topology.getInstance().getSnapshot();
+		SystemBeacons previous = GeofencingDBConnector.swapDeviceBeacons(deviceID, confirmed);
+		checkTriggers(snapshot, deviceID, previous.compare(confirmed));
+	}
+	
+	/** Updates the tracked presence and occupancy and triggers the Events of the entered and left Geofences
+	 * 
+	 * @param snapshot TopologySnapshot with the Geofences
+	 * @param deviceID DeviceID of the Device
+	 * @param beaconChange Change of the beacons of the Device, ignored if null
+	 */
+	private static void checkTriggers(TopologySnapshot snapshot, int deviceID, BeaconChange beaconChange) {
+		if (beaconChange != null) {
+			PresenceTracker presence = PresenceTracker.getInstance();
+			OccupancyIndex occupancy = OccupancyIndex.getInstance();
+			long now = System.currentTimeMillis();
+			for (int minor : beaconChange.getEnteredGeofences()) {
+				presence.enter(deviceID, minor, now);
+				occupancy.enter(deviceID, minor);
+			}
+			for (int minor : beaconChange.getLeftGeofences()) {
+				presence.leave(deviceID, minor, now);
+				occupancy.leave(deviceID, minor);
+			}
+			for (int minor : beaconChange.getEnteredGeofences()) {
+				checkTriggers(snapshot.getGeofence(minor), Trigger.Direction.Enter, deviceID);
+			}
+			for (int minor : beaconChange.getLeftGeofences()) {
+				checkTriggers(snapshot.getGeofence(minor), Trigger.Direction.Leave, deviceID);
 			}
 		}
-		return true;
+	}
+	
+	/** Cancels the pending Triggers of the opposite direction and checks the Triggers 
+	 * of the Events of the entered or left Geofence
+	 * 
+	 * @param geofence Geofence entered or left by the Device, ignored if null
+	 * @param direction Direction of the movement of the Device
+	 * @param deviceID DeviceID of the Device
+	 */
+	private static void checkTriggers(Geofence geofence, Trigger.Direction direction, int deviceID) {
+		if (geofence == null) {
+			return;
+		}
+		Trigger.Direction opposite = direction == Trigger.Direction.Enter ? Trigger.Direction.Leave : Trigger.Direction.Enter;
+		for (Event event : geofence.getEvents(opposite)) {
+			event.cancelTrigger(deviceID);
+		}
+		for (Event event : geofence.getEvents(direction)) {
+			event.checkTrigger(direction, deviceID);
+		}
+	}
+	
+	/** Reloads Geofences, beacons and Events from the database. 
+	 * Needed if the topology is changed by another node
+	 * 
+	 * @return version of the reloaded topology
+	 */
+	public long reloadTopology() {
+		return Topology.getInstance().reload();
 	}
 	
 	/** Updated Firebase token of the device
@@ -387,4 +595,102 @@ public class GeofencingSystem implements Serializable {
 	public boolean updateDeviceToken(int deviceID, String firebaseToken) throws NotFoundException{
 		return GeofencingDBConnector.updateDevice(deviceID, firebaseToken);
 	}
+	
+	/*
+	 * Statistics
+	 */
+	
+	/** Gets statistics of the system components, i.e. the beacon registry, the scheduler of delayed Triggers,
+	 * the execution of the Events, the lanes of the Device updates, the debounced reports, the tracked presences, 
+	 * the occupancy of the Geofences and the suppressed firings
+	 * 
+	 * @return Map with the statistics of each component
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("topology", Topology.getInstance().getStatistics());
+		statistics.put("triggers", TriggerScheduler.getInstance().getStatistics());
+		statistics.put("events", EventExecutor.getInstance().getStatistics());
+		statistics.put("lanes", DeviceLanes.getInstance().getStatistics());
+		statistics.put("presenceFilter", PresenceFilter.getInstance().getStatistics());
+		statistics.put("presence", PresenceTracker.getInstance().getStatistics());
+		statistics.put("occupancy", OccupancyIndex.getInstance().getStatistics());
+		statistics.put("throttle", TriggerThrottle.getInstance().getStatistics());
+		return statistics;
+	}
+	
+	/** Gets dwell statistics of the Geofence tracked by this node: Devices inside, 
+	 * completed visits, average and maximum duration (ms) of the visits
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @return Map with the dwell statistics
+	 * @throws NotFoundException if Geofence not existing
+	 */
+	public Map<String, Object> getDwellStatistics(int minor) throws NotFoundException {
+		if (Topology.getInstance().getSnapshot().getGeofence(minor) == null) {
+			throw new NotFoundException("Geofence " + minor);
+		}
+		return PresenceTracker.getInstance().getDwellStatistics(minor);
+	}
+	
+	/*
+	 * Occupancy
+	 */
+	
+	/** Gets the Devices inside the Geofence from the occupancy index
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @return Map with the number of Devices and their deviceIDs
+	 * @throws NotFoundException if Geofence not existing
+	 */
+	public Map<String, Object> getOccupancy(int minor) throws NotFoundException {
+		if (Topology.getInstance().getSnapshot().getGeofence(minor) == null) {
+			throw new NotFoundException("Geofence " + minor);
+		}
+		return occupancy(OccupancyIndex.getInstance().getDevices(minor));
+	}
+	
+	/** Gets the Devices inside all Geofences of in and outside all Geofences of notIn,
+	 * i.e. the Devices in the entrance and not in the checkout
+	 * 
+	 * @param in Minors of the Geofences the Devices have to be inside, at least one
+	 * @param notIn Minors of the Geofences the Devices must not be inside
+	 * @return Map with the number of Devices and their deviceIDs
+	 */
+	public Map<String, Object> getOccupancy(Collection<Integer> in, Collection<Integer> notIn) {
+		return occupancy(OccupancyIndex.getInstance().query(in, notIn));
+	}
+	
+	/** Gets the number of Devices inside each Geofence with at least one Device
+	 * 
+	 * @return Number of Devices by minor
+	 */
+	public Map<Integer, Integer> getOccupancyCounts() {
+		return OccupancyIndex.getInstance().counts();
+	}
+	
+	/** Gets the Geofences the Device is inside from the occupancy index
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @return Minors of the Geofences
+	 */
+	public Set<Integer> getDeviceGeofences(int deviceID) {
+		return OccupancyIndex.getInstance().getGeofences(deviceID);
+	}
+	
+	/** Rebuilds the occupancy index from the beacons of the Devices in the database.
+	 * Needed if Devices are updated by another node
+	 * 
+	 * @return number of Devices inside at least one Geofence
+	 */
+	public int rebuildOccupancy() {
+		return OccupancyIndex.getInstance().rebuild();
+	}
+	
+	private static Map<String, Object> occupancy(DeviceBitmap devices) {
+		Map<String, Object> occupancy = new LinkedHashMap<>();
+		occupancy.put("count", devices.cardinality());
+		occupancy.put("deviceIDs", devices.toArray());
+		return occupancy;
+	}
 }
@@ -4,14 +4,27 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import de.geofencing.log.LogEntry;
 import de.geofencing.system.exceptions.ConfigurationException;
 import de.geofencing.system.exceptions.UnauthorizedExcpetion;
 
 /** Provides methods for reading the configuration file and setting entries as key-value pairs.
+ * The configuration is cached and read again when the file is changed. Typed values 
+ * (int, enum, duration) are parsed once after each reading of the file.
  * 
  * @author Markus Thral
  *
@@ -37,63 +50,194 @@ public class SystemConfiguration{
 	 */
 	public static final String dbPassword = "dbPassword";
 
-	/** Saves Configuration in the file
+	/** Interval in milliseconds to check the modification time of the file, 
+	 * if the file is not watched by a WatchService
+	 */
+	private static final long modificationCheckInterval = 1000;
+	
+	private static final Object lock = new Object();
+	
+	private static volatile File file;
+	private static volatile Snapshot cached;
+	private static volatile long cachedModified;
+	private static volatile long lastModificationCheck;
+	private static volatile boolean watching;
+	private static volatile boolean changed;
+
+	/** Saves Configuration in the file. The file is written to a temporary file which replaces the 
+	 * configuration file, so readers never see a partly written file. 
 	 * 
 	 * @param properties Properties with key-value pairs
 	 * @return true if saving is done
 	 * @throws ConfigurationException if the file couldn't be written
 	 */
 	protected static boolean save(Properties properties) throws ConfigurationException {
+		File target = getFile();
+		File temp = null;
 		try {
-			FileOutputStream out = new FileOutputStream(getFile());
-			properties.store(out, "");
+			temp = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+			try (FileOutputStream out = new FileOutputStream(temp)) {
+				properties.store(out, "");
+			}
+			try {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			cache(properties, target.lastModified());
+			watch(target);
 			return true;
 		} catch (IOException e) {
-			throw new ConfigurationException(ConfigurationException.Error.CouldntWriteFile);
+			if (temp != null) {
+				temp.delete();
+			}
+			throw new ConfigurationException(e, ConfigurationException.Error.CouldntWriteFile);
 		}
 	}
 	
-	/** Loads Configuration from the file
+	/** Loads Configuration from the cache. The file is read again, if it has been changed.
+	 * The returned Properties object must not be modified
 	 * 
 	 * @return Configuration as Properties object
 	 * @throws ConfigurationException if file is not found or couln't be read
 	 */
 	protected static Properties load() throws ConfigurationException{
-		File file = getFile();
-		Properties properties = new Properties();
-		try{
-			if(file.exists()){
-				FileInputStream in = new FileInputStream(file);
-				properties.load(in);
-				return properties;
+		return snapshot().properties;
+	}
+	
+	/** Loads the cached configuration with its parsed values. The file is read again, if it has been changed
+	 * 
+	 * @return Cached configuration
+	 * @throws ConfigurationException if file is not found or couln't be read
+	 */
+	private static Snapshot snapshot() throws ConfigurationException{
+		Snapshot snapshot = cached;
+		if(snapshot != null && !isChanged()){
+			return snapshot;
+		}
+		synchronized(lock){
+			snapshot = cached;
+			if(snapshot != null && !isChanged()){
+				return snapshot;
 			}
+			return read();
+		}
+	}
+	
+	/** Reads Configuration from the file and replaces the cached configuration
+	 * 
+	 * @return Cached configuration
+	 * @throws ConfigurationException if file is not found or couln't be read
+	 */
+	private static Snapshot read() throws ConfigurationException{
+		File configFile = getFile();
+		if(!configFile.exists()){
 			generateConfiguration();
 			throw new ConfigurationException(ConfigurationException.Error.FileNotExisiting);
+		}
+		Properties properties = new Properties();
+		changed = false;
+		long modified = configFile.lastModified();
+		try(FileInputStream in = new FileInputStream(configFile)){
+			properties.load(in);
 		}catch(IOException e){
-			throw new ConfigurationException(ConfigurationException.Error.Other);
+			throw new ConfigurationException(e, ConfigurationException.Error.Other);
+		}
+		Snapshot snapshot = cache(properties, modified);
+		watch(configFile);
+		return snapshot;
+	}
+	
+	/** Replaces the cached configuration together with its parsed values
+	 * 
+	 * @param properties Configuration to be cached
+	 * @param modified Modification time of the file
+	 * @return Cached configuration
+	 */
+	private static Snapshot cache(Properties properties, long modified){
+		Snapshot snapshot = new Snapshot(properties);
+		cached = snapshot;
+		cachedModified = modified;
+		lastModificationCheck = System.currentTimeMillis();
+		return snapshot;
+	}
+	
+	/** Checks if the file has been changed since it was read. 
+	 * Without WatchService the modification time is checked at most every second
+	 * 
+	 * @return true if the configuration has to be read again
+	 */
+	private static boolean isChanged(){
+		if(watching){
+			return changed;
+		}
+		long now = System.currentTimeMillis();
+		if(now - lastModificationCheck < modificationCheckInterval){
+			return false;
 		}
+		lastModificationCheck = now;
+		return getFile().lastModified() != cachedModified;
+	}
+	
+	/** Starts a daemon thread which watches the directory of the configuration file 
+	 * and marks the cached configuration as changed, if the file is modified
+	 * 
+	 * @param configFile Configuration file
+	 */
+	private static void watch(File configFile){
+		if(watching){
+			return;
+		}
+		Path directory = configFile.getAbsoluteFile().getParentFile().toPath();
+		Path name = configFile.toPath().getFileName();
+		WatchService watchService;
+		try {
+			watchService = directory.getFileSystem().newWatchService();
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, 
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException | UnsupportedOperationException e) {
+			LogEntry.c("Configuration file not watched, checking modification time: " + e.getMessage());
+			return;
+		}
+		Thread watcher = new Thread(() -> {
+			try {
+				while (true) {
+					WatchKey key = watchService.take();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+							changed = true;
+						}
+					}
+					if (!key.reset()) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+			} finally {
+				watching = false;
+				changed = true;
+			}
+		}, "configuration-watcher");
+		watcher.setDaemon(true);
+		watching = true;
+		watcher.start();
 	}
 	
 	/** Generates file and empty configuration parameter
 	 * 
 	 */
 	protected static void generateConfiguration(){
+		Properties configuration = new Properties();
+		configuration.setProperty(adminPassword, "");
+		configuration.setProperty(dbAddress, "");
+		configuration.setProperty(dbPort, "");
+		configuration.setProperty(dbName, "");
+		configuration.setProperty(dbUser, "");
+		configuration.setProperty(dbPassword, "");
 		try {
-			File configFile = getFile();
-			FileOutputStream out = new FileOutputStream(configFile);
-			Properties configuration = new Properties();
-			configuration.store(out, "");
-			
-			setValue(adminPassword, "");
-			setValue(dbAddress, "");
-			setValue(dbPort, "");
-			setValue(dbName, "");
-			setValue(dbUser, "");
-			setValue(dbPassword, "");
-			
-			LogEntry.c("Configuration file not found - Generated empty file in " + configFile.getAbsolutePath());
-			
-		} catch (IOException e) {
+			save(configuration);
+			LogEntry.c("Configuration file not found - Generated empty file in " + getFile().getAbsolutePath());
+		} catch (ConfigurationException e) {
 			LogEntry.c(e);
 		}
 	}
@@ -105,7 +249,18 @@ public class SystemConfiguration{
 	 * @throws ConfigurationException if an error occurs
 	 */
 	public static String getValue(String key) throws ConfigurationException{
-		String value = load().getProperty(key);
+		return getValue(load(), key);
+	}
+	
+	/** Gets value from the configuration
+	 * 
+	 * @param properties Loaded configuration
+	 * @param key Key to get the value for
+	 * @return value of the key
+	 * @throws ConfigurationException if the value is not set or not found
+	 */
+	private static String getValue(Properties properties, String key) throws ConfigurationException{
+		String value = properties.getProperty(key);
 		if(value != null){
 			if(!value.equals("")){
 				return value;
@@ -113,26 +268,156 @@ public class SystemConfiguration{
 			throw new ConfigurationException(ConfigurationException.Error.ValueNotSet);
 		}
 		throw new ConfigurationException(ConfigurationException.Error.ValueNotFound);
-	}	
+	}
 	
-	/** Sets key and value or updated key if existing
+	/** Gets value from configuration as integer. The value is parsed once after each reading of the file
 	 * 
 	 * @param key Key to get the value for
-	 * @param value Value of the key
-	 * @return true if value is set, false of an error occurs
+	 * @return value of the key as integer
+	 * @throws ConfigurationException if the value is not set or not an integer
 	 */
-	public static boolean setValue(String key, String value) {
-		Properties configuration;
+	public static int getIntValue(String key) throws ConfigurationException{
+		return (Integer)getParsedValue("int:" + key, key, value -> Integer.parseInt(value.trim()));
+	}
+	
+	/** Gets value from configuration as integer or the default value if not set
+	 * 
+	 * @param key Key to get the value for
+	 * @param defaultValue Value if the key is not set or not an integer
+	 * @return value of the key as integer or default value
+	 */
+	public static int getIntValue(String key, int defaultValue){
 		try{
-			configuration = load();
+			return getIntValue(key);
 		}catch(ConfigurationException e){
-			configuration = new Properties();
+			return defaultValue;
 		}
-		configuration.setProperty(key, value);
+	}
+	
+	/** Gets integer value for a single class or the value for all classes or the default value if not set.
+	 * The value of a class is set with the simple class name as suffix of the key (i.e. eventWorkers.SendMailEvent)
+	 * 
+	 * @param key Key to get the value for
+	 * @param name Simple name of the class
+	 * @param defaultValue Value if the key is neither set for the class nor for all classes
+	 * @return value of the key as integer or default value
+	 */
+	public static int getIntValue(String key, String name, int defaultValue){
+		return getIntValue(key + "." + name, getIntValue(key, defaultValue));
+	}
+	
+	/** Gets value from configuration as long or the default value if not set. The value is parsed once after each reading of the file
+	 * 
+	 * @param key Key to get the value for
+	 * @param defaultValue Value if the key is not set or not a number
+	 * @return value of the key as long or default value
+	 */
+	public static long getLongValue(String key, long defaultValue){
 		try{
-			return save(configuration);
+			return (Long)getParsedValue("long:" + key, key, value -> Long.parseLong(value.trim()));
 		}catch(ConfigurationException e){
-			return false;
+			return defaultValue;
+		}
+	}
+	
+	/** Gets value from configuration as constant of the enum. The value is parsed once after each reading of the file
+	 * 
+	 * @param key Key to get the value for
+	 * @param type Class of the enum
+	 * @return value of the key as constant of the enum
+	 * @throws ConfigurationException if the value is not set or no constant of the enum
+	 */
+	public static <E extends Enum<E>> E getEnumValue(String key, Class<E> type) throws ConfigurationException{
+		return type.cast(getParsedValue(type.getName() + ":" + key, key, value -> Enum.valueOf(type, value.trim())));
+	}
+	
+	/** Gets value from configuration as duration in milliseconds. The value is parsed once after each reading of the file
+	 * 
+	 * @param key Key to get the value for
+	 * @param unit Unit of the value in the configuration (i.e. seconds)
+	 * @return value of the key in milliseconds
+	 * @throws ConfigurationException if the value is not set or not a number
+	 */
+	public static long getDurationValue(String key, TimeUnit unit) throws ConfigurationException{
+		return (Long)getParsedValue(unit + ":" + key, key, value -> unit.toMillis(Long.parseLong(value.trim())));
+	}
+	
+	/** Gets value from configuration as duration in milliseconds or the default value if not set
+	 * 
+	 * @param key Key to get the value for
+	 * @param unit Unit of the value in the configuration and of the default value (i.e. seconds)
+	 * @param defaultValue Value if the key is not set or not a number
+	 * @return value of the key or default value in milliseconds
+	 */
+	public static long getDurationValue(String key, TimeUnit unit, long defaultValue){
+		try{
+			return getDurationValue(key, unit);
+		}catch(ConfigurationException e){
+			return unit.toMillis(defaultValue);
+		}
+	}
+	
+	/** Parser of a configuration value
+	 * 
+	 */
+	private interface Parser {
+		Object parse(String value);
+	}
+	
+	/** Cached configuration and the values parsed from it. A reading of the file replaces both together,
+	 * so a parsed value always belongs to the configuration it was parsed from
+	 * 
+	 */
+	private static final class Snapshot {
+		private final Properties properties;
+		private final ConcurrentMap<String, Object> parsedValues = new ConcurrentHashMap<>();
+		
+		private Snapshot(Properties properties){
+			this.properties = properties;
+		}
+	}
+	
+	/** Gets parsed value from the cached configuration or parses and caches the value
+	 * 
+	 * @param cacheKey Key of the parsed value with type and configuration key
+	 * @param key Key to get the value for
+	 * @param parser Parser of the configuration value
+	 * @return parsed value
+	 * @throws ConfigurationException if the value is not set or malformed
+	 */
+	private static Object getParsedValue(String cacheKey, String key, Parser parser) throws ConfigurationException{
+		Snapshot snapshot = snapshot();
+		Object value = snapshot.parsedValues.get(cacheKey);
+		if(value == null){
+			try{
+				value = parser.parse(getValue(snapshot.properties, key));
+			}catch(IllegalArgumentException e){
+				throw new ConfigurationException(e, ConfigurationException.Error.ValueMalformed);
+			}
+			snapshot.parsedValues.putIfAbsent(cacheKey, value);
+		}
+		return value;
+	}
+	
+	/** Sets key and value or updated key if existing
+	 * 
+	 * @param key Key to get the value for
+	 * @param value Value of the key
+	 * @return true if value is set, false of an error occurs
+	 */
+	public static boolean setValue(String key, String value) {
+		synchronized(lock){
+			Properties configuration = new Properties();
+			try{
+				configuration.putAll(load());
+			}catch(ConfigurationException e){
+			}
+			configuration.setProperty(key, value);
+			try{
+				return save(configuration);
+			}catch(ConfigurationException e){
+				return false;
+			}
 		}
 	}
 	
@@ -175,9 +460,12 @@ public class SystemConfiguration{
 	 * @return configuration file as File object
 	 */
 	public static File getFile(){
-		String classesFolder = SystemConfiguration.class.getClassLoader().getResource("/").getPath();
-		String directory = classesFolder.substring(0, classesFolder.length()-16);
-		return new File(directory+"configuration");
+		if(file == null){
+			String classesFolder = SystemConfiguration.class.getClassLoader().getResource("/").getPath();
+			String directory = classesFolder.substring(0, classesFolder.length()-16);
+			file = new File(directory+"configuration");
+		}
+		return file;
 	}
 
 }
@@ -0,0 +1,120 @@
+package de.geofencing.system;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.beacon.SystemBeacon;
+import de.geofencing.system.beacon.SystemBeaconPool;
+
+/** Holds the current TopologySnapshot of the system, shared by all instances of the GeofencingSystem.
+ * The snapshot is loaded on the first use and replaced as a whole after each change of 
+ * Geofences, beacons or Events (copy on write), so the device updates read it without lock 
+ * and without accessing the database.
+ * 
+ * Changes by other nodes are not noticed: In multi-node setups the snapshot has to be reloaded, 
+ * i.e. with the reload of the web service (POST /topology/reload), after changes on another node.
+ * 
+ * @author Markus Thral
+ *
+ */
+public class Topology {
+	
+	private static volatile Topology instance;
+	
+	private volatile TopologySnapshot snapshot;
+	private volatile long reloadDuration;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong foreign = new AtomicLong();
+	
+	private Topology(){
+		snapshot = TopologySnapshot.empty();
+		reload();
+	}
+	
+	/** Gets the shared topology. The snapshot is loaded on the first call
+	 * 
+	 * @return Topology of the system
+	 */
+	public static Topology getInstance(){
+		if(instance == null){
+			synchronized(Topology.class){
+				if(instance == null){
+					instance = new Topology();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/** Gets the current snapshot. The snapshot is not changed, 
+	 * changes of the system are visible in the next snapshot
+	 * 
+	 * @return current TopologySnapshot
+	 */
+	public TopologySnapshot getSnapshot(){
+		return snapshot;
+	}
+	
+	/** Loads Geofences, beacons and Events from the database and replaces the current snapshot
+	 * 
+	 * @return version of the new snapshot
+	 */
+	public synchronized long reload(){
+		long start = System.nanoTime();
+		TopologySnapshot loaded = TopologySnapshot.load(snapshot.getVersion() + 1);
+		snapshot = loaded;
+		SystemBeaconPool.publish(loaded.beacons());
+		reloadDuration = (System.nanoTime() - start) / 1000000;
+		LogEntry.c("Topology version " + loaded.getVersion() + " loaded: " + loaded.geofenceCount() + " Geofences, " 
+				+ loaded.beaconCount() + " beacons, " + loaded.eventCount() + " Events in " + reloadDuration + " ms");
+		return loaded.getVersion();
+	}
+	
+	/** Gets the registered beacon to the reported beacon.
+	 * Beacons with other UUID than the registered beacon are rejected
+	 * 
+	 * @param current Snapshot to look in
+	 * @param beacon Reported SystemBeacon
+	 * @return registered SystemBeacon with location description or null if not registered
+	 */
+	public SystemBeacon getBeacon(TopologySnapshot current, SystemBeacon beacon){
+		SystemBeacon registered = current.getBeacon(beacon.key());
+		if(registered == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		if(registered.getUUID() == null || !registered.getUUID().equals(beacon.getUUID())){
+			foreign.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return registered;
+	}
+	
+	/** Gets statistics of the topology: version, size of the snapshot, hits, misses and rejected 
+	 * foreign beacons of the beacon lookups, hit rate and duration (ms) and time of the last reload
+	 * 
+	 * @return Map with the statistic values
+	 */
+	public Map<String, Object> getStatistics(){
+		TopologySnapshot current = snapshot;
+		long hitCount = hits.get();
+		long lookups = hitCount + misses.get() + foreign.get();
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("version", current.getVersion());
+		statistics.put("geofences", current.geofenceCount());
+		statistics.put("beacons", current.beaconCount());
+		statistics.put("events", current.eventCount());
+		statistics.put("hits", hitCount);
+		statistics.put("misses", misses.get());
+		statistics.put("foreign", foreign.get());
+		statistics.put("hitRate", lookups > 0 ? (double)hitCount / lookups : 0.0);
+		statistics.put("reloadDuration", reloadDuration);
+		statistics.put("lastReload", current.getCreated());
+		return statistics;
+	}
+}
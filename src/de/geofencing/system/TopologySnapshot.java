@@ -0,0 +1,138 @@
+package de.geofencing.system;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.geofencing.database.GeofencingDBConnector;
+import de.geofencing.event.Event;
+import de.geofencing.event.Trigger;
+import de.geofencing.system.beacon.SystemBeacon;
+import de.geofencing.system.geofence.Geofence;
+import de.geofencing.util.LongHashMap;
+
+/** Immutable state of the Geofences, their beacons and Events at one point of time.
+ * Geofences are indexed by minor, beacons by minor and major (SystemBeacon.key) 
+ * and Events by their Geofence, which partitions them by the Trigger.Direction they are triggered by.
+ * 
+ * A snapshot is never modified after it is created, so it can be read by any thread without lock.
+ * The contained objects must not be modified either.
+ * 
+ * @author Markus Thral
+ *
+ */
+public final class TopologySnapshot {
+	
+	private static final Event[] noEvents = new Event[0];
+	
+	private final long version;
+	private final long created;
+	private final LongHashMap<Geofence> geofences;
+	private final LongHashMap<SystemBeacon> beacons;
+	private final int eventCount;
+	
+	private TopologySnapshot(long version, List<Geofence> geofenceList, 
+			Iterable<SystemBeacon> beaconList, List<Event> eventList){
+		this.version = version;
+		this.created = System.currentTimeMillis();
+		
+		this.geofences = new LongHashMap<>(geofenceList.size());
+		for(Geofence geofence : geofenceList){
+			geofences.put(geofence.getMinor(), geofence);
+		}
+		
+		this.beacons = new LongHashMap<>();
+		for(SystemBeacon beacon : beaconList){
+			beacons.put(beacon.key(), beacon);
+			Geofence geofence = geofences.get(beacon.getMinor());
+			if(geofence != null){
+				geofence.addBeacon(beacon);
+			}
+		}
+		
+		for(Event event : eventList){
+			Geofence geofence = geofences.get(event.getMinor());
+			if(geofence != null){
+				geofence.addEvent(event);
+			}
+		}
+		this.eventCount = eventList.size();
+	}
+	
+	/** Loads Geofences, beacons and Events from the database
+	 * 
+	 * @param version Version of the new snapshot
+	 * @return TopologySnapshot with the current state of the database
+	 */
+	public static TopologySnapshot load(long version){
+		return new TopologySnapshot(version, 
+				GeofencingDBConnector.findGeofences(), 
+				GeofencingDBConnector.findBeacons(), 
+				GeofencingDBConnector.findEvents());
+	}
+	
+	/** Creates snapshot without Geofences
+	 * 
+	 * @return empty TopologySnapshot with version zero
+	 */
+	public static TopologySnapshot empty(){
+		return new TopologySnapshot(0, new ArrayList<Geofence>(), 
+				new ArrayList<SystemBeacon>(), new ArrayList<Event>());
+	}
+	
+	public long getVersion(){
+		return version;
+	}
+	
+	public long getCreated(){
+		return created;
+	}
+	
+	/** Gets Geofence with its beacons and Events
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @return Geofence or null if not existing
+	 */
+	public Geofence getGeofence(int minor){
+		return geofences.get(minor);
+	}
+	
+	/** Gets registered beacon
+	 * 
+	 * @param key Minor and major of the beacon (SystemBeacon.key)
+	 * @return SystemBeacon or null if not registered
+	 */
+	public SystemBeacon getBeacon(long key){
+		return beacons.get(key);
+	}
+	
+	/** Gets all registered beacons, the map must not be modified
+	 * 
+	 * @return beacons by SystemBeacon.key
+	 */
+	LongHashMap<SystemBeacon> beacons(){
+		return beacons;
+	}
+	
+	/** Gets Events of the Geofence which are triggered by the given direction
+	 * 
+	 * @param minor Minor of the Geofence
+	 * @param direction Direction of the movement of the Device
+	 * @return Array of the Events, empty if there are none
+	 */
+	public Event[] getEvents(int minor, Trigger.Direction direction){
+		Geofence geofence = geofences.get(minor);
+		return geofence != null ? geofence.getEvents(direction) : noEvents;
+	}
+	
+	public int geofenceCount(){
+		return geofences.size();
+	}
+	
+	public int beaconCount(){
+		return beacons.size();
+	}
+	
+	public int eventCount(){
+		return eventCount;
+	}
+}
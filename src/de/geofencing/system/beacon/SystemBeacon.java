@@ -5,7 +5,8 @@ import java.util.Comparator;
 import java.util.UUID;
 
 /** Represents a beacon in the system with location description
- * or in range of a device without location description
+ * or in range of a device without location description.
+ * Beacons are immutable, so registered beacons are shared by SystemBeaconPool
  * 
  * @author Markus Thral
  *
@@ -17,7 +18,8 @@ public class SystemBeacon implements Serializable, Comparator<SystemBeacon>{
     private final UUID uuid;
 	private final int major;
 	private final int minor;
-	private String location;
+	private final String location;
+	private transient int hash;
 	
 	/** Constructor for serializing
 	 * 
@@ -76,17 +78,44 @@ public class SystemBeacon implements Serializable, Comparator<SystemBeacon>{
 		return minor;
 	}
 	
-	public void setLocation(String location) {
-		this.location = location;
+	/** Creates copy of the beacon with the given location description
+	 * 
+	 * @param location Location description of the beacon
+	 * @return new SystemBeacon with UUID, major and minor of this beacon
+	 */
+	public SystemBeacon withLocation(String location) {
+		return new SystemBeacon(uuid, major, minor, location);
+	}
+	
+	/** Gets minor and major packed in one long, i.e. as key of a LongHashMap
+	 * 
+	 * @return minor in the upper and major in the lower 32 bits
+	 */
+	public long key() {
+		return toKey(minor, major);
+	}
+	
+	/** Packs minor and major in one long
+	 * 
+	 * @param minor Minor of the beacon
+	 * @param major Major of the beacon
+	 * @return minor in the upper and major in the lower 32 bits
+	 */
+	public static long toKey(int minor, int major) {
+		return ((long)minor << 32) | (major & 0xFFFFFFFFL);
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((uuid == null) ? 0 : uuid.hashCode());
-		result = prime * result + major;
-		result = prime * result + minor;
+		int result = hash;
+		if (result == 0) {
+			final int prime = 31;
+			result = 1;
+			result = prime * result + ((uuid == null) ? 0 : uuid.hashCode());
+			result = prime * result + major;
+			result = prime * result + minor;
+			hash = result;
+		}
 		return result;
 	}
 
@@ -99,16 +128,13 @@ public class SystemBeacon implements Serializable, Comparator<SystemBeacon>{
 		if (getClass() != obj.getClass())
 			return false;
 		SystemBeacon other = (SystemBeacon) obj;
-		if (uuid == null) {
-			if (other.uuid != null)
-				return false;
-		} else if (!uuid.equals(other.uuid))
-			return false;
 		if (major != other.major)
 			return false;
 		if (minor != other.minor)
 			return false;
-		return true;
+		if (uuid == other.uuid)
+			return true;
+		return uuid != null && uuid.equals(other.uuid);
 	}
 
 	@Override
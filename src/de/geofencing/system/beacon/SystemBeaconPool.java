@@ -0,0 +1,96 @@
+package de.geofencing.system.beacon;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import de.geofencing.util.LongHashMap;
+
+/** Flyweight factory for SystemBeacon objects. 
+ * Returns the canonical instance of a registered beacon (same UUID, minor, major and location) 
+ * instead of a new object, so the beacons of every Device share the objects of the registered beacons.
+ * UUIDs of registered beacons are interned, i.e. the UUID of the system is read without parsing.
+ * 
+ * The canonical beacons are published with each topology snapshot and 
+ * replaced as a whole, so the pool is read without lock.
+ * 
+ * @author Markus Thral
+ *
+ */
+public final class SystemBeaconPool {
+	
+	private static volatile LongHashMap<SystemBeacon> canonical = new LongHashMap<>();
+	private static volatile Map<String, UUID> uuids = new HashMap<>();
+	
+	private SystemBeaconPool(){}
+	
+	/** Publishes the registered beacons as canonical instances, replaces the previous ones.
+	 * The map must not be modified afterwards
+	 * 
+	 * @param beacons registered beacons by SystemBeacon.key
+	 */
+	public static void publish(LongHashMap<SystemBeacon> beacons){
+		Map<String, UUID> interned = new HashMap<>();
+		for(SystemBeacon beacon : beacons.values()){
+			if(beacon.getUUID() != null){
+				UUID uuid = interned.get(beacon.getUUID().toString());
+				if(uuid == null){
+					interned.put(beacon.getUUID().toString(), beacon.getUUID());
+				}
+			}
+		}
+		uuids = interned;
+		canonical = beacons;
+	}
+	
+	/** Gets interned UUID, parses the String if the UUID is not used by a registered beacon
+	 * 
+	 * @param uuid UUID as String
+	 * @return UUID object or null if the String is null
+	 */
+	public static UUID uuid(String uuid){
+		if(uuid == null){
+			return null;
+		}
+		UUID interned = uuids.get(uuid);
+		return interned != null ? interned : UUID.fromString(uuid);
+	}
+	
+	/** Gets canonical beacon with the given values or a new beacon if not registered
+	 * 
+	 * @param uuid UUID of the beacon as String
+	 * @param major Major of the beacon
+	 * @param minor Minor of the beacon
+	 * @param location Location description of the beacon
+	 * @return SystemBeacon with the given values
+	 */
+	public static SystemBeacon of(String uuid, int major, int minor, String location){
+		return of(uuid(uuid), major, minor, location);
+	}
+	
+	/** Gets canonical beacon with the given values or a new beacon if not registered
+	 * 
+	 * @param uuid UUID of the beacon
+	 * @param major Major of the beacon
+	 * @param minor Minor of the beacon
+	 * @param location Location description of the beacon
+	 * @return SystemBeacon with the given values
+	 */
+	public static SystemBeacon of(UUID uuid, int major, int minor, String location){
+		SystemBeacon registered = canonical.get(SystemBeacon.toKey(minor, major));
+		if(registered != null && Objects.equals(registered.getUUID(), uuid) 
+				&& Objects.equals(registered.getLocation(), location)){
+			return registered;
+		}
+		return new SystemBeacon(uuid, major, minor, location);
+	}
+	
+	/** Gets amount of canonical beacons
+	 * 
+	 * @return amount of registered beacons in the pool
+	 */
+	public static int size(){
+		return canonical.size();
+	}
+}
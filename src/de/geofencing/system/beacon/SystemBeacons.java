@@ -2,14 +2,20 @@ package de.geofencing.system.beacon;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import de.geofencing.event.BeaconChange;
 import de.geofencing.system.exceptions.NotFoundException;
+import de.geofencing.util.LongHashMap;
 
 /** Represents a list of beacons and can compare 
- * two lists and generate a BeaconChange log
+ * two lists and generate a BeaconChange log.
+ * Beacons are unique by minor and major and kept in the order they are added,
+ * lookups use an index by the key of the beacons, which is built on first use
  *  
  * @author Markus Thral
  *
@@ -19,6 +25,7 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
 	private static final long serialVersionUID = 1L;
 
 	private List<SystemBeacon> beaconList;
+	private transient LongHashMap<SystemBeacon> index;
 	
 	/** Creates a new list of beacons
 	 * 
@@ -29,10 +36,10 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
 
 	/** Returns list of all beacons as List object
 	 * 
-	 * @return List of all beacons
+	 * @return List of all beacons, not modifiable
 	 */
 	public List<SystemBeacon> getBeaconList() {
-		return beaconList;
+		return Collections.unmodifiableList(beaconList);
 	}
 	
 	/** Returns amount of beacons in the list
@@ -65,31 +72,62 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
 	 * @throws NotFoundException if beacon not found
 	 */
 	public SystemBeacon getBeacon(int major, int minor) throws NotFoundException{
-		for(SystemBeacon b : beaconList){
-			if(b.getMajor() == major && b.getMinor() == minor ){
-				return b;
-			}
+		SystemBeacon beacon = this.index().get(SystemBeacon.toKey(minor, major));
+		if(beacon != null){
+			return beacon;
 		}
 		throw new NotFoundException("Beacon "+major+":"+minor);
 	}
 
-	/** Sets given list of beacons as new beacon list
+	/** Sets given list of beacons as new beacon list, 
+	 * beacons with the same minor and major as a previous beacon are skipped
 	 * 
 	 * @param beaconList List of beacons to be set
 	 */
 	private void setBeaconList(List<SystemBeacon> beaconList) {
-		this.beaconList = beaconList;
+		this.beaconList = new ArrayList<>(beaconList.size());
+		this.index = null;
+		for(SystemBeacon b : beaconList){
+			this.addBeacon(b);
+		}
+	}
+	
+	/** Gets index of the beacons by their key, builds it if not existing
+	 * 
+	 * @return LongHashMap with the beacons of the list
+	 */
+	private LongHashMap<SystemBeacon> index(){
+		if(index == null){
+			LongHashMap<SystemBeacon> built = new LongHashMap<>(beaconList.size());
+			for(int i = 0; i < beaconList.size(); i++){
+				SystemBeacon b = beaconList.get(i);
+				built.put(b.key(), b);
+			}
+			index = built;
+		}
+		return index;
+	}
+	
+	/** Checks if the given beacon is contained in the list
+	 * 
+	 * @param b Beacon to be checked
+	 * @return true if beacon contained
+	 */
+	public boolean containsBeacon(SystemBeacon b){
+		return b.equals(this.index().get(b.key()));
 	}
 	
 	/** Adds beacon to the list
 	 * 
 	 * @param b Beacon which should be added
-	 * @return true if beacon added, false if not
+	 * @return true if beacon added, false if beacon with same minor and major already contained
 	 */
 	public boolean addBeacon(SystemBeacon b){
-		if(beaconList.contains(b)){
+		LongHashMap<SystemBeacon> index = this.index();
+		if(index.containsKey(b.key())){
 			return false;
 		}
+		index.put(b.key(), b);
 		return beaconList.add(b);
 	}
 	
@@ -100,8 +138,9 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
 	 * @throws NotFoundException if the beacon is not found
 	 */
 	public boolean removeBeacon(SystemBeacon b) throws NotFoundException{
-		if(beaconList.remove(b)){
-			return true;
+		if(this.containsBeacon(b)){
+			index.remove(b.key());
+			return beaconList.remove(b);
 		}
 		throw new NotFoundException("Beacon " + b.getMajor()+":"+b.getMinor());
 	}
@@ -111,6 +150,7 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
 	 */
     public void removeAll(){
     	this.beaconList.clear();
+    	this.index = null;
     }
 	
 	/** Iterator for iterating through the list
@@ -118,21 +158,60 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
 	 */
     @Override
     public Iterator<SystemBeacon> iterator() {
-        return beaconList.iterator();
+        return Collections.unmodifiableList(beaconList).iterator();
     }
     
-	/** Compares SystemBeacons object with this object and updates this object
+    /** Gets minors of the Geofences of the beacons
+     * 
+     * @param beacons List of beacons
+     * @return Minors in the order of their first beacon
+     */
+    private static Set<Integer> minors(List<SystemBeacon> beacons){
+    	Set<Integer> minors = new LinkedHashSet<>();
+    	for(int i = 0; i < beacons.size(); i++){
+    		minors.add(beacons.get(i).getMinor());
+    	}
+    	return minors;
+    }
+    
+    /** Checks if the given list contains the same beacons in the same order, 
+     * which is the common case of an update without change
+     * 
+     * @param other SystemBeacons to be compared
+     * @return true if equal beacons at every position
+     */
+    private boolean equalsInOrder(SystemBeacons other){
+    	if(beaconList.size() != other.beaconList.size()){
+    		return false;
+    	}
+    	for(int i = 0; i < beaconList.size(); i++){
+    		if(!beaconList.get(i).equals(other.beaconList.get(i))){
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
+	/** Compares SystemBeacons object with this object and updates this object.
+	 * Unchanged lists in the same order are detected without allocations,
+	 * else both lists are compared by their index in O(n+m).
+	 * A changed list is also compared by the minors of its Geofences
      * 
      * @param updated  Updated list of beacons as SystemBeacons object
      * @return BeaconChangeLog object with new and missing beacons, null if lists are equals
      */
     public BeaconChange compare(SystemBeacons updated){
-    	int listSize = this.beaconCount(); 
+    	if(this.equalsInOrder(updated)){
+    		return null;
+    	}
+    	LongHashMap<SystemBeacon> current = this.index();
+    	int common = 0;
     	BeaconChange beaconChange = null;
-    	for (SystemBeacon beacon : updated){
-    		if(beaconList.contains(beacon)){
+    	for(int i = 0; i < updated.beaconList.size(); i++){
+    		SystemBeacon beacon = updated.beaconList.get(i);
+    		if(beacon.equals(current.get(beacon.key()))){
     			//beacon in both lists
-    			listSize--;    		
+    			common++;
     		}
     		else{
     			//beacon only in updatedList
@@ -142,11 +221,12 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
     			beaconChange.addEnteredBeacon(beacon);
     		}
     	}
-    	if(listSize >0){
-    		//some (listSize) beacons missing
-        	for (SystemBeacon beacon : beaconList){
-        		if(!updated.beaconList.contains(beacon)){
-        			
+    	if(common < beaconList.size()){
+    		//some beacons missing
+    		LongHashMap<SystemBeacon> next = updated.index();
+        	for(int i = 0; i < beaconList.size(); i++){
+        		SystemBeacon beacon = beaconList.get(i);
+        		if(!beacon.equals(next.get(beacon.key()))){
         			//beacon only in beaconList
         			if(beaconChange == null){
         				beaconChange = new BeaconChange();
@@ -156,8 +236,22 @@ public class SystemBeacons implements Serializable, Iterable<SystemBeacon>{
         	}
     	}
 		if(beaconChange != null){
+			//Geofences entered or left as a whole
+			Set<Integer> before = minors(beaconList);
+			Set<Integer> after = minors(updated.beaconList);
+			for(Integer minor : after){
+				if(!before.contains(minor)){
+					beaconChange.addEnteredGeofence(minor);
+				}
+			}
+			for(Integer minor : before){
+				if(!after.contains(minor)){
+					beaconChange.addLeftGeofence(minor);
+				}
+			}
 	    	//Overwrite this list with updated list
-	    	this.setBeaconList(updated.getBeaconList());
+	    	this.beaconList = updated.beaconList;
+	    	this.index = updated.index;
 	    }
     	return beaconChange;
     }
@@ -66,6 +66,22 @@ public class Device implements Serializable{
 		this.firebaseToken = firebaseToken;
 	}
 	
+	/** Creates Device with all values, i.e. when read from the database
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @param address Mail address of the Device
+	 * @param lastTimeUpdated Time of the last update of the beacons in milliseconds
+	 * @param firebaseToken Firebase token of the Device or null
+	 * @param beacons Beacons in range of the Device
+	 */
+	public Device(int deviceID, String address, long lastTimeUpdated, String firebaseToken, SystemBeacons beacons){
+		this.deviceID = deviceID;
+		this.address = address;
+		this.lastTimeUpdated = lastTimeUpdated;
+		this.beacons = beacons;
+		this.firebaseToken = firebaseToken;
+	}
+	
 	public int getDeviceID() {
 		return deviceID;
 	}
@@ -0,0 +1,348 @@
+package de.geofencing.system.device;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.SystemConfiguration;
+import de.geofencing.system.exceptions.NotFoundException;
+
+/** Processes the updates of the Devices on a fixed set of single threaded lanes.
+ * A Device is always processed by the lane chosen by the hash of its deviceID,
+ * so updates of the same Device never run concurrently and different Devices are spread over the lanes.
+ *
+ * Each lane keeps the latest update of each Device waiting for the lane (latest wins):
+ * an update replacing a waiting update of the same Device conflates it,
+ * so a burst of stale updates is processed once with the newest one.
+ * The callers of conflated updates get the result of the update which replaced theirs.
+ * A batch of several Devices is processed with one update on each lane, in order with the updates of its Devices.
+ * Updates must not block the lane: waiting for triggered Event executions (eventAcknowledge=Executed)
+ * and executions of a full bulkhead (eventOverflow=CallerRuns) are collected with EventExecutor.collect
+ * and done by the caller after the update is processed.
+ *
+ * Configuration values: deviceLanes (default number of processors)
+ * and deviceUpdateTimeout (s, default 30) the caller waits for the result
+ *
+ * @author Markus Thral
+ *
+ */
+public class DeviceLanes {
+
+	/** Configuration key of the number of lanes
+	 */
+	public static final String deviceLanes = "deviceLanes";
+	/** Configuration key of the time in seconds a caller waits for the processing of its update
+	 */
+	public static final String deviceUpdateTimeout = "deviceUpdateTimeout";
+
+	private static final long defaultTimeout = 30;
+
+	/** Update of a Device processed on its lane
+	 */
+	public interface Update {
+		void run() throws NotFoundException;
+	}
+
+	/** Update of the Devices of a batch, which are processed on the same lane
+	 */
+	public interface Batch {
+		void run(List<Integer> deviceIDs);
+	}
+
+	private static volatile DeviceLanes instance;
+
+	private final Lane[] lanes;
+	private final long timeout;
+	private final long started = System.nanoTime();
+	private final AtomicLong batches = new AtomicLong();
+	private volatile boolean shutdown;
+
+	private DeviceLanes(){
+		int count = Math.max(1, SystemConfiguration.getIntValue(deviceLanes, Runtime.getRuntime().availableProcessors()));
+		timeout = Math.max(1, SystemConfiguration.getDurationValue(deviceUpdateTimeout, TimeUnit.SECONDS, defaultTimeout));
+		lanes = new Lane[count];
+		for(int i = 0; i < count; i++){
+			lanes[i] = new Lane(i);
+		}
+	}
+
+	/** Gets the shared lanes, which are started on the first call
+	 *
+	 * @return DeviceLanes of the system
+	 */
+	public static DeviceLanes getInstance(){
+		if(instance == null){
+			synchronized(DeviceLanes.class){
+				if(instance == null){
+					instance = new DeviceLanes();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Processes the update on the lane of the Device and waits for the result.
+	 * If a newer update of the Device arrives while waiting, the result of the newer update is returned
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param update Update of the Device
+	 * @throws NotFoundException if the Device is not existing
+	 */
+	public void process(int deviceID, Update update) throws NotFoundException{
+		this.await(deviceID, this.submit(deviceID, update));
+	}
+
+	/** Waits for the result of a submitted update of the Device
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param result Future of the submitted update
+	 * @throws NotFoundException if the Device is not existing
+	 */
+	public void await(int deviceID, CompletableFuture<Void> result) throws NotFoundException{
+		this.await("Update of Device " + deviceID, result);
+	}
+
+	/** Processes the batch on the lanes of its Devices: each lane runs the batch once with its Devices
+	 *
+	 * @param deviceIDs DeviceIDs of the Devices in the batch
+	 * @param batch Update of the Devices of a lane
+	 * @return Futures completed after each lane processed its part of the batch
+	 */
+	public List<CompletableFuture<Void>> submitAll(Collection<Integer> deviceIDs, Batch batch){
+		Map<Integer, List<Integer>> parts = new LinkedHashMap<>();
+		for(int deviceID : deviceIDs){
+			parts.computeIfAbsent(lane(deviceID), key -> new ArrayList<>()).add(deviceID);
+		}
+		long key = -batches.incrementAndGet();
+		List<CompletableFuture<Void>> results = new ArrayList<>(parts.size());
+		for(Map.Entry<Integer, List<Integer>> part : parts.entrySet()){
+			results.add(lanes[part.getKey()].offer(key, () -> batch.run(part.getValue())));
+		}
+		return results;
+	}
+
+	/** Waits until the lanes processed their parts of the batch
+	 *
+	 * @param results Futures of the parts of the batch
+	 */
+	public void awaitAll(List<CompletableFuture<Void>> results){
+		try{
+			this.await("Batch", CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()])));
+		}catch(NotFoundException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Waits for the result of an update until the timeout
+	 *
+	 * @param name Name of the update in the error message
+	 * @param result Future of the update
+	 * @throws NotFoundException if the Device is not existing
+	 */
+	private void await(String name, CompletableFuture<Void> result) throws NotFoundException{
+		try{
+			result.get(timeout, TimeUnit.MILLISECONDS);
+		}catch(ExecutionException e){
+			if(e.getCause() instanceof NotFoundException){
+				throw (NotFoundException)e.getCause();
+			}
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException)e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}catch(TimeoutException e){
+			throw new IllegalStateException(name + " not processed after " + timeout + " ms");
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Puts the update in the mailbox of the Device on its lane, replacing a waiting update
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param update Update of the Device
+	 * @return Future completed after the update or its replacement is processed
+	 */
+	public CompletableFuture<Void> submit(int deviceID, Update update){
+		return lanes[lane(deviceID)].submit(deviceID, update);
+	}
+
+	/** Puts the update in the mailbox of the Device on its lane, if no update of the Device is waiting.
+	 * Otherwise the waiting update is processed instead, i.e. for samples which must not replace a report
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param update Update of the Device
+	 * @return Future completed after the update or the waiting update is processed
+	 */
+	public CompletableFuture<Void> offer(int deviceID, Update update){
+		return lanes[lane(deviceID)].offer((long)deviceID, update);
+	}
+
+	/** Stops the lanes after the update in process, waiting updates are not processed anymore
+	 *
+	 */
+	public void shutdown(){
+		shutdown = true;
+		for(Lane lane : lanes){
+			lane.thread.interrupt();
+		}
+	}
+
+	/** Gets statistics of each lane: Devices waiting, processed and conflated updates
+	 * and the utilization (% of the time busy since the start)
+	 *
+	 * @return Map with the statistics, totals and lanes
+	 */
+	public Map<String, Object> getStatistics(){
+		long elapsed = Math.max(1, System.nanoTime() - started);
+		long processed = 0;
+		long conflated = 0;
+		List<Map<String, Object>> laneStatistics = new ArrayList<>(lanes.length);
+		for(Lane lane : lanes){
+			processed += lane.processed.get();
+			conflated += lane.conflated.get();
+			laneStatistics.add(lane.getStatistics(elapsed));
+		}
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("lanes", lanes.length);
+		statistics.put("processed", processed);
+		statistics.put("conflated", conflated);
+		statistics.put("laneStatistics", laneStatistics);
+		return statistics;
+	}
+
+	private int lane(int deviceID){
+		int hash = deviceID * 0x9E3779B9;
+		return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+	}
+
+	/** Single threaded lane with a latest-wins mailbox per Device.
+	 * Mailboxes are keyed by the deviceID or, for a batch, by a negative sequence number
+	 */
+	private final class Lane {
+
+		private final Map<Long, Mail> mailboxes = new ConcurrentHashMap<>();
+		private final BlockingQueue<Long> ready = new LinkedBlockingQueue<>();
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong conflated = new AtomicLong();
+		private final AtomicLong busy = new AtomicLong();
+		private final Thread thread;
+
+		private Lane(int number){
+			thread = new Thread(this::run, "device-lane-" + number);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private CompletableFuture<Void> submit(int deviceID, Update update){
+			Mail mail = new Mail(update);
+			boolean[] waiting = new boolean[1];
+			mailboxes.compute((long)deviceID, (key, previous) -> {
+				if(previous != null){
+					mail.replace(previous);
+					waiting[0] = true;
+				}
+				return mail;
+			});
+			if(waiting[0]){
+				conflated.incrementAndGet();
+			} else{
+				ready.add((long)deviceID);
+			}
+			return mail.result;
+		}
+
+		private CompletableFuture<Void> offer(long key, Update update){
+			Mail mail = new Mail(update);
+			Mail waiting = mailboxes.putIfAbsent(key, mail);
+			if(waiting != null){
+				return waiting.result;
+			}
+			ready.add(key);
+			return mail.result;
+		}
+
+		private void run(){
+			while(!shutdown){
+				long key;
+				try{
+					key = ready.take();
+				}catch(InterruptedException e){
+					if(!shutdown){
+						LogEntry.c("Lane " + thread.getName() + " interrupted while waiting for updates");
+					}
+					continue;
+				}
+				Mail mail = mailboxes.remove(key);
+				if(mail == null){
+					continue;
+				}
+				long start = System.nanoTime();
+				try{
+					mail.update.run();
+					mail.complete(null);
+				}catch(NotFoundException | RuntimeException e){
+					mail.complete(e);
+				}catch(Throwable e){
+					LogEntry.c(e instanceof Exception ? (Exception)e : new IllegalStateException(e));
+					mail.complete(e);
+				}
+				busy.addAndGet(System.nanoTime() - start);
+				processed.incrementAndGet();
+			}
+		}
+
+		private Map<String, Object> getStatistics(long elapsed){
+			Map<String, Object> statistics = new LinkedHashMap<>();
+			statistics.put("waiting", ready.size());
+			statistics.put("processed", processed.get());
+			statistics.put("conflated", conflated.get());
+			statistics.put("utilization", Math.round(busy.get() * 1000.0 / elapsed) / 10.0);
+			return statistics;
+		}
+	}
+
+	/** Waiting update of a Device and the results of the updates it replaced
+	 */
+	private static final class Mail {
+		private final Update update;
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+		private final List<CompletableFuture<Void>> replaced = new ArrayList<>();
+
+		private Mail(Update update){
+			this.update = update;
+		}
+
+		private void replace(Mail previous){
+			replaced.add(previous.result);
+			replaced.addAll(previous.replaced);
+		}
+
+		private void complete(Throwable error){
+			if(error == null){
+				result.complete(null);
+			} else{
+				result.completeExceptionally(error);
+			}
+			for(CompletableFuture<Void> future : replaced){
+				if(error == null){
+					future.complete(null);
+				} else{
+					future.completeExceptionally(error);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package de.geofencing.system.device;
+
+import java.io.Serializable;
+
+import de.geofencing.system.beacon.SystemBeacons;
+
+/** Beacons in range of a Device observed by a gateway, 
+ * i.e. a fixed scanner which reports the beacons of many tagged Devices
+ * 
+ * @author Markus Thral
+ *
+ */
+public class DeviceObservation implements Serializable{
+
+	private static final long serialVersionUID = 1L;
+	
+	/** Result of the observation of a Device:
+	 * Applied if the beacons of the Device changed, Unchanged if not or not confirmed yet,
+	 * NotFound if the Device is not existing, Failed if the beacons couldn't be saved
+	 * 
+	 */
+	public enum Result{Applied, Unchanged, NotFound, Failed};
+	
+	private final int deviceID;
+	private final SystemBeacons beacons;
+	
+	/** Constructor for serialization
+	 * 
+	 */
+	public DeviceObservation(){
+		this.deviceID = -1;
+		this.beacons = null;
+	}
+	
+	/** Creates observation of the Device
+	 * 
+	 * @param deviceID DeviceID of the Device
+	 * @param beacons Beacons in range of the Device
+	 */
+	public DeviceObservation(int deviceID, SystemBeacons beacons){
+		this.deviceID = deviceID;
+		this.beacons = beacons;
+	}
+
+	public int getDeviceID() {
+		return deviceID;
+	}
+
+	public SystemBeacons getBeacons() {
+		return beacons != null ? beacons : new SystemBeacons();
+	}
+}
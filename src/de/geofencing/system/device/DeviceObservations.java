@@ -0,0 +1,39 @@
+package de.geofencing.system.device;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/** List of DeviceObservations reported by a gateway at once
+ * 
+ * @author Markus Thral
+ *
+ */
+public class DeviceObservations implements Iterable<DeviceObservation>, Serializable{
+
+	private static final long serialVersionUID = 1L;
+	
+	private List<DeviceObservation> observationList;
+	
+	public DeviceObservations(){
+		observationList = new ArrayList<>();
+	}
+
+	public List<DeviceObservation> getObservationList(){
+		return observationList;
+	}
+	
+	public int observationCount(){
+		return observationList.size();
+	}
+	
+	public boolean addObservation(DeviceObservation observation){
+		return observationList.add(observation);
+	}
+
+	@Override
+	public Iterator<DeviceObservation> iterator() {
+		return observationList.iterator();
+	}
+}
@@ -2,13 +2,19 @@ package de.geofencing.system.device;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import de.geofencing.system.exceptions.AlreadyExistingException;
 import de.geofencing.system.exceptions.NotFoundException;
+import de.geofencing.util.LongHashMap;
 
 /** Represents a list of Device objects.
+ * Devices are unique by deviceID and address and kept in the order they are added,
+ * lookups use indexes by deviceID and address, which are built on first use
  * 
  * @author Markus Thral
  *
@@ -18,6 +24,8 @@ public class Devices implements Serializable, Iterable<Device> {
 	private static final long serialVersionUID = 1L;
 	
 	private List<Device> deviceList;
+	private transient LongHashMap<Device> byID;
+	private transient Map<String, Device> byAddress;
 	
 	/** Creates a new list of devices
 	 * 
@@ -28,10 +36,27 @@ public class Devices implements Serializable, Iterable<Device> {
 
 	/** Returns all devices as List
 	 * 
-	 * @return List of all devices
+	 * @return List of all devices, not modifiable
 	 */
 	public List<Device> getDeviceList() {
-		return deviceList;
+		return Collections.unmodifiableList(deviceList);
+	}
+	
+	/** Sets given list of devices as new device list, 
+	 * devices with the deviceID or address of a previous device are skipped
+	 * 
+	 * @param deviceList List of devices to be set
+	 */
+	private void setDeviceList(List<Device> deviceList) {
+		this.deviceList = new ArrayList<>(deviceList.size());
+		this.byID = null;
+		this.byAddress = null;
+		for(Device device : deviceList){
+			try {
+				this.addDevice(device);
+			} catch (AlreadyExistingException e) {
+			}
+		}
 	}
 
 	/** Returns amount of devices in the list
@@ -42,6 +67,23 @@ public class Devices implements Serializable, Iterable<Device> {
 		return deviceList.size();
 	}
 	
+	/** Builds the indexes by deviceID and address if not existing
+	 * 
+	 */
+	private void index(){
+		if(byID == null){
+			LongHashMap<Device> ids = new LongHashMap<>(deviceList.size());
+			Map<String, Device> addresses = new HashMap<>(deviceList.size() * 2);
+			for(int i = 0; i < deviceList.size(); i++){
+				Device device = deviceList.get(i);
+				ids.put(device.getDeviceID(), device);
+				addresses.put(device.getAddress(), device);
+			}
+			byAddress = addresses;
+			byID = ids;
+		}
+	}
+	
 	/** Returns Device with the given deviceID
 	 * 
 	 * @param deviceID DeviceID of the Device
@@ -49,10 +91,10 @@ public class Devices implements Serializable, Iterable<Device> {
 	 * @throws NotFoundException if the Device is not found
 	 */
 	public Device getDevice(int deviceID) throws NotFoundException{
-		for(Device device : deviceList){
-			if(device.getDeviceID() == deviceID){
-				return device;
-			}
+		this.index();
+		Device device = byID.get(deviceID);
+		if(device != null){
+			return device;
 		}
 		throw new NotFoundException("Device " + deviceID); 
 	}
@@ -64,10 +106,10 @@ public class Devices implements Serializable, Iterable<Device> {
 	 * @throws NotFoundException if the Device is not found
 	 */
 	public Device getDevice(String address) throws NotFoundException{
-		for(Device device : deviceList){
-			if(device.getAddress().equals(address)){
-				return device;
-			}
+		this.index();
+		Device device = byAddress.get(address);
+		if(device != null){
+			return device;
 		}
 		throw new NotFoundException("Device " + address);
 	}
@@ -76,10 +118,13 @@ public class Devices implements Serializable, Iterable<Device> {
 	 * 
 	 * @param device Device which should be added
 	 * @return true if adding succeeded
-	 * @throws AlreadyExistingException if deviceID already exisiting 
+	 * @throws AlreadyExistingException if deviceID or address already exisiting 
 	 */
 	public boolean addDevice(Device device) throws AlreadyExistingException{
-		if(!deviceList.contains(device)){
+		this.index();
+		if(!byID.containsKey(device.getDeviceID()) && !byAddress.containsKey(device.getAddress())){
+			byID.put(device.getDeviceID(), device);
+			byAddress.put(device.getAddress(), device);
 			return deviceList.add(device);
 		}
 		throw new AlreadyExistingException("Device " + device.getDeviceID()
@@ -91,6 +136,6 @@ public class Devices implements Serializable, Iterable<Device> {
 	 */
     @Override
     public Iterator<Device> iterator() {
-        return deviceList.iterator();
+        return Collections.unmodifiableList(deviceList).iterator();
     }
 }
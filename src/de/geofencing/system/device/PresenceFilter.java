@@ -0,0 +1,377 @@
+package de.geofencing.system.device;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.geofencing.event.EventExecutor;
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.SystemConfiguration;
+import de.geofencing.system.beacon.SystemBeacon;
+import de.geofencing.system.beacon.SystemBeacons;
+import de.geofencing.system.exceptions.NotFoundException;
+import de.geofencing.util.LongHashMap;
+
+/** Debounces the beacons reported by the Devices, so a beacon at the edge of its range
+ * does not enter and leave with every scan. Only confirmed beacons are applied to the Device:
+ * a beacon is confirmed if it is seen in presenceEnterCount of the last presenceEnterWindow samples,
+ * a confirmed beacon is left if it is not seen for presenceLeaveGrace seconds
+ * and was confirmed at least presenceMinDwell seconds.
+ * Reports which do not change the confirmed beacons are neither saved nor trigger Events.
+ *
+ * Devices only report changes, so the last report of a Device with undecided beacons
+ * is sampled again every presenceSampleInterval seconds on the lane of the Device (DeviceLanes)
+ * and confirmed changes are applied by the Handler. A sample is skipped if an update of the Device is waiting on the lane.
+ * The first report of a Device after the start is confirmed as it is, because the saved beacons are unknown.
+ * If applying fails, the confirmed beacons are applied as a whole with the next sample,
+ * the beacons reported until then still have to be confirmed.
+ * Without configuration every report is applied as it is.
+ *
+ * @author Markus Thral
+ *
+ */
+public class PresenceFilter {
+
+	/** Configuration key of the samples a beacon has to be seen in to be confirmed
+	 */
+	public static final String presenceEnterCount = "presenceEnterCount";
+	/** Configuration key of the number of last samples (max. 64) the presenceEnterCount is counted in
+	 */
+	public static final String presenceEnterWindow = "presenceEnterWindow";
+	/** Configuration key of the time in seconds a confirmed beacon has to be missing before it is left
+	 */
+	public static final String presenceLeaveGrace = "presenceLeaveGrace";
+	/** Configuration key of the time in seconds a beacon has to be confirmed before it can be left
+	 */
+	public static final String presenceMinDwell = "presenceMinDwell";
+	/** Configuration key of the time in seconds the last report of a Device with undecided beacons is sampled again
+	 */
+	public static final String presenceSampleInterval = "presenceSampleInterval";
+
+	/** Applies confirmed beacons to the Device
+	 */
+	public interface Handler {
+		void apply(int deviceID, SystemBeacons confirmed) throws NotFoundException;
+	}
+
+	private static volatile PresenceFilter instance;
+
+	private final Map<Integer, DeviceState> devices = new ConcurrentHashMap<>();
+	private final Set<Integer> undecided = ConcurrentHashMap.newKeySet();
+	private final int enterCount;
+	private final long windowMask;
+	private final long leaveGrace;
+	private final long minDwell;
+	private final boolean enabled;
+	private volatile Handler handler;
+
+	private final AtomicLong reports = new AtomicLong();
+	private final AtomicLong applied = new AtomicLong();
+	private final AtomicLong suppressed = new AtomicLong();
+	private final AtomicLong sampled = new AtomicLong();
+	private final AtomicLong enterConfirmed = new AtomicLong();
+	private final AtomicLong enterDiscarded = new AtomicLong();
+	private final AtomicLong leaveConfirmed = new AtomicLong();
+	private final AtomicLong leaveCancelled = new AtomicLong();
+
+	private PresenceFilter(){
+		enterCount = Math.max(1, SystemConfiguration.getIntValue(presenceEnterCount, 1));
+		int window = Math.min(64, Math.max(enterCount, SystemConfiguration.getIntValue(presenceEnterWindow, enterCount)));
+		windowMask = window == 64 ? -1L : (1L << window) - 1;
+		leaveGrace = SystemConfiguration.getDurationValue(presenceLeaveGrace, TimeUnit.SECONDS, 0);
+		minDwell = SystemConfiguration.getDurationValue(presenceMinDwell, TimeUnit.SECONDS, 0);
+		enabled = enterCount > 1 || leaveGrace > 0 || minDwell > 0;
+		if(enabled){
+			long interval = Math.max(100, SystemConfiguration.getDurationValue(presenceSampleInterval, TimeUnit.SECONDS, 1));
+			ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "presence-filter");
+				thread.setDaemon(true);
+				return thread;
+			});
+			sampler.scheduleWithFixedDelay(this::sampleUndecided, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Gets the shared filter
+	 *
+	 * @return PresenceFilter of the system
+	 */
+	public static PresenceFilter getInstance(){
+		if(instance == null){
+			synchronized(PresenceFilter.class){
+				if(instance == null){
+					instance = new PresenceFilter();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Sets the Handler which applies the confirmed beacons of the sampled reports
+	 *
+	 * @param handler Handler of the system
+	 */
+	public void setHandler(Handler handler){
+		this.handler = handler;
+	}
+
+	/** Samples the reported beacons of the Device and applies the confirmed beacons with the handler,
+	 * if they changed. The handler is called while the state of the Device is locked,
+	 * so the changes of a Device are applied in order
+	 *
+	 * @param deviceID DeviceID of the reporting Device
+	 * @param reported Beacons in range of the Device
+	 * @param handler Handler which applies the confirmed beacons
+	 * @return true if applied, false if the confirmed beacons did not change
+	 * @throws NotFoundException if the Device is not existing
+	 */
+	public boolean update(int deviceID, SystemBeacons reported, Handler handler) throws NotFoundException{
+		reports.incrementAndGet();
+		if(!enabled){
+			handler.apply(deviceID, reported);
+			applied.incrementAndGet();
+			return true;
+		}
+		DeviceState state = devices.computeIfAbsent(deviceID, key -> new DeviceState());
+		synchronized(state){
+			state.lastReport = reported;
+			SystemBeacons confirmed = this.sample(deviceID, state, System.currentTimeMillis());
+			if(confirmed == null){
+				suppressed.incrementAndGet();
+				return false;
+			}
+			try{
+				handler.apply(deviceID, confirmed);
+			}catch(NotFoundException e){
+				devices.remove(deviceID, state);
+				throw e;
+			}catch(RuntimeException e){
+				//not applied: the next sample applies all confirmed beacons
+				state.confirmed = null;
+				undecided.add(deviceID);
+				throw e;
+			}
+			state.confirmed = confirmed;
+			applied.incrementAndGet();
+			return true;
+		}
+	}
+
+	/** Marks the confirmed beacons of the Device as not applied, i.e. if they are saved later and saving failed.
+	 * The next sample applies all confirmed beacons
+	 *
+	 * @param deviceID DeviceID of the Device
+	 */
+	public void reject(int deviceID){
+		DeviceState state = devices.get(deviceID);
+		if(state == null){
+			return;
+		}
+		synchronized(state){
+			state.confirmed = null;
+		}
+		undecided.add(deviceID);
+	}
+
+	/** Removes the state of the Device, i.e. if the Device is removed
+	 *
+	 * @param deviceID DeviceID of the Device
+	 */
+	public void removeDevice(int deviceID){
+		devices.remove(deviceID);
+		undecided.remove(deviceID);
+	}
+
+	/** Gets statistics of the filter: tracked and undecided Devices, reports, applied and suppressed reports,
+	 * applied samples of undecided Devices, confirmed and discarded enters, confirmed and cancelled leaves
+	 *
+	 * @return Map with the statistics
+	 */
+	public Map<String, Object> getStatistics(){
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("enabled", enabled);
+		statistics.put("devices", devices.size());
+		statistics.put("undecided", undecided.size());
+		statistics.put("reports", reports.get());
+		statistics.put("applied", applied.get());
+		statistics.put("suppressed", suppressed.get());
+		statistics.put("sampled", sampled.get());
+		statistics.put("enterConfirmed", enterConfirmed.get());
+		statistics.put("enterDiscarded", enterDiscarded.get());
+		statistics.put("leaveConfirmed", leaveConfirmed.get());
+		statistics.put("leaveCancelled", leaveCancelled.get());
+		return statistics;
+	}
+
+	/** Samples the last report of the Devices with undecided beacons again on their lanes.
+	 * Waiting for the triggered executions is done by the sampler after the lanes processed the samples
+	 *
+	 */
+	private void sampleUndecided(){
+		Handler current = handler;
+		if(current == null){
+			return;
+		}
+		DeviceLanes lanes = DeviceLanes.getInstance();
+		EventExecutor executor = EventExecutor.getInstance();
+		Map<Integer, List<Runnable>> acknowledgements = new ConcurrentHashMap<>();
+		Map<Integer, CompletableFuture<Void>> samples = new LinkedHashMap<>();
+		for(int deviceID : undecided){
+			samples.put(deviceID, lanes.offer(deviceID, 
+					() -> acknowledgements.put(deviceID, executor.collect(() -> this.sampleAgain(deviceID, current)))));
+		}
+		for(Map.Entry<Integer, CompletableFuture<Void>> sample : samples.entrySet()){
+			try{
+				lanes.await(sample.getKey(), sample.getValue());
+			}catch(NotFoundException | RuntimeException e){
+				//handled by the sample or the caller of the waiting update
+			}
+			List<Runnable> pending = acknowledgements.get(sample.getKey());
+			if(pending != null){
+				executor.acknowledge(pending);
+			}
+		}
+	}
+
+	/** Samples the last report of the Device again and applies the confirmed changes with the handler,
+	 * runs on the lane of the Device
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param current Handler which applies the confirmed beacons
+	 */
+	private void sampleAgain(int deviceID, Handler current){
+		DeviceState state = devices.get(deviceID);
+		if(state == null){
+			undecided.remove(deviceID);
+			return;
+		}
+		try{
+			synchronized(state){
+				SystemBeacons confirmed = this.sample(deviceID, state, System.currentTimeMillis());
+				if(confirmed != null){
+					state.confirmed = null;
+					current.apply(deviceID, confirmed);
+					state.confirmed = confirmed;
+					sampled.incrementAndGet();
+				}
+			}
+		}catch(NotFoundException e){
+			this.removeDevice(deviceID);
+		}catch(RuntimeException e){
+			undecided.add(deviceID);
+			LogEntry.c(e);
+		}
+	}
+
+	/** Adds the last report of the Device as sample and decides the beacons
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param state State of the Device, locked by the caller
+	 * @param now Time of the sample in milliseconds
+	 * @return confirmed beacons if changed, null if unchanged
+	 */
+	private SystemBeacons sample(int deviceID, DeviceState state, long now){
+		SystemBeacons reported = state.lastReport;
+		boolean first = state.firstContact;
+		state.firstContact = false;
+		for(BeaconState beaconState : state.beacons.values()){
+			beaconState.samples = (beaconState.samples << 1) & windowMask;
+		}
+		for(SystemBeacon beacon : reported){
+			BeaconState beaconState = state.beacons.get(beacon.key());
+			if(beaconState == null){
+				beaconState = new BeaconState();
+				state.beacons.put(beacon.key(), beaconState);
+			}
+			beaconState.beacon = beacon;
+			beaconState.samples |= 1;
+			beaconState.lastSeen = now;
+		}
+
+		boolean changed = first || state.confirmed == null;
+		boolean pending = false;
+		for(long key : state.beacons.keys()){
+			BeaconState beaconState = state.beacons.get(key);
+			boolean seen = (beaconState.samples & 1) != 0;
+			if(!beaconState.confirmed){
+				if(first && seen || Long.bitCount(beaconState.samples) >= enterCount){
+					beaconState.confirmed = true;
+					beaconState.confirmedSince = now;
+					beaconState.missing = false;
+					enterConfirmed.incrementAndGet();
+					changed = true;
+				} else if(beaconState.samples == 0){
+					state.beacons.remove(key);
+					enterDiscarded.incrementAndGet();
+				} else{
+					pending = true;
+				}
+			} else if(seen){
+				if(beaconState.missing){
+					beaconState.missing = false;
+					leaveCancelled.incrementAndGet();
+				}
+			} else if(now - beaconState.lastSeen >= leaveGrace && now - beaconState.confirmedSince >= minDwell){
+				beaconState.confirmed = false;
+				leaveConfirmed.incrementAndGet();
+				changed = true;
+				if(beaconState.samples == 0){
+					state.beacons.remove(key);
+				} else{
+					pending = true;
+				}
+			} else{
+				beaconState.missing = true;
+				pending = true;
+			}
+		}
+		if(pending){
+			undecided.add(deviceID);
+		} else{
+			undecided.remove(deviceID);
+		}
+		if(!changed){
+			return null;
+		}
+
+		SystemBeacons confirmed = new SystemBeacons();
+		for(SystemBeacon beacon : reported){
+			if(state.beacons.get(beacon.key()).confirmed){
+				confirmed.addBeacon(beacon);
+			}
+		}
+		for(BeaconState beaconState : state.beacons.values()){
+			if(beaconState.confirmed && !confirmed.containsBeacon(beaconState.beacon)){
+				confirmed.addBeacon(beaconState.beacon);
+			}
+		}
+		return confirmed;
+	}
+
+	/** Beacons of a Device, guarded by the lock of the state
+	 */
+	private static final class DeviceState {
+		private final LongHashMap<BeaconState> beacons = new LongHashMap<>();
+		private SystemBeacons lastReport;
+		private SystemBeacons confirmed;
+		private boolean firstContact = true;
+	}
+
+	/** Samples and confirmation of a beacon of a Device, the latest sample is the lowest bit
+	 */
+	private static final class BeaconState {
+		private SystemBeacon beacon;
+		private long samples;
+		private boolean confirmed;
+		private boolean missing;
+		private long confirmedSince;
+		private long lastSeen;
+	}
+}
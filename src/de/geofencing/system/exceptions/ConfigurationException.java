@@ -10,7 +10,7 @@ public class ConfigurationException extends Exception {
 	/** Types of configuration errors
 	 * 
 	 */
-	public enum Error{ValueNotFound, ValueNotSet, FileNotExisiting, CouldntWriteFile, Other};
+	public enum Error{ValueNotFound, ValueNotSet, ValueMalformed, FileNotExisiting, CouldntWriteFile, Other};
 
 	private static final long serialVersionUID = 1L;
 	private final Error error;
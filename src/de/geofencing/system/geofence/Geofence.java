@@ -11,6 +11,7 @@ import de.geofencing.event.Trigger;
 import de.geofencing.system.beacon.SystemBeacon;
 import de.geofencing.system.beacon.SystemBeacons;
 import de.geofencing.system.exceptions.NotFoundException;
+import de.geofencing.util.LongHashMap;
 
 /** Represents a Geofence with its Events and SystemBeacons
  * The minor is the identifier and the Geofence is described by description
@@ -27,6 +28,7 @@ public class Geofence implements Serializable {
 	
 	private SystemBeacons beacons;
 	private List<Event> events;
+	private transient volatile EventIndex eventIndex;
 		
 	/** Constructor for serializing
 	 * 
@@ -144,14 +146,23 @@ public class Geofence implements Serializable {
 	 * @throws NotFoundException if eventID not existing
 	 */
 	public Event getEvent(int eventID) throws NotFoundException{
-		for(Event event : events){
-			if(event.getEventID() == eventID){
-				return event;
-			}
+		Event event = this.eventIndex().byID.get(eventID);
+		if(event != null){
+			return event;
 		}
 		throw new NotFoundException("Event " + eventID);
 	}
 	
+	/** Gets Events which are triggered by the given direction, 
+	 * including the Events which react to every direction
+	 * 
+	 * @param direction Direction of the movement of the Device
+	 * @return Array of the Events in the order they were added, must not be modified
+	 */
+	public Event[] getEvents(Trigger.Direction direction){
+		return this.eventIndex().byDirection[direction.ordinal()];
+	}
+	
 	/** Gets list of events
 	 * 
 	 * @return List of events
@@ -179,20 +190,61 @@ public class Geofence implements Serializable {
 	 * @return true if Event is added, false if not
 	 */
 	public boolean addEvent(Event event){
+		eventIndex = null;
 		return this.events.add(event);
 	}
 	
-	/** Triggers every Event of the Geofence with the given direction
+	/** Triggers the Events of the Geofence with the given direction
 	 *
 	 * @param direction of the Event (Enter oder Leave)
 	 * @param deviceID of the triggering Device
 	 * @throws NotFoundException if deviceID not existing
 	 */
 	public void trigger(Trigger.Direction direction, int deviceID) throws NotFoundException{
-		for(Event event:events){
+		for(Event event : this.getEvents(direction)){
 			event.checkTrigger(direction, deviceID);
 		}
 	}
+	
+	/** Gets index of the Events, builds it after Events are added
+	 * 
+	 * @return EventIndex of the current Events
+	 */
+	private EventIndex eventIndex(){
+		EventIndex index = eventIndex;
+		if(index == null){
+			index = new EventIndex(events != null ? events : new ArrayList<Event>());
+			eventIndex = index;
+		}
+		return index;
+	}
+	
+	/** Events partitioned by the Trigger.Direction they are triggered by 
+	 * and indexed by eventID, not modified after creation
+	 */
+	private static final class EventIndex {
+		
+		private final Event[][] byDirection;
+		private final LongHashMap<Event> byID;
+		
+		private EventIndex(List<Event> events){
+			Trigger.Direction[] directions = Trigger.Direction.values();
+			byDirection = new Event[directions.length][];
+			for(Trigger.Direction direction : directions){
+				List<Event> triggered = new ArrayList<>();
+				for(Event event : events){
+					if(event.isTriggeredBy(direction)){
+						triggered.add(event);
+					}
+				}
+				byDirection[direction.ordinal()] = triggered.toArray(new Event[triggered.size()]);
+			}
+			byID = new LongHashMap<>(events.size());
+			for(Event event : events){
+				byID.put(event.getEventID(), event);
+			}
+		}
+	}
 
 	@Override
 	public int hashCode() {
@@ -0,0 +1,303 @@
+package de.geofencing.system.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import de.geofencing.database.GeofencingDBConnector;
+import de.geofencing.log.LogEntry;
+import de.geofencing.system.beacon.SystemBeacon;
+import de.geofencing.util.DeviceBitmap;
+
+/** Keeps the occupancy of each Geofence in memory: the deviceIDs of the Devices inside a Geofence
+ * as compressed bitmap by minor, and the minors of the Geofences of each Device.
+ * The index is maintained with the entered and left Geofences of each Device update
+ * and built from the beacons of the Devices in the database on the start of the system or on a rebuild.
+ *
+ * Counts are O(1), Devices in some Geofences and not in others are found by intersecting
+ * and subtracting the bitmaps. Movements during a rebuild are replayed on the rebuilt index.
+ *
+ * @author Markus Thral
+ *
+ */
+public class OccupancyIndex {
+
+	private static volatile OccupancyIndex instance;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private Memberships memberships = new Memberships();
+	private List<Consumer<Memberships>> journal;
+
+	private final AtomicLong rebuilds = new AtomicLong();
+	private volatile long lastRebuild = -1;
+
+	private OccupancyIndex(){
+	}
+
+	/** Gets the shared index, which is built from the database on the first call.
+	 * The first call is done on the start of the system (GeofencingSystem), not by a Device update
+	 *
+	 * @return OccupancyIndex of the system
+	 */
+	public static OccupancyIndex getInstance(){
+		if(instance == null){
+			synchronized(OccupancyIndex.class){
+				if(instance == null){
+					OccupancyIndex index = new OccupancyIndex();
+					try{
+						index.rebuild();
+					}catch(RuntimeException e){
+						LogEntry.c(e);
+					}
+					instance = index;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Records that the Device entered the Geofence
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 */
+	public void enter(int deviceID, int minor){
+		this.apply(index -> index.enter(deviceID, minor));
+	}
+
+	/** Records that the Device left the Geofence
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @param minor Minor of the Geofence
+	 */
+	public void leave(int deviceID, int minor){
+		this.apply(index -> index.leave(deviceID, minor));
+	}
+
+	/** Removes the Device from all Geofences, i.e. if the Device is removed
+	 *
+	 * @param deviceID DeviceID of the Device
+	 */
+	public void removeDevice(int deviceID){
+		this.apply(index -> index.removeDevice(deviceID));
+	}
+
+	/** Gets number of Devices inside the Geofence in O(1)
+	 *
+	 * @param minor Minor of the Geofence
+	 * @return number of Devices
+	 */
+	public int count(int minor){
+		lock.readLock().lock();
+		try{
+			DeviceBitmap bitmap = memberships.geofences.get(minor);
+			return bitmap != null ? bitmap.cardinality() : 0;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Gets number of Devices inside each Geofence with at least one Device
+	 *
+	 * @return Number of Devices by minor
+	 */
+	public Map<Integer, Integer> counts(){
+		Map<Integer, Integer> counts = new TreeMap<>();
+		lock.readLock().lock();
+		try{
+			for(Map.Entry<Integer, DeviceBitmap> entry : memberships.geofences.entrySet()){
+				counts.put(entry.getKey(), entry.getValue().cardinality());
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+		return counts;
+	}
+
+	/** Gets Devices inside all Geofences of in and outside all Geofences of notIn
+	 *
+	 * @param in Minors of the Geofences the Devices have to be inside, at least one
+	 * @param notIn Minors of the Geofences the Devices must not be inside
+	 * @return Bitmap with the deviceIDs
+	 */
+	public DeviceBitmap query(Collection<Integer> in, Collection<Integer> notIn){
+		if(in.isEmpty()){
+			throw new IllegalArgumentException("At least one Geofence the Devices are inside is needed");
+		}
+		lock.readLock().lock();
+		try{
+			DeviceBitmap result = null;
+			for(int minor : in){
+				DeviceBitmap bitmap = memberships.geofences.get(minor);
+				if(bitmap == null){
+					return new DeviceBitmap();
+				}
+				result = result == null ? new DeviceBitmap(bitmap) : result.and(bitmap);
+			}
+			for(int minor : notIn){
+				DeviceBitmap bitmap = memberships.geofences.get(minor);
+				if(bitmap != null){
+					result = result.andNot(bitmap);
+				}
+			}
+			return result;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Gets Devices inside the Geofence
+	 *
+	 * @param minor Minor of the Geofence
+	 * @return Bitmap with the deviceIDs
+	 */
+	public DeviceBitmap getDevices(int minor){
+		return this.query(Arrays.asList(minor), new ArrayList<>());
+	}
+
+	/** Gets Geofences the Device is inside
+	 *
+	 * @param deviceID DeviceID of the Device
+	 * @return Minors of the Geofences, empty if the Device is outside of all Geofences
+	 */
+	public Set<Integer> getGeofences(int deviceID){
+		lock.readLock().lock();
+		try{
+			Set<Integer> minors = memberships.devices.get(deviceID);
+			return minors != null ? new LinkedHashSet<>(minors) : new LinkedHashSet<>();
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Builds the index from the beacons of the Devices in the database and replaces the current index.
+	 * Movements recorded while the Devices are read are replayed on the new index
+	 *
+	 * @return number of Devices inside at least one Geofence
+	 */
+	public int rebuild(){
+		lock.writeLock().lock();
+		try{
+			if(journal != null){
+				throw new IllegalStateException("Occupancy index is already rebuilt");
+			}
+			journal = new ArrayList<>();
+		}finally{
+			lock.writeLock().unlock();
+		}
+
+		long start = System.currentTimeMillis();
+		Memberships rebuilt = new Memberships();
+		try{
+			GeofencingDBConnector.forEachDeviceBeacons((deviceID, beacons) -> {
+				if(beacons != null){
+					for(SystemBeacon beacon : beacons){
+						rebuilt.enter(deviceID, beacon.getMinor());
+					}
+				}
+			});
+		}catch(RuntimeException e){
+			lock.writeLock().lock();
+			journal = null;
+			lock.writeLock().unlock();
+			throw e;
+		}
+
+		lock.writeLock().lock();
+		try{
+			for(Consumer<Memberships> movement : journal){
+				movement.accept(rebuilt);
+			}
+			journal = null;
+			memberships = rebuilt;
+		}finally{
+			lock.writeLock().unlock();
+		}
+		rebuilds.incrementAndGet();
+		lastRebuild = System.currentTimeMillis() - start;
+		return rebuilt.devices.size();
+	}
+
+	/** Gets statistics of the index: Geofences with Devices inside, Devices inside a Geofence,
+	 * memberships, rebuilds and duration (ms) of the last rebuild
+	 *
+	 * @return Map with the statistics
+	 */
+	public Map<String, Object> getStatistics(){
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		lock.readLock().lock();
+		try{
+			long count = 0;
+			for(DeviceBitmap bitmap : memberships.geofences.values()){
+				count += bitmap.cardinality();
+			}
+			statistics.put("geofences", memberships.geofences.size());
+			statistics.put("devices", memberships.devices.size());
+			statistics.put("memberships", count);
+		}finally{
+			lock.readLock().unlock();
+		}
+		statistics.put("rebuilds", rebuilds.get());
+		statistics.put("lastRebuild", lastRebuild);
+		return statistics;
+	}
+
+	/** Applies the movement on the index and records it for a running rebuild
+	 *
+	 * @param movement Movement of a Device
+	 */
+	private void apply(Consumer<Memberships> movement){
+		lock.writeLock().lock();
+		try{
+			movement.accept(memberships);
+			if(journal != null){
+				journal.add(movement);
+			}
+		}finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** Devices of each Geofence and Geofences of each Device, guarded by the lock of the index
+	 */
+	private static final class Memberships {
+		private final Map<Integer, DeviceBitmap> geofences = new HashMap<>();
+		private final Map<Integer, Set<Integer>> devices = new HashMap<>();
+
+		private void enter(int deviceID, int minor){
+			geofences.computeIfAbsent(minor, key -> new DeviceBitmap()).add(deviceID);
+			devices.computeIfAbsent(deviceID, key -> new LinkedHashSet<>()).add(minor);
+		}
+
+		private void leave(int deviceID, int minor){
+			DeviceBitmap bitmap = geofences.get(minor);
+			if(bitmap != null && bitmap.remove(deviceID) && bitmap.isEmpty()){
+				geofences.remove(minor);
+			}
+			Set<Integer> minors = devices.get(deviceID);
+			if(minors != null && minors.remove(minor) && minors.isEmpty()){
+				devices.remove(deviceID);
+			}
+		}
+
+		private void removeDevice(int deviceID){
+			Set<Integer> minors = devices.get(deviceID);
+			if(minors != null){
+				for(int minor : new ArrayList<>(minors)){
+					this.leave(deviceID, minor);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,523 @@
+package de.geofencing.util;
+
+import java.util.Arrays;
+
+/** Compressed set of int IDs (i.e. deviceIDs), split like a Roaring bitmap:
+ * the upper 16 bits of an ID select a container, which holds the lower 16 bits
+ * either as sorted array (up to 4096 IDs) or as bitmap of 65536 bits (more IDs).
+ * Sparse sets need 2 bytes per ID, dense sets 1 bit per ID.
+ * The number of IDs is counted, so the cardinality is O(1).
+ * Intersection, difference and union create new bitmaps and work on whole containers.
+ *
+ * Not synchronized: Concurrent readers need a bitmap which is not modified anymore.
+ *
+ * @author Markus Thral
+ *
+ */
+public class DeviceBitmap {
+
+	private static final int arrayMax = 4096;
+
+	private char[] keys;
+	private Container[] containers;
+	private int size;
+	private int cardinality;
+
+	/** Creates empty bitmap
+	 *
+	 */
+	public DeviceBitmap(){
+		keys = new char[4];
+		containers = new Container[4];
+	}
+
+	/** Creates copy of the given bitmap
+	 *
+	 * @param other Bitmap to be copied
+	 */
+	public DeviceBitmap(DeviceBitmap other){
+		keys = Arrays.copyOf(other.keys, Math.max(4, other.size));
+		containers = new Container[keys.length];
+		for(int i = 0; i < other.size; i++){
+			containers[i] = other.containers[i].copy();
+		}
+		size = other.size;
+		cardinality = other.cardinality;
+	}
+
+	/** Gets number of IDs in O(1)
+	 *
+	 * @return number of IDs
+	 */
+	public int cardinality(){
+		return cardinality;
+	}
+
+	public boolean isEmpty(){
+		return cardinality == 0;
+	}
+
+	/** Checks if the ID is contained
+	 *
+	 * @param id ID to be checked
+	 * @return true if contained, false if not
+	 */
+	public boolean contains(int id){
+		int index = indexOf(high(id));
+		return index >= 0 && containers[index].contains(low(id));
+	}
+
+	/** Adds ID
+	 *
+	 * @param id ID to be added
+	 * @return true if added, false if already contained
+	 */
+	public boolean add(int id){
+		char high = high(id);
+		int index = indexOf(high);
+		if(index < 0){
+			index = -index - 1;
+			insert(index, high, new ArrayContainer());
+		}
+		Container container = containers[index];
+		int before = container.cardinality();
+		containers[index] = container.add(low(id));
+		if(containers[index].cardinality() == before){
+			return false;
+		}
+		cardinality++;
+		return true;
+	}
+
+	/** Removes ID
+	 *
+	 * @param id ID to be removed
+	 * @return true if removed, false if not contained
+	 */
+	public boolean remove(int id){
+		int index = indexOf(high(id));
+		if(index < 0){
+			return false;
+		}
+		Container container = containers[index];
+		int before = container.cardinality();
+		container = container.remove(low(id));
+		if(container.cardinality() == before){
+			return false;
+		}
+		cardinality--;
+		if(container.cardinality() == 0){
+			delete(index);
+		} else{
+			containers[index] = container;
+		}
+		return true;
+	}
+
+	/** Creates bitmap with the IDs contained in this and the other bitmap
+	 *
+	 * @param other Bitmap to be intersected
+	 * @return new bitmap with the intersection
+	 */
+	public DeviceBitmap and(DeviceBitmap other){
+		DeviceBitmap result = new DeviceBitmap();
+		int i = 0;
+		int j = 0;
+		while(i < size && j < other.size){
+			if(keys[i] < other.keys[j]){
+				i++;
+			} else if(keys[i] > other.keys[j]){
+				j++;
+			} else{
+				result.append(keys[i], containers[i].and(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/** Creates bitmap with the IDs contained in this but not in the other bitmap
+	 *
+	 * @param other Bitmap to be subtracted
+	 * @return new bitmap with the difference
+	 */
+	public DeviceBitmap andNot(DeviceBitmap other){
+		DeviceBitmap result = new DeviceBitmap();
+		int i = 0;
+		int j = 0;
+		while(i < size){
+			if(j >= other.size || keys[i] < other.keys[j]){
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if(keys[i] > other.keys[j]){
+				j++;
+			} else{
+				result.append(keys[i], containers[i].andNot(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/** Creates bitmap with the IDs contained in this or the other bitmap
+	 *
+	 * @param other Bitmap to be united
+	 * @return new bitmap with the union
+	 */
+	public DeviceBitmap or(DeviceBitmap other){
+		DeviceBitmap result = new DeviceBitmap();
+		int i = 0;
+		int j = 0;
+		while(i < size || j < other.size){
+			if(j >= other.size || (i < size && keys[i] < other.keys[j])){
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if(i >= size || keys[i] > other.keys[j]){
+				result.append(other.keys[j], other.containers[j].copy());
+				j++;
+			} else{
+				result.append(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/** Gets all IDs
+	 *
+	 * @return Array of the IDs in ascending unsigned order
+	 */
+	public int[] toArray(){
+		int[] ids = new int[cardinality];
+		int offset = 0;
+		for(int i = 0; i < size; i++){
+			offset = containers[i].fill(keys[i] << 16, ids, offset);
+		}
+		return ids;
+	}
+
+	@Override
+	public String toString() {
+		return "DeviceBitmap [cardinality=" + cardinality + ", containers=" + size + "]";
+	}
+
+	private static char high(int id){
+		return (char)(id >>> 16);
+	}
+
+	private static char low(int id){
+		return (char)id;
+	}
+
+	private int indexOf(char high){
+		return Arrays.binarySearch(keys, 0, size, high);
+	}
+
+	private void insert(int index, char high, Container container){
+		if(size == keys.length){
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = high;
+		containers[index] = container;
+		size++;
+	}
+
+	private void delete(int index){
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+		size--;
+		containers[size] = null;
+	}
+
+	/** Appends container with a key greater than all keys, ignored if empty
+	 *
+	 * @param high Upper 16 bits of the IDs
+	 * @param container Container with the lower 16 bits
+	 */
+	private void append(char high, Container container){
+		if(container.cardinality() > 0){
+			insert(size, high, container);
+			cardinality += container.cardinality();
+		}
+	}
+
+	/** Lower 16 bits of the IDs with the same upper 16 bits
+	 */
+	private static abstract class Container {
+		abstract int cardinality();
+		abstract boolean contains(char low);
+		abstract Container add(char low);
+		abstract Container remove(char low);
+		abstract Container and(Container other);
+		abstract Container andNot(Container other);
+		abstract Container or(Container other);
+		abstract Container copy();
+		abstract int fill(int high, int[] ids, int offset);
+	}
+
+	/** Sorted array of up to 4096 values
+	 */
+	private static final class ArrayContainer extends Container {
+		private char[] values;
+		private int size;
+
+		private ArrayContainer(){
+			values = new char[4];
+		}
+
+		private ArrayContainer(char[] values, int size){
+			this.values = values;
+			this.size = size;
+		}
+
+		@Override
+		int cardinality(){
+			return size;
+		}
+
+		@Override
+		boolean contains(char low){
+			return Arrays.binarySearch(values, 0, size, low) >= 0;
+		}
+
+		@Override
+		Container add(char low){
+			int index = Arrays.binarySearch(values, 0, size, low);
+			if(index >= 0){
+				return this;
+			}
+			if(size >= arrayMax){
+				return this.toBitmap().add(low);
+			}
+			index = -index - 1;
+			if(size == values.length){
+				values = Arrays.copyOf(values, Math.min(arrayMax, size * 2));
+			}
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = low;
+			size++;
+			return this;
+		}
+
+		@Override
+		Container remove(char low){
+			int index = Arrays.binarySearch(values, 0, size, low);
+			if(index >= 0){
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				size--;
+			}
+			return this;
+		}
+
+		@Override
+		Container and(Container other){
+			char[] result = new char[Math.min(size, other.cardinality())];
+			int count = 0;
+			for(int i = 0; i < size; i++){
+				if(other.contains(values[i])){
+					result[count++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, count);
+		}
+
+		@Override
+		Container andNot(Container other){
+			char[] result = new char[size];
+			int count = 0;
+			for(int i = 0; i < size; i++){
+				if(!other.contains(values[i])){
+					result[count++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, count);
+		}
+
+		@Override
+		Container or(Container other){
+			if(other instanceof BitmapContainer){
+				return other.or(this);
+			}
+			ArrayContainer array = (ArrayContainer)other;
+			char[] result = new char[size + array.size];
+			int count = 0;
+			int i = 0;
+			int j = 0;
+			while(i < size || j < array.size){
+				if(j >= array.size || (i < size && values[i] < array.values[j])){
+					result[count++] = values[i++];
+				} else if(i >= size || values[i] > array.values[j]){
+					result[count++] = array.values[j++];
+				} else{
+					result[count++] = values[i++];
+					j++;
+				}
+			}
+			ArrayContainer union = new ArrayContainer(result, count);
+			return count > arrayMax ? union.toBitmap() : union;
+		}
+
+		@Override
+		Container copy(){
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(4, size)), size);
+		}
+
+		@Override
+		int fill(int high, int[] ids, int offset){
+			for(int i = 0; i < size; i++){
+				ids[offset++] = high | values[i];
+			}
+			return offset;
+		}
+
+		private BitmapContainer toBitmap(){
+			BitmapContainer bitmap = new BitmapContainer();
+			for(int i = 0; i < size; i++){
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		}
+	}
+
+	/** Bitmap of 65536 bits for more than 4096 values
+	 */
+	private static final class BitmapContainer extends Container {
+		private final long[] words;
+		private int cardinality;
+
+		private BitmapContainer(){
+			words = new long[1024];
+		}
+
+		private BitmapContainer(long[] words){
+			this.words = words;
+			for(long word : words){
+				cardinality += Long.bitCount(word);
+			}
+		}
+
+		@Override
+		int cardinality(){
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char low){
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		Container add(char low){
+			long word = words[low >>> 6];
+			long updated = word | (1L << low);
+			if(updated != word){
+				words[low >>> 6] = updated;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		Container remove(char low){
+			long word = words[low >>> 6];
+			long updated = word & ~(1L << low);
+			if(updated != word){
+				words[low >>> 6] = updated;
+				cardinality--;
+				if(cardinality <= arrayMax){
+					return this.toArray();
+				}
+			}
+			return this;
+		}
+
+		@Override
+		Container and(Container other){
+			if(other instanceof ArrayContainer){
+				return other.and(this);
+			}
+			long[] result = new long[words.length];
+			long[] otherWords = ((BitmapContainer)other).words;
+			for(int i = 0; i < words.length; i++){
+				result[i] = words[i] & otherWords[i];
+			}
+			return new BitmapContainer(result).normalize();
+		}
+
+		@Override
+		Container andNot(Container other){
+			long[] result = Arrays.copyOf(words, words.length);
+			if(other instanceof ArrayContainer){
+				ArrayContainer array = (ArrayContainer)other;
+				for(int i = 0; i < array.size; i++){
+					char low = array.values[i];
+					result[low >>> 6] &= ~(1L << low);
+				}
+			} else{
+				long[] otherWords = ((BitmapContainer)other).words;
+				for(int i = 0; i < words.length; i++){
+					result[i] &= ~otherWords[i];
+				}
+			}
+			return new BitmapContainer(result).normalize();
+		}
+
+		@Override
+		Container or(Container other){
+			long[] result = Arrays.copyOf(words, words.length);
+			if(other instanceof ArrayContainer){
+				ArrayContainer array = (ArrayContainer)other;
+				for(int i = 0; i < array.size; i++){
+					char low = array.values[i];
+					result[low >>> 6] |= 1L << low;
+				}
+			} else{
+				long[] otherWords = ((BitmapContainer)other).words;
+				for(int i = 0; i < words.length; i++){
+					result[i] |= otherWords[i];
+				}
+			}
+			return new BitmapContainer(result);
+		}
+
+		@Override
+		Container copy(){
+			return new BitmapContainer(Arrays.copyOf(words, words.length));
+		}
+
+		@Override
+		int fill(int high, int[] ids, int offset){
+			for(int i = 0; i < words.length; i++){
+				long word = words[i];
+				while(word != 0){
+					ids[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		private Container normalize(){
+			return cardinality <= arrayMax ? this.toArray() : this;
+		}
+
+		private ArrayContainer toArray(){
+			char[] values = new char[Math.max(4, cardinality)];
+			int count = 0;
+			for(int i = 0; i < words.length; i++){
+				long word = words[i];
+				while(word != 0){
+					values[count++] = (char)((i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, count);
+		}
+	}
+}
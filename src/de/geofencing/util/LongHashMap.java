@@ -0,0 +1,227 @@
+package de.geofencing.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Hash map with primitive long keys. Entries are stored with open addressing 
+ * (linear probing) in two arrays, so lookups do not box the key 
+ * and no entry objects are created. Null values are not supported.
+ * 
+ * Not synchronized: Concurrent readers need a map which is not modified anymore,
+ * i.e. a copy which is replaced as a whole.
+ * 
+ * @author Markus Thral
+ *
+ * @param <V> Class of the values
+ */
+public class LongHashMap<V> {
+	
+	private static final int minCapacity = 16;
+	
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	
+	/** Creates empty map
+	 * 
+	 */
+	public LongHashMap(){
+		this(minCapacity / 2);
+	}
+	
+	/** Creates empty map with capacity for the given number of entries
+	 * 
+	 * @param expectedSize Number of entries which can be added without resize
+	 */
+	public LongHashMap(int expectedSize){
+		allocate(capacityFor(expectedSize));
+	}
+	
+	/** Creates copy of the given map
+	 * 
+	 * @param other Map to be copied
+	 */
+	public LongHashMap(LongHashMap<V> other){
+		this.keys = Arrays.copyOf(other.keys, other.keys.length);
+		this.values = Arrays.copyOf(other.values, other.values.length);
+		this.size = other.size;
+		this.mask = other.mask;
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	/** Gets value of the key
+	 * 
+	 * @param key Key of the value
+	 * @return value or null if key not existing
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		int index = indexOf(key);
+		if(index < 0){
+			return null;
+		}
+		return (V)values[index];
+	}
+	
+	/** Checks if the key is existing
+	 * 
+	 * @param key Key to be checked
+	 * @return true if key existing, false if not
+	 */
+	public boolean containsKey(long key){
+		return indexOf(key) >= 0;
+	}
+	
+	/** Adds or replaces value of the key
+	 * 
+	 * @param key Key of the value
+	 * @param value Value to be added, not null
+	 * @return replaced value or null if key was not existing
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value){
+		if(value == null){
+			throw new IllegalArgumentException("Null values are not supported");
+		}
+		int index = slot(key);
+		while(values[index] != null){
+			if(keys[index] == key){
+				V previous = (V)values[index];
+				values[index] = value;
+				return previous;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+		size++;
+		if(size * 2 > values.length){
+			resize(values.length * 2);
+		}
+		return null;
+	}
+	
+	/** Removes key and its value
+	 * 
+	 * @param key Key to be removed
+	 * @return removed value or null if key was not existing
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		int index = indexOf(key);
+		if(index < 0){
+			return null;
+		}
+		V previous = (V)values[index];
+		//Shift following entries of the probe sequence back, so no deleted markers are needed
+		int next = index;
+		while(true){
+			next = (next + 1) & mask;
+			if(values[next] == null){
+				break;
+			}
+			int home = slot(keys[next]);
+			boolean stays = index <= next 
+					? (index < home && home <= next) 
+					: (index < home || home <= next);
+			if(!stays){
+				keys[index] = keys[next];
+				values[index] = values[next];
+				index = next;
+			}
+		}
+		values[index] = null;
+		size--;
+		return previous;
+	}
+	
+	/** Removes all entries
+	 * 
+	 */
+	public void clear(){
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	
+	/** Gets all values of the map
+	 * 
+	 * @return List of the values in no particular order
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values(){
+		List<V> list = new ArrayList<>(size);
+		for(Object value : values){
+			if(value != null){
+				list.add((V)value);
+			}
+		}
+		return list;
+	}
+	
+	/** Gets all keys of the map
+	 * 
+	 * @return Array of the keys in no particular order
+	 */
+	public long[] keys(){
+		long[] list = new long[size];
+		int count = 0;
+		for(int i=0; i<values.length; i++){
+			if(values[i] != null){
+				list[count++] = keys[i];
+			}
+		}
+		return list;
+	}
+	
+	private int indexOf(long key){
+		int index = slot(key);
+		while(values[index] != null){
+			if(keys[index] == key){
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+	
+	private int slot(long key){
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int)(hash ^ (hash >>> 32)) & mask;
+	}
+	
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void resize(int capacity){
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		size = 0;
+		for(int i=0; i<oldValues.length; i++){
+			if(oldValues[i] != null){
+				put(oldKeys[i], (V)oldValues[i]);
+			}
+		}
+	}
+	
+	private static int capacityFor(int expectedSize){
+		int capacity = minCapacity;
+		while(capacity < expectedSize * 2){
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}